@@ -8,6 +8,9 @@ import java.lang.annotation.Target;
 
 /**
  * Annotation for domain's field to specify primary key.
+ * <p>
+ * DBTestBase also reads test class fields of {@link com.test.dbunit.common.util.StaticColumnFilter.PrimaryKey}
+ * (or its array) annotated with this, and uses them as primary keys of fixture tables.
  * 
  * @author izumi_j
  * 
@@ -0,0 +1,169 @@
+package com.test.dbunit.common.db;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * {@link TestConnection}の生成箇所の記録と、クローズ漏れの検出を行うクラス。<br/>
+ * db.propertiesの db.tracking で記録方式を指定します。
+ * <ul>
+ * <li>off : 記録しない（既定）</li>
+ * <li>sampled : db.tracking.sampleRate 件に1件だけ生成箇所を記録する（常時有効にする場合の方式）</li>
+ * <li>lazy : 全件のスタックを取得し、生成箇所のフレームへの解決のみ参照時まで遅延する</li>
+ * </ul>
+ * off 以外の場合、クローズされずにGCされたコネクションを{@link ReferenceQueue}で検出し、
+ * {@link #reportLeaks()}とJVM終了時にログへ出力します。<br/>
+ * lazy はコネクション毎にスタックを取得する（{@link Throwable#fillInStackTrace()}）ため負荷が大きく、
+ * クローズ漏れを調査する場合のみ利用してください。
+ */
+public final class ConnectionTracker {
+
+	private static Log log = LogFactory.getLog(ConnectionTracker.class);
+
+	/** 記録方式 */
+	enum Mode {
+		OFF, SAMPLED, LAZY
+	}
+
+	private static final Mode MODE = Mode.valueOf(DbConnection.getProperty("db.tracking", "off").toUpperCase());
+	private static final int SAMPLE_RATE = Math.max(1, Integer.parseInt(DbConnection.getProperty(
+			"db.tracking.sampleRate", "100")));
+
+	/** 生成箇所の解決で読み飛ばすパッケージ */
+	private static final String OWN_PACKAGE = ConnectionTracker.class.getPackage().getName() + ".";
+
+	private static final AtomicLong sequence = new AtomicLong();
+	private static final ReferenceQueue<TestConnection> queue = new ReferenceQueue<TestConnection>();
+	/** クローズされていない記録（記録自体をGCさせないために保持する） */
+	private static final Set<Tracked> live = Collections.newSetFromMap(new ConcurrentHashMap<Tracked, Boolean>());
+
+	static {
+		if (MODE != Mode.OFF) {
+			Runtime.getRuntime().addShutdownHook(new Thread() {
+				@Override
+				public void run() {
+					reportLeaks();
+					reportOpenConnections();
+				}
+			});
+		}
+	}
+
+	private ConnectionTracker() {
+	}
+
+	/**
+	 * コネクションの追跡を開始する
+	 * @param conn	コネクション
+	 * @return	追跡記録。記録しない場合は null
+	 */
+	static Tracked track(TestConnection conn) {
+		if (MODE == Mode.OFF) {
+			return null;
+		}
+		Throwable site = null;
+		if (MODE == Mode.LAZY || sequence.getAndIncrement() % SAMPLE_RATE == 0) {
+			// スタックの取得はここで行い、StackTraceElement への解決のみ参照時まで遅延する
+			site = new Throwable();
+		}
+		Tracked tracked = new Tracked(conn, site);
+		live.add(tracked);
+		return tracked;
+	}
+
+	/**
+	 * コネクションがクローズされたことを記録する
+	 * @param tracked	追跡記録
+	 */
+	static void closed(Tracked tracked) {
+		if (tracked != null) {
+			live.remove(tracked);
+			tracked.clear();
+		}
+	}
+
+	/**
+	 * @param tracked	追跡記録
+	 * @return	生成箇所。記録していない場合は null
+	 */
+	static StackTraceElement getCreationSite(Tracked tracked) {
+		if (tracked == null) {
+			return null;
+		}
+		return tracked.getCreationSite();
+	}
+
+	/**
+	 * クローズされずにGCされたコネクションをログへ出力する
+	 * @return	検出したクローズ漏れの件数
+	 */
+	public static int reportLeaks() {
+		int count = 0;
+		Tracked tracked;
+		while ((tracked = (Tracked)queue.poll()) != null) {
+			if (live.remove(tracked)) {
+				count++;
+				log.warn("TestConnection was not closed: created at " + describe(tracked));
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @return	クローズされていないコネクションの生成箇所
+	 */
+	public static List<String> getOpenConnections() {
+		List<String> sites = new ArrayList<String>();
+		for (Tracked tracked : live) {
+			if (tracked.get() != null) {
+				sites.add(describe(tracked));
+			}
+		}
+		return sites;
+	}
+
+	private static void reportOpenConnections() {
+		for (String site : getOpenConnections()) {
+			log.warn("TestConnection is still open at shutdown: created at " + site);
+		}
+	}
+
+	private static String describe(Tracked tracked) {
+		StackTraceElement site = tracked.getCreationSite();
+		return site != null ? site.toString() : "(not sampled)";
+	}
+
+	/**
+	 * コネクション毎の追跡記録
+	 */
+	static final class Tracked extends WeakReference<TestConnection> {
+		private final Throwable site;
+		private StackTraceElement creationSite = null;
+
+		Tracked(TestConnection conn, Throwable site) {
+			super(conn, queue);
+			this.site = site;
+		}
+
+		synchronized StackTraceElement getCreationSite() {
+			if (creationSite == null && site != null) {
+				for (StackTraceElement frame : site.getStackTrace()) {
+					if (!frame.getClassName().startsWith(OWN_PACKAGE)) {
+						creationSite = frame;
+						break;
+					}
+				}
+			}
+			return creationSite;
+		}
+	}
+}
@@ -2,6 +2,7 @@ package com.test.dbunit.common.db;
 
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.util.MissingResourceException;
 import java.util.ResourceBundle;
 
 /**
@@ -14,6 +15,9 @@ public class DbConnection {
 	/** db.properties */
 	private static ResourceBundle bundle = ResourceBundle.getBundle("db");
 
+	/** コネクションプール（db.pool.enabled=false の場合は利用しない） */
+	private static DbConnectionPool pool = null;
+
 	/**
 	 * インスタンス化抑制用コンストラクタ
 	 */
@@ -22,26 +26,111 @@ public class DbConnection {
 
 	/**
 	 * DBコネクションを取得する。
-	 * アクセス情報はdb.propertiesから取得する
+	 * アクセス情報はdb.propertiesから取得する<br/>
+	 * db.pool.enabled=true の場合はプールから取得し、{@link Connection#close()}でプールへ返却される。<br/>
+	 * 現在のスレッドが{@link DbShard}を確保している場合は、そのシャードのユーザで接続する。
 	 * @return	DBコネクション
 	 * @throws Exception
 	 */
 	public static Connection getConnection() throws Exception {
+		DbShard shard = DbShard.current();
+		DbConnectionPool connectionPool = shard != null ? shard.getPool() : getPool();
+		if (connectionPool != null) {
+			return connectionPool.borrow();
+		}
+
 		String driver = bundle.getString("db.driver");
 		String url = bundle.getString("db.url");
-		String user = bundle.getString("db.user");
-		String password = bundle.getString("db.password");
+		String user = shard != null ? shard.getUser() : bundle.getString("db.user");
+		String password = shard != null ? shard.getPassword() : bundle.getString("db.password");
+
+		StatementCache statementCache = null;
+		if (getStatementCacheSize() > 0) {
+			statementCache = new StatementCache(getStatementCacheSize());
+		}
+		return TestConnection.newInstance(getConnection(driver, url, user, password), statementCache);
+	}
+
+	/**
+	 * コネクション毎のPreparedStatementキャッシュ数を取得する。
+	 * @return	キャッシュ数。0以下の場合はキャッシュしない
+	 */
+	private static int getStatementCacheSize() {
+		return Integer.parseInt(getProperty("db.statementCacheSize", "50"));
+	}
+
+	/**
+	 * コネクションプールを取得する。
+	 * 初回呼び出し時にdb.propertiesの設定で生成する
+	 * @return	コネクションプール。db.pool.enabled=false の場合は null
+	 * @throws Exception
+	 */
+	public static synchronized DbConnectionPool getPool() throws Exception {
+		if (pool == null) {
+			pool = newPool(bundle.getString("db.user"), bundle.getString("db.password"));
+		}
+		return pool;
+	}
 
-		return getConnection(driver, url, user, password);
+	/**
+	 * db.propertiesのプール設定で、指定ユーザのコネクションプールを生成する。
+	 * @param user		DBユーザID
+	 * @param password	DBユーザのパスワード
+	 * @return	コネクションプール。db.pool.enabled=false の場合は null
+	 * @throws Exception
+	 */
+	static DbConnectionPool newPool(String user, String password) throws Exception {
+		if (!Boolean.parseBoolean(getProperty("db.pool.enabled", "true"))) {
+			return null;
+		}
+		final DbConnectionPool newPool = new DbConnectionPool(
+				bundle.getString("db.driver"),
+				bundle.getString("db.url"),
+				user,
+				password,
+				Integer.parseInt(getProperty("db.pool.maxActive", "8")),
+				Integer.parseInt(getProperty("db.pool.initialSize", "1")),
+				Long.parseLong(getProperty("db.pool.maxWait", "30000")),
+				Long.parseLong(getProperty("db.pool.maxIdleTime", "600000")),
+				getProperty("db.pool.validationQuery", null),
+				getStatementCacheSize());
+		// JVM終了時に物理コネクションを解放する
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				newPool.close();
+			}
+		});
+		return newPool;
+	}
+
+	/**
+	 * db.propertiesから設定値を取得する。
+	 * @param key	キー
+	 * @param defaultValue	未設定の場合の値
+	 * @return	設定値
+	 */
+	public static String getProperty(String key, String defaultValue) {
+		try {
+			String value = bundle.getString(key).trim();
+			return value.length() == 0 ? defaultValue : value;
+		} catch (MissingResourceException e) {
+			return defaultValue;
+		}
 	}
 
 	/**
 	 * DBスキーマを取得する。
-	 * アクセス情報はdb.propertiesから取得する
+	 * アクセス情報はdb.propertiesから取得する<br/>
+	 * 現在のスレッドが{@link DbShard}を確保している場合は、そのシャードのスキーマを返す。
 	 * @return	 DBスキーマ
 	 * @throws Exception
 	 */
 	public static String getSchema() throws Exception {
+		DbShard shard = DbShard.current();
+		if (shard != null) {
+			return shard.getSchema();
+		}
 		return bundle.getString("db.schema");
 	}
 
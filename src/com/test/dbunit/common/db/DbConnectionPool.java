@@ -0,0 +1,453 @@
+package com.test.dbunit.common.db;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+import javax.sql.ConnectionEvent;
+import javax.sql.ConnectionEventListener;
+
+import org.apache.commons.dbutils.DbUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * 物理コネクションを再利用するための上限付きコネクションプール。<br/>
+ * 貸し出したコネクションは{@link TestConnection}でラップされ、
+ * {@link TestConnection#close()}が呼ばれると物理コネクションはクローズされずにプールへ返却されます。
+ */
+public class DbConnectionPool {
+
+	private static Log log = LogFactory.getLog(DbConnectionPool.class);
+
+	private final String url;
+	private final String user;
+	private final String password;
+
+	/** 最大貸出数 */
+	private final int maxActive;
+	/** 貸出待ちの最大時間（ミリ秒） */
+	private final long maxWait;
+	/** アイドル状態で保持する最大時間（ミリ秒）。0以下の場合は破棄しない */
+	private final long maxIdleTime;
+	/** 貸出時の検証SQL。nullの場合は検証しない */
+	private final String validationQuery;
+	/** 物理コネクション毎のステートメントキャッシュ数。0以下の場合はキャッシュしない */
+	private final int statementCacheSize;
+
+	/** アイドル中のコネクション（先頭が最後に返却されたもの） */
+	private final LinkedList<Entry> idle = new LinkedList<Entry>();
+	/** 生存している全ての物理コネクション */
+	private final Set<Entry> entries = new HashSet<Entry>();
+	/** 貸出中のコネクション数（作成中を含む） */
+	private int active = 0;
+	private boolean closed = false;
+
+	// 統計情報
+	private long borrowCount = 0;
+	private long waitCount = 0;
+	private long createCount = 0;
+	private long evictCount = 0;
+	private long totalBorrowNanos = 0;
+	private long maxBorrowNanos = 0;
+	/** 破棄済みコネクションのステートメントキャッシュヒット数 */
+	private long retiredStatementHits = 0;
+	/** 破棄済みコネクションのステートメントキャッシュミス数 */
+	private long retiredStatementMisses = 0;
+
+	/**
+	 * コンストラクタ
+	 * @param driver	JDBCドライバー名
+	 * @param url		DBのURL
+	 * @param user		DBユーザID
+	 * @param password	DBユーザのパスワード
+	 * @param maxActive	最大貸出数
+	 * @param initialSize	生成時に確保しておくコネクション数
+	 * @param maxWait	貸出待ちの最大時間（ミリ秒）
+	 * @param maxIdleTime	アイドル状態で保持する最大時間（ミリ秒）
+	 * @param validationQuery	貸出時の検証SQL
+	 * @param statementCacheSize	物理コネクション毎のステートメントキャッシュ数
+	 * @throws Exception
+	 */
+	public DbConnectionPool(String driver, String url, String user, String password, int maxActive,
+			int initialSize, long maxWait, long maxIdleTime, String validationQuery, int statementCacheSize)
+			throws Exception {
+		if (maxActive <= 0) {
+			throw new IllegalArgumentException("maxActive must be positive: maxActive=" + maxActive);
+		}
+		//JDBCドライバーをセット
+		Class.forName(driver);
+		this.url = url;
+		this.user = user;
+		this.password = password;
+		this.maxActive = maxActive;
+		this.maxWait = maxWait;
+		this.maxIdleTime = maxIdleTime;
+		this.validationQuery = validationQuery;
+		this.statementCacheSize = statementCacheSize;
+
+		warmUp(Math.min(initialSize, maxActive));
+	}
+
+	/**
+	 * コネクションを借りる。<br/>
+	 * 返却は{@link Connection#close()}で行う。
+	 * @return	コネクション
+	 * @throws SQLException
+	 */
+	public TestConnection borrow() throws SQLException {
+		long start = System.nanoTime();
+		long deadline = start + maxWait * 1000000L;
+		boolean waited = false;
+
+		while (true) {
+			Entry entry = null;
+			boolean create = false;
+			List<Entry> evicted;
+			synchronized (this) {
+				if (closed) {
+					throw new SQLException("Connection pool is already closed.");
+				}
+				evicted = evictExpired();
+				while (idle.isEmpty() && active >= maxActive) {
+					long remain = deadline - System.nanoTime();
+					if (remain <= 0) {
+						throw new SQLException("Timeout waiting for idle connection: maxActive=" + maxActive
+								+ ", maxWait=" + maxWait + "ms");
+					}
+					if (!waited) {
+						waited = true;
+						waitCount++;
+					}
+					try {
+						wait(remain / 1000000L + 1);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new SQLException("Interrupted while waiting for connection.", e);
+					}
+					if (closed) {
+						throw new SQLException("Connection pool is already closed.");
+					}
+				}
+				if (!idle.isEmpty()) {
+					entry = idle.removeFirst();
+				} else {
+					create = true;
+				}
+				active++;
+			}
+			closeAll(evicted);
+
+			try {
+				if (create) {
+					entry = newEntry();
+				} else if (!validate(entry)) {
+					destroy(entry);
+					release(null);
+					continue;
+				}
+			} catch (SQLException e) {
+				release(null);
+				throw e;
+			} catch (RuntimeException e) {
+				release(null);
+				throw e;
+			}
+
+			long elapsed = System.nanoTime() - start;
+			synchronized (this) {
+				borrowCount++;
+				totalBorrowNanos += elapsed;
+				maxBorrowNanos = Math.max(maxBorrowNanos, elapsed);
+			}
+			return wrap(entry);
+		}
+	}
+
+	/**
+	 * プールを閉じ、アイドル中のコネクションを全てクローズする。<br/>
+	 * 貸出中のコネクションは返却時にクローズされる。
+	 */
+	public void close() {
+		List<Entry> entries;
+		synchronized (this) {
+			closed = true;
+			entries = new ArrayList<Entry>(idle);
+			idle.clear();
+			notifyAll();
+		}
+		closeAll(entries);
+	}
+
+	/**
+	 * @return	貸出中のコネクション数
+	 */
+	public synchronized int getActiveCount() {
+		return active;
+	}
+
+	/**
+	 * @return	アイドル中のコネクション数
+	 */
+	public synchronized int getIdleCount() {
+		return idle.size();
+	}
+
+	/**
+	 * @return	貸出回数
+	 */
+	public synchronized long getBorrowCount() {
+		return borrowCount;
+	}
+
+	/**
+	 * @return	貸出待ちが発生した回数
+	 */
+	public synchronized long getWaitCount() {
+		return waitCount;
+	}
+
+	/**
+	 * @return	物理コネクションの生成回数
+	 */
+	public synchronized long getCreateCount() {
+		return createCount;
+	}
+
+	/**
+	 * @return	アイドル時間超過により破棄した回数
+	 */
+	public synchronized long getEvictCount() {
+		return evictCount;
+	}
+
+	/**
+	 * @return	貸出に要した平均時間（ミリ秒）
+	 */
+	public synchronized double getAverageBorrowMillis() {
+		if (borrowCount == 0) {
+			return 0;
+		}
+		return totalBorrowNanos / 1000000.0 / borrowCount;
+	}
+
+	/**
+	 * @return	貸出に要した最大時間（ミリ秒）
+	 */
+	public synchronized double getMaxBorrowMillis() {
+		return maxBorrowNanos / 1000000.0;
+	}
+
+	/**
+	 * @return	全物理コネクションのステートメントキャッシュヒット数
+	 */
+	public synchronized long getStatementCacheHitCount() {
+		long hits = retiredStatementHits;
+		for (Entry entry : entries) {
+			if (entry.statementCache != null) {
+				hits += entry.statementCache.getHitCount();
+			}
+		}
+		return hits;
+	}
+
+	/**
+	 * @return	全物理コネクションのステートメントキャッシュミス数
+	 */
+	public synchronized long getStatementCacheMissCount() {
+		long misses = retiredStatementMisses;
+		for (Entry entry : entries) {
+			if (entry.statementCache != null) {
+				misses += entry.statementCache.getMissCount();
+			}
+		}
+		return misses;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format(
+				"DbConnectionPool[active=%d, idle=%d, borrow=%d, wait=%d, create=%d, evict=%d, avgBorrow=%.3fms, maxBorrow=%.3fms, stmtHit=%d, stmtMiss=%d]",
+				active, idle.size(), borrowCount, waitCount, createCount, evictCount, getAverageBorrowMillis(),
+				getMaxBorrowMillis(), getStatementCacheHitCount(), getStatementCacheMissCount());
+	}
+
+	/**
+	 * 物理コネクションを事前に確保する
+	 * @param size	確保するコネクション数
+	 * @throws SQLException
+	 */
+	private void warmUp(int size) throws SQLException {
+		for (int i = 0; i < size; i++) {
+			Entry entry = newEntry();
+			synchronized (this) {
+				idle.addFirst(entry);
+			}
+		}
+	}
+
+	private Entry newEntry() throws SQLException {
+		Connection conn = DriverManager.getConnection(url, user, password);
+		StatementCache cache = null;
+		if (statementCacheSize > 0) {
+			cache = new StatementCache(statementCacheSize);
+		}
+		Entry entry = new Entry(conn, cache);
+		synchronized (this) {
+			createCount++;
+			entries.add(entry);
+		}
+		return entry;
+	}
+
+	/**
+	 * 物理コネクションを破棄する
+	 * @param entry	プールエントリ
+	 */
+	private void destroy(Entry entry) {
+		if (entry.statementCache != null) {
+			entry.statementCache.close();
+		}
+		DbUtils.closeQuietly(entry.connection);
+		synchronized (this) {
+			if (entries.remove(entry) && entry.statementCache != null) {
+				retiredStatementHits += entry.statementCache.getHitCount();
+				retiredStatementMisses += entry.statementCache.getMissCount();
+			}
+		}
+	}
+
+	/**
+	 * 貸出前の検証
+	 * @param entry	プールエントリ
+	 * @return	利用可能な場合 true
+	 */
+	private boolean validate(Entry entry) {
+		if (validationQuery == null) {
+			return true;
+		}
+		Statement stmt = null;
+		try {
+			stmt = entry.connection.createStatement();
+			stmt.execute(validationQuery);
+			return true;
+		} catch (SQLException e) {
+			log.warn("Discard invalid connection: " + e.getLocalizedMessage());
+			return false;
+		} finally {
+			DbUtils.closeQuietly(stmt);
+		}
+	}
+
+	/**
+	 * アイドル時間を超過したエントリをプールから外す。
+	 * @return	外したエントリ（ロック外でクローズする）
+	 */
+	private List<Entry> evictExpired() {
+		List<Entry> evicted = new ArrayList<Entry>();
+		if (maxIdleTime <= 0) {
+			return evicted;
+		}
+		long now = System.currentTimeMillis();
+		for (Iterator<Entry> it = idle.descendingIterator(); it.hasNext();) {
+			Entry entry = it.next();
+			if (now - entry.lastReturned < maxIdleTime) {
+				// 後方ほど古いので、以降は全て有効
+				break;
+			}
+			it.remove();
+			evicted.add(entry);
+			evictCount++;
+		}
+		return evicted;
+	}
+
+	private TestConnection wrap(final Entry entry) {
+		TestConnection testConn = TestConnection.newPooledInstance(entry.connection, entry.statementCache);
+		testConn.addConnectionEventListener(new ConnectionEventListener() {
+			@Override
+			public void connectionClosed(ConnectionEvent event) {
+				giveBack(entry);
+			}
+
+			@Override
+			public void connectionErrorOccurred(ConnectionEvent event) {
+			}
+		});
+		return testConn;
+	}
+
+	/**
+	 * 返却されたコネクションの状態を戻してプールへ戻す。
+	 * @param entry	プールエントリ
+	 */
+	private void giveBack(Entry entry) {
+		boolean reusable;
+		try {
+			Connection conn = entry.connection;
+			if (!conn.getAutoCommit()) {
+				conn.rollback();
+				conn.setAutoCommit(true);
+			}
+			reusable = !conn.isClosed();
+		} catch (SQLException e) {
+			log.warn("Discard broken connection: " + e.getLocalizedMessage());
+			reusable = false;
+		}
+		if (!reusable) {
+			destroy(entry);
+			entry = null;
+		}
+		release(entry);
+	}
+
+	/**
+	 * 貸出枠を解放する
+	 * @param entry	プールへ戻すエントリ。破棄した場合は null
+	 */
+	private void release(Entry entry) {
+		boolean discard = false;
+		synchronized (this) {
+			active--;
+			if (entry != null) {
+				if (closed) {
+					discard = true;
+				} else {
+					entry.lastReturned = System.currentTimeMillis();
+					idle.addFirst(entry);
+				}
+			}
+			notifyAll();
+		}
+		if (discard) {
+			destroy(entry);
+		}
+	}
+
+	private void closeAll(List<Entry> entries) {
+		for (Entry entry : entries) {
+			destroy(entry);
+		}
+	}
+
+	/**
+	 * プールで管理する物理コネクション
+	 */
+	private static class Entry {
+		final Connection connection;
+		final StatementCache statementCache;
+		long lastReturned = System.currentTimeMillis();
+
+		Entry(Connection connection, StatementCache statementCache) {
+			this.connection = connection;
+			this.statementCache = statementCache;
+		}
+	}
+}
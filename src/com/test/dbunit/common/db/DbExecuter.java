@@ -1,7 +1,20 @@
 package com.test.dbunit.common.db;
 
+import java.sql.BatchUpdateException;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.test.dbunit.common.util.TableMetaDataCache;
 
 /**
  * SQL実行
@@ -10,6 +23,15 @@ import java.sql.Statement;
  */
 public class DbExecuter {
 
+	private static Log log = LogFactory.getLog(DbExecuter.class);
+
+	/** DDL判定用パターン */
+	private static final Pattern DDL = Pattern.compile(
+			"^\\s*(CREATE|DROP|ALTER|TRUNCATE|RENAME|COMMENT|GRANT|REVOKE)\\b", Pattern.CASE_INSENSITIVE);
+
+	/** PL/SQLブロック判定用パターン */
+	private static final Pattern PLSQL_BLOCK = Pattern.compile("^\\s*(BEGIN|DECLARE)\\b", Pattern.CASE_INSENSITIVE);
+
 	/**
 	 * インスタンス化抑制用コンストラクタ
 	 */
@@ -17,17 +39,30 @@ public class DbExecuter {
 	}
 
 	/**
-	 * 更新系のSQLを実行する
+	 * 更新系のSQLを実行する<br/>
+	 * パラメータを指定し、SQL文にバインド変数（<code>?</code> または <code>:name</code>）がある場合は、
+	 * パラメータを出現順にバインドして{@link PreparedStatement}で実行する。
+	 * バインド変数が無い場合は、パラメータで書式文字列（<code>%s</code>）を置換して実行する。<br/>
+	 * パラメータを指定しない場合、DDL、PL/SQLブロックはバインド変数を解析しない
+	 * （トリガーの<code>:NEW</code>・<code>:OLD</code>やリテラルの<code>?</code>をそのまま実行する）。
 	 * @param sqlKey	SQLキー
-	 * @param params	置換文字列
+	 * @param params	バインド変数の値、または置換文字列
 	 * @throws Exception
 	 */
 	public static void update(String sqlKey, Object... params) throws Exception {
+		if (isBindable(SQLs.getSql(sqlKey), params)) {
+			SqlTemplate template = SQLs.getTemplate(sqlKey);
+			if (template.getParameterCount() > 0) {
+				executeTemplate(template, null, params);
+				return;
+			}
+		}
+
 		Connection conn = null;
 		Statement stmt = null;
 		try {
 			String sql = SQLs.getSql(sqlKey, params);
-			System.out.println(sql);
+			log.debug(sql);
 
 			conn = DbConnection.getConnection();
 			conn.setAutoCommit(true);
@@ -42,7 +77,250 @@ public class DbExecuter {
 			if (conn != null) {
 				conn.close();
 			}
+			schemaChanged(SQLs.getSql(sqlKey));
 		}
 
 	}
+
+	/**
+	 * 名前付きバインド変数（<code>:name</code>）を持つ更新系のSQLを実行する
+	 * @param sqlKey	SQLキー
+	 * @param params	バインド変数名と値
+	 * @return	更新件数
+	 * @throws Exception
+	 */
+	public static int update(String sqlKey, Map<String, ?> params) throws Exception {
+		return executeTemplate(SQLs.getTemplate(sqlKey), params, (Object[])null);
+	}
+
+	/**
+	 * SQLテンプレートを{@link PreparedStatement}で実行する。<br/>
+	 * 同じSQLキーの実行ではステートメントキャッシュにより同一カーソルが再利用される。
+	 * @param template	SQLテンプレート
+	 * @param named		名前付きパラメータ（位置パラメータの場合は null）
+	 * @param params	位置パラメータ
+	 * @return	更新件数
+	 * @throws Exception
+	 */
+	private static int executeTemplate(SqlTemplate template, Map<String, ?> named, Object... params)
+			throws Exception {
+		Connection conn = null;
+		PreparedStatement stmt = null;
+		try {
+			if (log.isDebugEnabled()) {
+				log.debug(template + " " + (named != null ? named : Arrays.asList(params)));
+			}
+
+			conn = DbConnection.getConnection();
+			conn.setAutoCommit(true);
+			stmt = conn.prepareStatement(template.getSql());
+			if (named != null) {
+				template.bind(stmt, named);
+			} else {
+				template.bind(stmt, params);
+			}
+
+			return stmt.executeUpdate();
+
+		} finally {
+			if (stmt != null) {
+				stmt.close();
+			}
+			if (conn != null) {
+				conn.close();
+			}
+		}
+	}
+
+	/**
+	 * sql.propertiesのグループに定義された更新系のSQLを、1つのコネクションでバッチ実行する
+	 * @param groupName	グループ名（sql.propertiesの group.&lt;グループ名&gt;）
+	 * @return	SQL毎の実行結果
+	 * @throws Exception
+	 * @see #updateBatch(List)
+	 */
+	public static List<Result> updateGroup(String groupName) throws Exception {
+		return updateBatch(SQLs.getGroup(groupName));
+	}
+
+	/**
+	 * 更新系のSQLを、1つのコネクションでバッチ実行する
+	 * @param sqlKeys	SQLキー
+	 * @return	SQL毎の実行結果
+	 * @throws Exception
+	 * @see #updateBatch(List)
+	 */
+	public static List<Result> updateBatch(String... sqlKeys) throws Exception {
+		return updateBatch(Arrays.asList(sqlKeys));
+	}
+
+	/**
+	 * 更新系のSQLを、1つのコネクションでバッチ実行する。<br/>
+	 * ドライバーがバッチ実行を拒否したDDLのみ、1文ずつの実行に切り替える。
+	 * DDL以外のSQLが失敗した場合は例外をそのまま送出する。
+	 * @param sqlKeys	SQLキー
+	 * @return	SQL毎の実行結果（sqlKeysと同じ順序）
+	 * @throws Exception
+	 */
+	public static List<Result> updateBatch(List<String> sqlKeys) throws Exception {
+		List<Result> results = new ArrayList<Result>();
+		if (sqlKeys.isEmpty()) {
+			return results;
+		}
+		String[] sqls = new String[sqlKeys.size()];
+		for (int i = 0; i < sqls.length; i++) {
+			sqls[i] = SQLs.getSql(sqlKeys.get(i));
+		}
+
+		Connection conn = null;
+		Statement stmt = null;
+		try {
+			conn = DbConnection.getConnection();
+			conn.setAutoCommit(true);
+			stmt = conn.createStatement();
+
+			int[] counts = null;
+			if (conn.getMetaData().supportsBatchUpdates()) {
+				for (String sql : sqls) {
+					log.debug(sql);
+					stmt.addBatch(sql);
+				}
+				try {
+					counts = stmt.executeBatch();
+				} catch (BatchUpdateException e) {
+					counts = e.getUpdateCounts() != null ? e.getUpdateCounts() : new int[0];
+					int failed = firstFailure(counts, sqls.length);
+					if (!isDdl(sqls[failed])) {
+						throw e;
+					}
+					log.info("Batch execution was refused, fall back to single execution: key=" + sqlKeys.get(failed)
+							+ ", cause=" + e.getLocalizedMessage());
+				} finally {
+					stmt.clearBatch();
+				}
+			} else {
+				counts = new int[0];
+			}
+
+			boolean completed = counts.length == sqls.length;
+			for (int i = 0; i < sqls.length; i++) {
+				boolean batched = i < counts.length && counts[i] != Statement.EXECUTE_FAILED;
+				if (batched) {
+					results.add(new Result(sqlKeys.get(i), sqls[i], counts[i], true));
+				} else if (completed && !isDdl(sqls[i])) {
+					// 失敗後も処理を継続するドライバーの場合、DML の失敗は再実行しない
+					throw new SQLException("Batch execution failed: key=" + sqlKeys.get(i) + ", sql=" + sqls[i]);
+				} else {
+					log.debug(sqls[i]);
+					results.add(new Result(sqlKeys.get(i), sqls[i], stmt.executeUpdate(sqls[i]), false));
+				}
+			}
+			return results;
+
+		} finally {
+			if (stmt != null) {
+				stmt.close();
+			}
+			if (conn != null) {
+				conn.close();
+			}
+			schemaChanged(sqls);
+		}
+	}
+
+	/**
+	 * バッチ実行で最初に失敗したSQLの位置を返す
+	 * @param counts	{@link BatchUpdateException#getUpdateCounts()}
+	 * @param size		バッチ実行したSQL数
+	 * @return	失敗位置
+	 */
+	private static int firstFailure(int[] counts, int size) {
+		for (int i = 0; i < counts.length; i++) {
+			if (counts[i] == Statement.EXECUTE_FAILED) {
+				return i;
+			}
+		}
+		return Math.min(counts.length, size - 1);
+	}
+
+	/**
+	 * バインド変数を解析するか判定する
+	 * @param sql		SQL文
+	 * @param params	パラメータ
+	 * @return	パラメータを指定し、DDL・PL/SQLブロックでない場合 true
+	 */
+	static boolean isBindable(String sql, Object... params) {
+		return params != null && params.length > 0 && !isDdl(sql) && !PLSQL_BLOCK.matcher(sql).find();
+	}
+
+	/**
+	 * @param sql	SQL文
+	 * @return	DDLの場合 true
+	 */
+	private static boolean isDdl(String sql) {
+		return DDL.matcher(sql).find();
+	}
+
+	/**
+	 * DDL、またはDDLを実行し得るPL/SQLブロックを実行した場合、テーブルのメタデータのキャッシュを破棄する
+	 * @param sqls	実行したSQL文
+	 */
+	private static void schemaChanged(String... sqls) {
+		for (String sql : sqls) {
+			if (isDdl(sql) || PLSQL_BLOCK.matcher(sql).find()) {
+				TableMetaDataCache.clear();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * バッチ実行したSQL毎の実行結果
+	 */
+	public static class Result {
+		private final String key;
+		private final String sql;
+		private final int updateCount;
+		private final boolean batched;
+
+		Result(String key, String sql, int updateCount, boolean batched) {
+			this.key = key;
+			this.sql = sql;
+			this.updateCount = updateCount;
+			this.batched = batched;
+		}
+
+		/**
+		 * @return	SQLキー
+		 */
+		public String getKey() {
+			return key;
+		}
+
+		/**
+		 * @return	SQL文
+		 */
+		public String getSql() {
+			return sql;
+		}
+
+		/**
+		 * @return	更新件数。ドライバーが件数を返さない場合は{@link Statement#SUCCESS_NO_INFO}
+		 */
+		public int getUpdateCount() {
+			return updateCount;
+		}
+
+		/**
+		 * @return	バッチで実行された場合 true、1文ずつ実行された場合 false
+		 */
+		public boolean isBatched() {
+			return batched;
+		}
+
+		@Override
+		public String toString() {
+			return key + "=" + updateCount + (batched ? "" : " (single)");
+		}
+	}
 }
@@ -0,0 +1,207 @@
+package com.test.dbunit.common.db;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * 並列実行用のワーカーシャード。<br/>
+ * db.propertiesの db.shard.count に1以上を指定すると、ワーカー毎に別のDBユーザ（スキーマ）を割り当てます。
+ * ユーザID・パスワード・スキーマの設定値中の <code>{0}</code> はシャード番号（1～N）に置換されます。
+ * <pre>
+ * db.shard.count=4
+ * db.shard.user=account_w{0}
+ * db.shard.password=account
+ * db.shard.schema=ACCOUNT_W{0}
+ * </pre>
+ * スレッドが{@link #acquire()}でシャードを確保している間、{@link DbConnection#getConnection()}と
+ * {@link DbConnection#getSchema()}はそのシャードへ振り分けられるため、
+ * {@link DbExecuter}によるテーブル作成やDBUnitの操作はワーカー毎のスキーマで行われます。<br/>
+ * テストクラスを並列に実行するため、テストの分離は db.isolation=savepoint とすること
+ * （JMockitによる db.isolation=mock はJVM全体に作用するため、シャード有効時はDBTestBaseがエラーとします）。
+ */
+public final class DbShard {
+
+	private static Log log = LogFactory.getLog(DbShard.class);
+
+	/** 全シャード（シャード番号順） */
+	private static final List<DbShard> shards;
+	/** 未使用のシャード */
+	private static final BlockingQueue<DbShard> free = new LinkedBlockingQueue<DbShard>();
+	/** スレッドが確保しているシャード */
+	private static final ThreadLocal<DbShard> current = new ThreadLocal<DbShard>();
+
+	static {
+		int count = Integer.parseInt(DbConnection.getProperty("db.shard.count", "0"));
+		List<DbShard> list = new ArrayList<DbShard>();
+		for (int number = 1; number <= count; number++) {
+			DbShard shard = new DbShard(number,
+					resolve(DbConnection.getProperty("db.shard.user", null), number),
+					resolve(DbConnection.getProperty("db.shard.password", null), number),
+					resolve(DbConnection.getProperty("db.shard.schema", null), number));
+			list.add(shard);
+			free.add(shard);
+		}
+		shards = Collections.unmodifiableList(list);
+	}
+
+	private final int number;
+	private final String user;
+	private final String password;
+	private final String schema;
+	private DbConnectionPool pool = null;
+	private boolean poolCreated = false;
+
+	private DbShard(int number, String user, String password, String schema) {
+		if (user == null || password == null || schema == null) {
+			throw new IllegalStateException("db.shard.user, db.shard.password and db.shard.schema are required.");
+		}
+		this.number = number;
+		this.user = user;
+		this.password = password;
+		this.schema = schema;
+	}
+
+	private static String resolve(String value, int number) {
+		return value == null ? null : value.replace("{0}", String.valueOf(number));
+	}
+
+	/**
+	 * @return	シャードによる並列実行が有効な場合 true
+	 */
+	public static boolean isEnabled() {
+		return !shards.isEmpty();
+	}
+
+	/**
+	 * @return	全シャード
+	 */
+	public static List<DbShard> all() {
+		return shards;
+	}
+
+	/**
+	 * @return	現在のスレッドが確保しているシャード。確保していない場合は null
+	 */
+	public static DbShard current() {
+		return current.get();
+	}
+
+	/**
+	 * 現在のスレッドにシャードを割り当てる。全シャードが使用中の場合は空くまで待つ。<br/>
+	 * 既に確保している場合はそのシャードを返す。
+	 * @return	シャード
+	 * @throws InterruptedException
+	 */
+	public static DbShard acquire() throws InterruptedException {
+		DbShard shard = current.get();
+		if (shard == null) {
+			shard = free.take();
+			current.set(shard);
+			log.debug("Acquired " + shard);
+		}
+		return shard;
+	}
+
+	/**
+	 * 現在のスレッドに割り当てたシャードを解放する。
+	 */
+	public static void release() {
+		DbShard shard = current.get();
+		if (shard != null) {
+			current.remove();
+			free.add(shard);
+			log.debug("Released " + shard);
+		}
+	}
+
+	/**
+	 * 他のスレッドが確保したシャードを、現在のスレッドで利用する。<br/>
+	 * 確保したスレッドの処理を作業スレッドへ分担する場合に利用し、終了時に{@link #detach()}を呼び出すこと。
+	 * @param shard	シャード。null の場合は何もしない
+	 */
+	public static void attach(DbShard shard) {
+		if (shard != null) {
+			current.set(shard);
+		}
+	}
+
+	/**
+	 * {@link #attach(DbShard)}で利用したシャードを切り離す。シャードは解放しない。
+	 */
+	public static void detach() {
+		current.remove();
+	}
+
+	/**
+	 * 全シャードに対してsql.propertiesのSQLグループを実行する。<br/>
+	 * スイート開始時に、全ワーカーのスキーマへ共通のDDLを流す場合に利用する。
+	 * @param groupName	グループ名
+	 * @throws Exception
+	 */
+	public static void provision(String groupName) throws Exception {
+		DbShard previous = current.get();
+		try {
+			for (DbShard shard : shards) {
+				current.set(shard);
+				DbExecuter.updateGroup(groupName);
+			}
+		} finally {
+			if (previous != null) {
+				current.set(previous);
+			} else {
+				current.remove();
+			}
+		}
+	}
+
+	/**
+	 * @return	シャード番号（1～N）
+	 */
+	public int getNumber() {
+		return number;
+	}
+
+	/**
+	 * @return	DBユーザID
+	 */
+	public String getUser() {
+		return user;
+	}
+
+	/**
+	 * @return	DBユーザのパスワード
+	 */
+	String getPassword() {
+		return password;
+	}
+
+	/**
+	 * @return	DBスキーマ
+	 */
+	public String getSchema() {
+		return schema;
+	}
+
+	/**
+	 * @return	シャード専用のコネクションプール。db.pool.enabled=false の場合は null
+	 * @throws Exception
+	 */
+	public synchronized DbConnectionPool getPool() throws Exception {
+		if (!poolCreated) {
+			pool = DbConnection.newPool(user, password);
+			poolCreated = true;
+		}
+		return pool;
+	}
+
+	@Override
+	public String toString() {
+		return "DbShard[" + number + ", schema=" + schema + "]";
+	}
+}
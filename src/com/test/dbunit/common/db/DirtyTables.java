@@ -0,0 +1,247 @@
+package com.test.dbunit.common.db;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * テスト中に更新がコミットされたテーブルの記録。<br/>
+ * db.cleanup=delete または truncate の場合、{@link TestConnection}が準備・実行するDML（INSERT, UPDATE, DELETE, MERGE）を
+ * 簡易的に解析して更新対象のテーブルを求め、コミットされた（自動コミット、物理的なコミット、クローズによるコミット）
+ * テーブルをスレッド単位で記録します。<br/>
+ * 更新するテーブルを特定できない文（解析できないDML、PL/SQLブロック、ストアドプロシージャの呼び出し）は、
+ * 全テーブルを更新したものとみなします（{@link #ALL_TABLES}）。<br/>
+ * テスト終了時にはロールバックされない更新のみが残るため、記録したテーブルだけを削除すれば後始末できます。<br/>
+ * 無効の場合（db.cleanup=off）は解析もラップも行いません。
+ */
+public final class DirtyTables {
+
+	/** 後始末の方式（db.properties の db.cleanup=off / delete / truncate） */
+	private static final String CLEANUP = DbConnection.getProperty("db.cleanup", "off").toLowerCase();
+
+	/** 更新するテーブルを特定できない場合の解析結果。スキーマの全テーブルを更新したものとみなす */
+	public static final String ALL_TABLES = "*";
+
+	/** 解析結果をキャッシュするSQLの最大数 */
+	private static final int MAX_CACHED_SQL = 10000;
+
+	/** 文字列リテラルとコメント */
+	private static final Pattern LITERAL_OR_COMMENT = Pattern.compile("'(?:[^']|'')*'|/\\*.*?\\*/|--[^\\n]*",
+			Pattern.DOTALL);
+	/** PL/SQLブロック、ストアドプロシージャの呼び出し */
+	private static final Pattern BLOCK = Pattern.compile(
+			"^\\s*(?:BEGIN|DECLARE|CALL|\\{\\s*(?:\\?\\s*=\\s*)?CALL)\\b", Pattern.CASE_INSENSITIVE);
+	/** 更新系の文の種類 */
+	private static final Pattern DML = Pattern.compile("^\\s*(INSERT|UPDATE|DELETE|MERGE)\\b",
+			Pattern.CASE_INSENSITIVE);
+	/** テーブル名（"SCHEMA"."TABLE" 形式を含む） */
+	private static final String NAME = "((?:\"[^\"]+\"|[\\w$#]+)(?:\\s*\\.\\s*(?:\"[^\"]+\"|[\\w$#]+))?)";
+	private static final Pattern INSERT_INTO = Pattern.compile("\\bINTO\\s+" + NAME, Pattern.CASE_INSENSITIVE);
+	private static final Pattern UPDATE = Pattern.compile("^\\s*UPDATE\\s+(?:ONLY\\s*\\(\\s*)?" + NAME,
+			Pattern.CASE_INSENSITIVE);
+	private static final Pattern DELETE = Pattern.compile("^\\s*DELETE\\s+(?:FROM\\s+)?(?:ONLY\\s*\\(\\s*)?" + NAME,
+			Pattern.CASE_INSENSITIVE);
+	private static final Pattern MERGE = Pattern.compile("^\\s*MERGE\\s+INTO\\s+" + NAME, Pattern.CASE_INSENSITIVE);
+	/** テーブル名の各部分 */
+	private static final Pattern NAME_PART = Pattern.compile("\"([^\"]+)\"|([\\w$#]+)");
+	/** 引用符が不要な識別子 */
+	private static final Pattern PLAIN_IDENTIFIER = Pattern.compile("[A-Z][A-Z0-9_$#]*");
+
+	/** SQL毎の解析結果 */
+	private static final Map<String, Set<String>> parsed = new ConcurrentHashMap<String, Set<String>>();
+
+	private static final ThreadLocal<DirtyTables> CURRENT = new ThreadLocal<DirtyTables>() {
+		@Override
+		protected DirtyTables initialValue() {
+			return new DirtyTables();
+		}
+	};
+
+	/** 更新がコミットされたテーブル（{@link #parse(String)}の形式、記録順） */
+	private final Set<String> tables = new LinkedHashSet<String>();
+
+	private DirtyTables() {
+	}
+
+	/**
+	 * @return	記録が有効な場合 true
+	 */
+	public static boolean isEnabled() {
+		return "delete".equals(CLEANUP) || "truncate".equals(CLEANUP);
+	}
+
+	/**
+	 * @return	後始末にTRUNCATEを利用する場合 true
+	 */
+	public static boolean isTruncate() {
+		return "truncate".equals(CLEANUP);
+	}
+
+	/**
+	 * @return	現在のスレッドの記録
+	 */
+	public static DirtyTables current() {
+		return CURRENT.get();
+	}
+
+	/**
+	 * 記録したテーブルを返し、記録をクリアする。
+	 * @return	更新がコミットされたテーブル（{@link #parse(String)}の形式、記録順）。{@link #ALL_TABLES}を含む場合がある
+	 */
+	public List<String> drain() {
+		List<String> result = new ArrayList<String>(tables);
+		tables.clear();
+		return result;
+	}
+
+	/**
+	 * 記録をクリアする。
+	 */
+	public void reset() {
+		tables.clear();
+	}
+
+	/**
+	 * 更新がコミットされるテーブルを記録する。<br/>
+	 * {@link TestConnection}を経由せずに（別のスレッドのコネクション等で）コミットする場合に利用する。
+	 * @param written	テーブル（{@link #parse(String)}の形式）
+	 */
+	public void add(Collection<String> written) {
+		tables.addAll(written);
+	}
+
+	/**
+	 * SQL文が更新するテーブルを求める。<br/>
+	 * 文字列リテラルとコメントを除いた上で、先頭のキーワードとテーブル名の位置のみで判定する簡易的な解析のため、
+	 * 更新するテーブルを特定できないDML、PL/SQLブロック、ストアドプロシージャの呼び出しは{@link #ALL_TABLES}を返す。
+	 * @param sql	SQL文
+	 * @return	更新するテーブル（大文字。引用符が必要な名前は引用符付き）。更新系の文でない場合は空
+	 */
+	public static Set<String> parse(String sql) {
+		if (sql == null) {
+			return Collections.emptySet();
+		}
+		Set<String> result = parsed.get(sql);
+		if (result != null) {
+			return result;
+		}
+		String body = strip(sql);
+		result = new LinkedHashSet<String>();
+		Matcher dml = DML.matcher(body);
+		if (dml.lookingAt()) {
+			String verb = dml.group(1).toUpperCase();
+			if ("INSERT".equals(verb)) {
+				// INSERT ALL の場合は複数の INTO 句がある
+				Matcher into = INSERT_INTO.matcher(body);
+				while (into.find()) {
+					result.add(normalize(into.group(1)));
+				}
+			} else {
+				Matcher matcher = ("UPDATE".equals(verb) ? UPDATE : "DELETE".equals(verb) ? DELETE : MERGE)
+						.matcher(body);
+				if (matcher.lookingAt()) {
+					result.add(normalize(matcher.group(1)));
+				}
+			}
+			if (result.isEmpty()) {
+				// INSERT INTO (副問合せ) 等
+				result.add(ALL_TABLES);
+			}
+		} else if (BLOCK.matcher(body).lookingAt()) {
+			result.add(ALL_TABLES);
+		}
+		result = Collections.unmodifiableSet(result);
+		if (parsed.size() >= MAX_CACHED_SQL) {
+			parsed.clear();
+		}
+		parsed.put(sql, result);
+		return result;
+	}
+
+	/**
+	 * 文字列リテラルを空にし、コメント（ヒントを含む）を空白に置き換える。
+	 */
+	private static String strip(String sql) {
+		Matcher matcher = LITERAL_OR_COMMENT.matcher(sql);
+		StringBuffer result = new StringBuffer();
+		while (matcher.find()) {
+			matcher.appendReplacement(result, matcher.group().startsWith("'") ? "''" : " ");
+		}
+		matcher.appendTail(result);
+		return result.toString();
+	}
+
+	private static String normalize(String name) {
+		StringBuilder result = new StringBuilder();
+		Matcher part = NAME_PART.matcher(name);
+		while (part.find()) {
+			if (result.length() > 0) {
+				result.append('.');
+			}
+			result.append(part.group(1) != null ? identifier(part.group(1)) : part.group(2).toUpperCase());
+		}
+		return result.toString();
+	}
+
+	/**
+	 * 識別子をSQL文で利用できる形式にする。
+	 * @param name	識別子（大文字小文字を区別した名前）
+	 * @return	大文字の通常の識別子の場合はそのまま、それ以外は引用符で囲んだ識別子
+	 */
+	public static String identifier(String name) {
+		return PLAIN_IDENTIFIER.matcher(name).matches() ? name : "\"" + name.replace("\"", "\"\"") + "\"";
+	}
+
+	/**
+	 * {@link Statement}を、実行するSQLを記録するようにラップする。記録が無効の場合はそのまま返す。
+	 * @param stmt	ステートメント
+	 * @param conn	ステートメントを生成したコネクション
+	 * @return	ステートメント
+	 */
+	static Statement wrap(Statement stmt, TestConnection conn) {
+		if (!isEnabled()) {
+			return stmt;
+		}
+		return (Statement)Proxy.newProxyInstance(DirtyTables.class.getClassLoader(),
+				new Class<?>[] { Statement.class }, new StatementHandler(stmt, conn));
+	}
+
+	/**
+	 * {@link Statement}に渡されたSQLを記録するハンドラ
+	 */
+	private static class StatementHandler implements InvocationHandler {
+		private final Statement stmt;
+		private final TestConnection conn;
+
+		StatementHandler(Statement stmt, TestConnection conn) {
+			this.stmt = stmt;
+			this.conn = conn;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			if ((name.startsWith("execute") || "addBatch".equals(name)) && args != null && args.length > 0
+					&& args[0] instanceof String) {
+				conn.written((String)args[0]);
+			}
+			try {
+				return method.invoke(stmt, args);
+			} catch (InvocationTargetException e) {
+				throw e.getTargetException();
+			}
+		}
+	}
+}
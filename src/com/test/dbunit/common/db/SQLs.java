@@ -1,6 +1,10 @@
 package com.test.dbunit.common.db;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.ResourceBundle;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * SQL文取得
@@ -12,6 +16,12 @@ public class SQLs {
 	/** sql.properties */
 	private static ResourceBundle bundle = ResourceBundle.getBundle("sql");
 
+	/** SQLグループのキー接頭辞 */
+	private static final String GROUP_PREFIX = "group.";
+
+	/** 解析済みのSQLテンプレート */
+	private static final ConcurrentMap<String, SqlTemplate> templates = new ConcurrentHashMap<String, SqlTemplate>();
+
 	/**
 	 * SQL文取得
 	 * @param key	キー
@@ -33,4 +43,38 @@ public class SQLs {
 		String sql = String.format(pattern, params);
 		return sql;
 	}
+
+	/**
+	 * バインド変数付きSQLテンプレート取得<br/>
+	 * SQL文の解析はキー毎に一度だけ行い、以降は解析結果を再利用する
+	 * @param key	キー
+	 * @return	SQLテンプレート
+	 */
+	public static SqlTemplate getTemplate(String key) {
+		SqlTemplate template = templates.get(key);
+		if (template == null) {
+			template = new SqlTemplate(key, bundle.getString(key));
+			SqlTemplate existing = templates.putIfAbsent(key, template);
+			if (existing != null) {
+				template = existing;
+			}
+		}
+		return template;
+	}
+
+	/**
+	 * SQLグループ取得<br/>
+	 * sql.propertiesに「group.&lt;グループ名&gt; = キー1, キー2, ...」の形式で定義する
+	 * @param groupName	グループ名
+	 * @return	SQLキーのリスト
+	 */
+	public static List<String> getGroup(String groupName) {
+		List<String> keys = new ArrayList<String>();
+		for (String key : bundle.getString(GROUP_PREFIX + groupName).split(",")) {
+			if (key.trim().length() > 0) {
+				keys.add(key.trim());
+			}
+		}
+		return keys;
+	}
 }
@@ -0,0 +1,395 @@
+package com.test.dbunit.common.db;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * SQL実行統計。<br/>
+ * db.statistics.enabled=true の場合、{@link TestConnection}が返すステートメントと結果セットを計測用にラップし、
+ * SQL毎の実行時間・件数・ラウンドトリップ数をスレッド単位で集計します。<br/>
+ * 無効の場合はラップせず、計測のための処理は一切行いません。
+ */
+public final class SqlStatistics {
+
+	/** 計測の有効・無効（db.properties の db.statistics.enabled） */
+	private static final boolean ENABLED = Boolean.parseBoolean(DbConnection.getProperty("db.statistics.enabled",
+			"false"));
+
+	/** 実行時間のヒストグラム境界（ナノ秒） */
+	private static final long[] BUCKET_LIMITS = { 100000L, 1000000L, 10000000L, 100000000L, 1000000000L };
+	/** ヒストグラムの表示名 */
+	private static final String[] BUCKET_LABELS = { "<0.1ms", "<1ms", "<10ms", "<100ms", "<1s", ">=1s" };
+
+	/** 既定のフェーズ */
+	public static final String PHASE_DEFAULT = "-";
+
+	private static final ThreadLocal<SqlStatistics> CURRENT = new ThreadLocal<SqlStatistics>() {
+		@Override
+		protected SqlStatistics initialValue() {
+			return new SqlStatistics();
+		}
+	};
+
+	/** フェーズ＋SQL毎の集計 */
+	private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+	private String phase = PHASE_DEFAULT;
+
+	private SqlStatistics() {
+	}
+
+	/**
+	 * @return	計測が有効な場合 true
+	 */
+	public static boolean isEnabled() {
+		return ENABLED;
+	}
+
+	/**
+	 * @return	現在のスレッドの統計
+	 */
+	public static SqlStatistics current() {
+		return CURRENT.get();
+	}
+
+	/**
+	 * 集計をクリアし、フェーズを既定に戻す。
+	 */
+	public void reset() {
+		entries.clear();
+		phase = PHASE_DEFAULT;
+	}
+
+	/**
+	 * 以降に実行されるSQLの集計フェーズを設定する。
+	 * @param phase	フェーズ名（fixture, assert など）
+	 * @return	変更前のフェーズ
+	 */
+	public String setPhase(String phase) {
+		String previous = this.phase;
+		this.phase = phase;
+		return previous;
+	}
+
+	/**
+	 * @return	集計結果（フェーズ＋SQL毎）
+	 */
+	public List<Entry> getEntries() {
+		return Collections.unmodifiableList(new ArrayList<Entry>(entries.values()));
+	}
+
+	/**
+	 * 集計結果をレポート文字列にする。フェーズ毎の合計と、SQL毎の明細（合計時間の降順）を出力する。
+	 * @param title	タイトル（テストメソッド名など）
+	 * @return	レポート
+	 */
+	public String report(String title) {
+		Map<String, Entry> phases = new LinkedHashMap<String, Entry>();
+		for (Entry entry : entries.values()) {
+			Entry total = phases.get(entry.phase);
+			if (total == null) {
+				total = new Entry(entry.phase, "(total)");
+				phases.put(entry.phase, total);
+			}
+			total.add(entry);
+		}
+		List<Entry> details = new ArrayList<Entry>(entries.values());
+		Collections.sort(details, new Comparator<Entry>() {
+			@Override
+			public int compare(Entry o1, Entry o2) {
+				long diff = (o2.executeNanos + o2.fetchNanos) - (o1.executeNanos + o1.fetchNanos);
+				return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+			}
+		});
+
+		StringBuilder sb = new StringBuilder();
+		sb.append("SQL statistics: ").append(title);
+		for (Entry total : phases.values()) {
+			sb.append("\n  ").append(total);
+		}
+		for (Entry entry : details) {
+			sb.append("\n    ").append(entry);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * 実行結果を記録する
+	 */
+	private void recordExecute(String sql, long nanos, long rows) {
+		Entry entry = entry(sql);
+		entry.executions++;
+		entry.roundTrips++;
+		entry.executeNanos += nanos;
+		entry.maxExecuteNanos = Math.max(entry.maxExecuteNanos, nanos);
+		entry.rowsAffected += rows;
+		int bucket = 0;
+		while (bucket < BUCKET_LIMITS.length && nanos >= BUCKET_LIMITS[bucket]) {
+			bucket++;
+		}
+		entry.histogram[bucket]++;
+	}
+
+	/**
+	 * 結果セットの読込結果を記録する
+	 */
+	private void recordFetch(String sql, long nanos, long rows, int fetchSize) {
+		Entry entry = entry(sql);
+		entry.fetchNanos += nanos;
+		entry.rowsFetched += rows;
+		// 最初の fetchSize 件は実行時に取得済みとみなす
+		if (fetchSize > 0 && rows > fetchSize) {
+			entry.roundTrips += (rows - 1) / fetchSize;
+		}
+	}
+
+	private Entry entry(String sql) {
+		if (sql == null) {
+			sql = "(unknown)";
+		}
+		String key = phase + '\t' + sql;
+		Entry entry = entries.get(key);
+		if (entry == null) {
+			entry = new Entry(phase, sql);
+			entries.put(key, entry);
+		}
+		return entry;
+	}
+
+	/**
+	 * ステートメントを計測用にラップする。計測が無効の場合はそのまま返す。
+	 * @param stmt	ステートメント
+	 * @param iface	ステートメントのインタフェース
+	 * @param sql	SQL文（{@link Statement}の場合は null）
+	 * @return	ステートメント
+	 */
+	static <T extends Statement> T wrap(T stmt, Class<T> iface, String sql) {
+		if (!ENABLED) {
+			return stmt;
+		}
+		return iface.cast(Proxy.newProxyInstance(SqlStatistics.class.getClassLoader(), new Class<?>[] { iface },
+				new StatementHandler(stmt, sql)));
+	}
+
+	/**
+	 * SQL毎の集計
+	 */
+	public static final class Entry {
+		private final String phase;
+		private final String sql;
+		private long executions = 0;
+		private long roundTrips = 0;
+		private long executeNanos = 0;
+		private long maxExecuteNanos = 0;
+		private long fetchNanos = 0;
+		private long rowsAffected = 0;
+		private long rowsFetched = 0;
+		private final long[] histogram = new long[BUCKET_LABELS.length];
+
+		Entry(String phase, String sql) {
+			this.phase = phase;
+			this.sql = sql;
+		}
+
+		private void add(Entry other) {
+			executions += other.executions;
+			roundTrips += other.roundTrips;
+			executeNanos += other.executeNanos;
+			maxExecuteNanos = Math.max(maxExecuteNanos, other.maxExecuteNanos);
+			fetchNanos += other.fetchNanos;
+			rowsAffected += other.rowsAffected;
+			rowsFetched += other.rowsFetched;
+			for (int i = 0; i < histogram.length; i++) {
+				histogram[i] += other.histogram[i];
+			}
+		}
+
+		public String getPhase() {
+			return phase;
+		}
+
+		public String getSql() {
+			return sql;
+		}
+
+		public long getExecutions() {
+			return executions;
+		}
+
+		public long getRoundTrips() {
+			return roundTrips;
+		}
+
+		public long getExecuteNanos() {
+			return executeNanos;
+		}
+
+		public long getFetchNanos() {
+			return fetchNanos;
+		}
+
+		public long getRowsAffected() {
+			return rowsAffected;
+		}
+
+		public long getRowsFetched() {
+			return rowsFetched;
+		}
+
+		/**
+		 * @return	実行時間のヒストグラム（&lt;0.1ms, &lt;1ms, &lt;10ms, &lt;100ms, &lt;1s, &gt;=1s）
+		 */
+		public long[] getHistogram() {
+			return histogram.clone();
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder();
+			sb.append('[').append(phase).append("] ");
+			sb.append(String.format("exec=%d, roundTrips=%d, execTime=%.3fms(max %.3fms), fetchTime=%.3fms, "
+					+ "affected=%d, fetched=%d, hist={", executions, roundTrips, executeNanos / 1000000.0,
+					maxExecuteNanos / 1000000.0, fetchNanos / 1000000.0, rowsAffected, rowsFetched));
+			String sep = "";
+			for (int i = 0; i < histogram.length; i++) {
+				if (histogram[i] > 0) {
+					sb.append(sep).append(BUCKET_LABELS[i]).append(':').append(histogram[i]);
+					sep = ", ";
+				}
+			}
+			sb.append("} ").append(sql.replaceAll("\\s+", " ").trim());
+			return sb.toString();
+		}
+	}
+
+	/**
+	 * ステートメントの計測ハンドラ
+	 */
+	private static class StatementHandler implements InvocationHandler {
+		private final Statement stmt;
+		private final String sql;
+		/** {@link Statement#addBatch(String)}で追加された最後のSQL */
+		private String batchSql = null;
+		/** 最後に実行したSQL */
+		private String lastSql = null;
+
+		StatementHandler(Statement stmt, String sql) {
+			this.stmt = stmt;
+			this.sql = sql;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			if ("addBatch".equals(name) && args != null && args.length == 1) {
+				batchSql = (String)args[0];
+			}
+			if (!name.startsWith("execute") && !"getResultSet".equals(name)) {
+				return invokeTarget(stmt, method, args);
+			}
+
+			if ("getResultSet".equals(name)) {
+				return wrapResultSet((ResultSet)invokeTarget(stmt, method, args), sql != null ? sql : lastSql);
+			}
+			String executed = sql;
+			if (executed == null) {
+				if (args != null && args.length > 0 && args[0] instanceof String) {
+					executed = (String)args[0];
+				} else {
+					executed = "(batch) " + batchSql;
+				}
+				lastSql = executed;
+			}
+
+			long start = System.nanoTime();
+			Object result = invokeTarget(stmt, method, args);
+			long elapsed = System.nanoTime() - start;
+
+			long rows = 0;
+			if (result instanceof Integer) {
+				rows = ((Integer)result).intValue();
+			} else if (result instanceof int[]) {
+				for (int count : (int[])result) {
+					rows += Math.max(count, 0);
+				}
+			} else if (Boolean.FALSE.equals(result)) {
+				rows = Math.max(stmt.getUpdateCount(), 0);
+			}
+			current().recordExecute(executed, elapsed, rows);
+
+			if (result instanceof ResultSet) {
+				return wrapResultSet((ResultSet)result, executed);
+			}
+			return result;
+		}
+
+		private static ResultSet wrapResultSet(ResultSet rs, String sql) {
+			if (rs == null) {
+				return null;
+			}
+			return (ResultSet)Proxy.newProxyInstance(SqlStatistics.class.getClassLoader(),
+					new Class<?>[] { ResultSet.class }, new ResultSetHandler(rs, sql));
+		}
+	}
+
+	/**
+	 * 結果セットの計測ハンドラ
+	 */
+	private static class ResultSetHandler implements InvocationHandler {
+		private final ResultSet rs;
+		private final String sql;
+		private long rows = 0;
+		private long nanos = 0;
+		private boolean recorded = false;
+
+		ResultSetHandler(ResultSet rs, String sql) {
+			this.rs = rs;
+			this.sql = sql;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			if ("next".equals(name)) {
+				long start = System.nanoTime();
+				Boolean result = (Boolean)invokeTarget(rs, method, args);
+				nanos += System.nanoTime() - start;
+				if (result.booleanValue()) {
+					rows++;
+				} else {
+					record();
+				}
+				return result;
+			}
+			if ("close".equals(name)) {
+				record();
+			}
+			return invokeTarget(rs, method, args);
+		}
+
+		private void record() throws SQLException {
+			if (!recorded) {
+				recorded = true;
+				current().recordFetch(sql, nanos, rows, rs.getFetchSize());
+			}
+		}
+	}
+
+	private static Object invokeTarget(Object target, Method method, Object[] args) throws Throwable {
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			throw e.getTargetException();
+		}
+	}
+}
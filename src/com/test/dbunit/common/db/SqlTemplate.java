@@ -0,0 +1,163 @@
+package com.test.dbunit.common.db;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * バインド変数付きSQLテンプレート。<br/>
+ * sql.propertiesのSQL文を一度だけ解析し、名前付きパラメータ（<code>:name</code>）を
+ * JDBCの位置パラメータ（<code>?</code>）に変換した形で保持します。
+ * 位置パラメータ（<code>?</code>）をそのまま記述することもできますが、名前付きとの混在はできません。
+ * <pre>
+ * UPDATE_TEST_001 = UPDATE TEST_001 SET TEST_CODE = :code WHERE TEST_ID = :id
+ * </pre>
+ */
+public class SqlTemplate {
+
+	private final String key;
+	private final String sql;
+	/** 名前付きパラメータの出現順。位置パラメータの場合は空 */
+	private final List<String> parameterNames;
+	private final int parameterCount;
+
+	/**
+	 * @param key		SQLキー
+	 * @param source	sql.propertiesに記述されたSQL文
+	 */
+	SqlTemplate(String key, String source) {
+		this.key = key;
+		List<String> names = new ArrayList<String>();
+		StringBuilder jdbcSql = new StringBuilder(source.length());
+		int positional = 0;
+		int length = source.length();
+		int i = 0;
+		while (i < length) {
+			char c = source.charAt(i);
+			if (c == '\'' || c == '"') {
+				// 文字列リテラル・引用符付き識別子はそのまま
+				int end = source.indexOf(c, i + 1);
+				end = end < 0 ? length : end + 1;
+				jdbcSql.append(source, i, end);
+				i = end;
+			} else if (c == '-' && i + 1 < length && source.charAt(i + 1) == '-') {
+				int end = source.indexOf('\n', i);
+				end = end < 0 ? length : end;
+				jdbcSql.append(source, i, end);
+				i = end;
+			} else if (c == '/' && i + 1 < length && source.charAt(i + 1) == '*') {
+				int end = source.indexOf("*/", i + 2);
+				end = end < 0 ? length : end + 2;
+				jdbcSql.append(source, i, end);
+				i = end;
+			} else if (c == '?') {
+				positional++;
+				jdbcSql.append(c);
+				i++;
+			} else if (c == ':' && i + 1 < length && Character.isJavaIdentifierStart(source.charAt(i + 1))) {
+				int end = i + 1;
+				while (end < length && Character.isJavaIdentifierPart(source.charAt(end))) {
+					end++;
+				}
+				names.add(source.substring(i + 1, end));
+				jdbcSql.append('?');
+				i = end;
+			} else {
+				jdbcSql.append(c);
+				i++;
+			}
+		}
+		if (positional > 0 && !names.isEmpty()) {
+			throw new IllegalArgumentException("Named and positional parameters cannot be mixed: key=" + key);
+		}
+		this.sql = jdbcSql.toString();
+		this.parameterNames = Collections.unmodifiableList(names);
+		this.parameterCount = positional + names.size();
+	}
+
+	/**
+	 * @return	SQLキー
+	 */
+	public String getKey() {
+		return key;
+	}
+
+	/**
+	 * @return	JDBCに渡すSQL文（パラメータは<code>?</code>に変換済み）
+	 */
+	public String getSql() {
+		return sql;
+	}
+
+	/**
+	 * @return	名前付きパラメータ名（出現順、重複あり）。位置パラメータの場合は空
+	 */
+	public List<String> getParameterNames() {
+		return parameterNames;
+	}
+
+	/**
+	 * @return	バインド変数の数
+	 */
+	public int getParameterCount() {
+		return parameterCount;
+	}
+
+	/**
+	 * パラメータを出現順にバインドする
+	 * @param stmt		ステートメント
+	 * @param params	パラメータ
+	 * @throws SQLException
+	 */
+	public void bind(PreparedStatement stmt, Object... params) throws SQLException {
+		int size = params == null ? 0 : params.length;
+		if (size != parameterCount) {
+			throw new IllegalArgumentException("Parameter count mismatch: key=" + key + ", expected="
+					+ parameterCount + ", actual=" + size);
+		}
+		for (int i = 0; i < size; i++) {
+			setParameter(stmt, i + 1, params[i]);
+		}
+	}
+
+	/**
+	 * 名前付きパラメータをバインドする
+	 * @param stmt		ステートメント
+	 * @param params	パラメータ名と値
+	 * @throws SQLException
+	 */
+	public void bind(PreparedStatement stmt, Map<String, ?> params) throws SQLException {
+		if (parameterNames.size() != parameterCount) {
+			throw new IllegalArgumentException("SQL has positional parameters: key=" + key);
+		}
+		for (int i = 0; i < parameterNames.size(); i++) {
+			String name = parameterNames.get(i);
+			if (!params.containsKey(name)) {
+				throw new IllegalArgumentException("Parameter is not specified: key=" + key + ", name=" + name);
+			}
+			setParameter(stmt, i + 1, params.get(name));
+		}
+	}
+
+	private static void setParameter(PreparedStatement stmt, int index, Object value) throws SQLException {
+		if (value == null) {
+			// Oracle は Types.NULL を受け付けないため VARCHAR で指定する
+			stmt.setNull(index, Types.VARCHAR);
+		} else if (value.getClass() == Date.class) {
+			stmt.setTimestamp(index, new Timestamp(((Date)value).getTime()));
+		} else {
+			stmt.setObject(index, value);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return key + ": " + sql;
+	}
+}
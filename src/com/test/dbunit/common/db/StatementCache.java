@@ -0,0 +1,265 @@
+package com.test.dbunit.common.db;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import org.apache.commons.dbutils.DbUtils;
+
+/**
+ * 物理コネクション単位の{@link PreparedStatement}キャッシュ（LRU）。<br/>
+ * SQL文と結果セットの型・並行性・保持機能をキーとして、クローズされたステートメントを再利用します。<br/>
+ * 貸し出したステートメントの{@link PreparedStatement#close()}は物理的にはクローズせずキャッシュへ戻し、
+ * キャッシュから溢れたステートメントのみクローズします。
+ */
+public class StatementCache {
+
+	/** 保持機能を指定しない場合のキー値 */
+	static final int DEFAULT_HOLDABILITY = -1;
+
+	private final int maxSize;
+
+	/** 再利用可能なステートメント（アクセス順） */
+	private final LinkedHashMap<Key, PreparedStatement> cache;
+
+	private long hitCount = 0;
+	private long missCount = 0;
+	private long evictCount = 0;
+	private boolean closed = false;
+
+	/**
+	 * @param maxSize	キャッシュするステートメントの最大数
+	 */
+	public StatementCache(int maxSize) {
+		this.maxSize = maxSize;
+		this.cache = new LinkedHashMap<Key, PreparedStatement>(16, 0.75f, true);
+	}
+
+	/**
+	 * ステートメントを取得する。キャッシュに無い場合は物理コネクションから生成する。
+	 * @param owner		ステートメントを取得するコネクション（{@link PreparedStatement#getConnection()}の戻り値）
+	 * @param physical	物理コネクション
+	 * @param sql		SQL文
+	 * @param resultSetType	結果セットの型
+	 * @param resultSetConcurrency	結果セットの並行性
+	 * @param resultSetHoldability	結果セットの保持機能。指定しない場合は{@link #DEFAULT_HOLDABILITY}
+	 * @return	ステートメント
+	 * @throws SQLException
+	 */
+	PreparedStatement prepare(Connection owner, Connection physical, String sql, int resultSetType,
+			int resultSetConcurrency, int resultSetHoldability) throws SQLException {
+		Key key = new Key(sql, resultSetType, resultSetConcurrency, resultSetHoldability);
+		PreparedStatement stmt;
+		synchronized (this) {
+			stmt = cache.remove(key);
+			if (stmt != null) {
+				hitCount++;
+			} else {
+				missCount++;
+			}
+		}
+		if (stmt == null) {
+			if (resultSetHoldability == DEFAULT_HOLDABILITY) {
+				stmt = physical.prepareStatement(sql, resultSetType, resultSetConcurrency);
+			} else {
+				stmt = physical.prepareStatement(sql, resultSetType, resultSetConcurrency, resultSetHoldability);
+			}
+		}
+		return (PreparedStatement)Proxy.newProxyInstance(StatementCache.class.getClassLoader(),
+				new Class<?>[] { PreparedStatement.class }, new CachedStatementHandler(owner, key, stmt));
+	}
+
+	/**
+	 * 利用が終わったステートメントをキャッシュへ戻す。<br/>
+	 * パラメータ・警告・未実行のバッチを消去し、フェッチサイズ・最大行数・タイムアウトをJDBCの既定値（0）に戻す。
+	 * 戻せない場合はキャッシュせずにクローズする。
+	 * @param key	キー
+	 * @param stmt	ステートメント
+	 */
+	private void giveBack(Key key, PreparedStatement stmt) {
+		List<PreparedStatement> discards = new ArrayList<PreparedStatement>();
+		try {
+			stmt.clearParameters();
+			stmt.clearWarnings();
+			stmt.clearBatch();
+			stmt.setFetchSize(0);
+			stmt.setMaxRows(0);
+			stmt.setQueryTimeout(0);
+		} catch (SQLException e) {
+			DbUtils.closeQuietly(stmt);
+			return;
+		}
+		synchronized (this) {
+			if (closed || maxSize <= 0) {
+				discards.add(stmt);
+			} else {
+				PreparedStatement old = cache.put(key, stmt);
+				if (old != null) {
+					discards.add(old);
+				}
+				for (Iterator<PreparedStatement> it = cache.values().iterator(); cache.size() > maxSize;) {
+					discards.add(it.next());
+					it.remove();
+					evictCount++;
+				}
+			}
+		}
+		for (PreparedStatement discard : discards) {
+			DbUtils.closeQuietly(discard);
+		}
+	}
+
+	/**
+	 * キャッシュ中のステートメントを全てクローズする。以降に返却されたステートメントもクローズする。
+	 */
+	public void close() {
+		List<PreparedStatement> discards;
+		synchronized (this) {
+			closed = true;
+			discards = new ArrayList<PreparedStatement>(cache.values());
+			cache.clear();
+		}
+		for (PreparedStatement discard : discards) {
+			DbUtils.closeQuietly(discard);
+		}
+	}
+
+	/**
+	 * @return	キャッシュヒット数
+	 */
+	public synchronized long getHitCount() {
+		return hitCount;
+	}
+
+	/**
+	 * @return	キャッシュミス数
+	 */
+	public synchronized long getMissCount() {
+		return missCount;
+	}
+
+	/**
+	 * @return	キャッシュから溢れてクローズした数
+	 */
+	public synchronized long getEvictCount() {
+		return evictCount;
+	}
+
+	/**
+	 * @return	キャッシュ中のステートメント数
+	 */
+	public synchronized int size() {
+		return cache.size();
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "StatementCache[size=" + cache.size() + ", hit=" + hitCount + ", miss=" + missCount + ", evict="
+				+ evictCount + "]";
+	}
+
+	/**
+	 * キャッシュのキー
+	 */
+	private static final class Key {
+		private final String sql;
+		private final int resultSetType;
+		private final int resultSetConcurrency;
+		private final int resultSetHoldability;
+
+		Key(String sql, int resultSetType, int resultSetConcurrency, int resultSetHoldability) {
+			this.sql = sql;
+			this.resultSetType = resultSetType;
+			this.resultSetConcurrency = resultSetConcurrency;
+			this.resultSetHoldability = resultSetHoldability;
+		}
+
+		@Override
+		public int hashCode() {
+			int result = sql.hashCode();
+			result = 31 * result + resultSetType;
+			result = 31 * result + resultSetConcurrency;
+			result = 31 * result + resultSetHoldability;
+			return result;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key)obj;
+			return sql.equals(other.sql) && resultSetType == other.resultSetType
+					&& resultSetConcurrency == other.resultSetConcurrency
+					&& resultSetHoldability == other.resultSetHoldability;
+		}
+	}
+
+	/**
+	 * 貸し出したステートメントのクローズをキャッシュへの返却に置き換えるハンドラ
+	 */
+	private class CachedStatementHandler implements InvocationHandler {
+		private final Connection owner;
+		private final Key key;
+		private final PreparedStatement stmt;
+		/** 最後に返した結果セット。返却時にクローズする */
+		private ResultSet resultSet = null;
+		private boolean closed = false;
+
+		CachedStatementHandler(Connection owner, Key key, PreparedStatement stmt) {
+			this.owner = owner;
+			this.key = key;
+			this.stmt = stmt;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			if ("close".equals(name)) {
+				if (!closed) {
+					closed = true;
+					DbUtils.closeQuietly(resultSet);
+					resultSet = null;
+					giveBack(key, stmt);
+				}
+				return null;
+			}
+			if ("isClosed".equals(name)) {
+				return Boolean.valueOf(closed);
+			}
+			if ("getConnection".equals(name)) {
+				return owner;
+			}
+			if ("equals".equals(name)) {
+				return Boolean.valueOf(proxy == args[0]);
+			}
+			if ("hashCode".equals(name)) {
+				return Integer.valueOf(System.identityHashCode(proxy));
+			}
+			if (closed && !"toString".equals(name)) {
+				throw new SQLException("Statement is already closed.");
+			}
+			try {
+				Object result = method.invoke(stmt, args);
+				if (result instanceof ResultSet) {
+					resultSet = (ResultSet)result;
+				}
+				return result;
+			} catch (InvocationTargetException e) {
+				throw e.getTargetException();
+			}
+		}
+	}
+}
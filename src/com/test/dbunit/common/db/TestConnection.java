@@ -8,6 +8,7 @@ import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.NClob;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLClientInfoException;
 import java.sql.SQLException;
 import java.sql.SQLWarning;
@@ -19,6 +20,7 @@ import java.util.Collection;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 import java.util.concurrent.Executor;
 
 import javax.sql.ConnectionEvent;
@@ -31,34 +33,299 @@ public class TestConnection implements Connection, PooledConnection {
 	private final Connection connection;
 	private final Collection<ConnectionEventListener> ceListners = new HashSet<ConnectionEventListener>();
 	private final Collection<StatementEventListener> seListners = new HashSet<StatementEventListener>();
-	private final StackTraceElement generator;
+	/** 生成箇所とクローズ漏れの追跡記録。追跡しない場合は null */
+	private final ConnectionTracker.Tracked tracked;
+	/** プールから貸し出されたコネクションの場合 true。close() で物理コネクションを閉じない */
+	private final boolean pooled;
+	/** PreparedStatementキャッシュ。null の場合はキャッシュしない */
+	private final StatementCache statementCache;
+	/** {@link #getRollbackDisabledView()}で生成した場合の元コネクション */
+	private final TestConnection parent;
+	/** セーブポイントによるテスト分離の状態。分離していない場合は null */
+	private Isolation isolation = null;
+	/** 前のテストから引き継いだデータを投入する前のセーブポイント。引き継いでいない場合は null */
+	private Savepoint carriedFrom = null;
+	/** 現在のテストが引き継いだデータを利用する場合 true */
+	private boolean carriedReused = false;
+	/** テスト分離のために物理コネクションの自動コミットを無効にした場合 true */
+	private boolean autoCommitSuspended = false;
+	/** 現在のトランザクションで更新した（未コミットの）テーブル。{@link DirtyTables}が有効な場合のみ記録する */
+	private final Set<String> pendingTables = new HashSet<String>();
+	private volatile boolean closed = false;
 
 	TestConnection(Connection connection) {
+		this(connection, null, false);
+	}
+
+	TestConnection(Connection connection, StatementCache statementCache, boolean pooled) {
+		this(connection, statementCache, pooled, null);
+	}
+
+	private TestConnection(Connection connection, StatementCache statementCache, boolean pooled,
+			TestConnection parent) {
 		this.connection = connection;
-		this.generator = new Throwable().getStackTrace()[3];
+		this.statementCache = statementCache;
+		this.pooled = pooled;
+		this.parent = parent;
+		this.tracked = parent == null ? ConnectionTracker.track(this) : null;
 	}
 
 	static TestConnection newInstance(Connection connection) {
 		return new TestConnection(connection);
 	}
 
+	static TestConnection newInstance(Connection connection, StatementCache statementCache) {
+		return new TestConnection(connection, statementCache, false);
+	}
+
+	/**
+	 * プールから貸し出すコネクションを生成する。<br/>
+	 * ステートメントキャッシュは物理コネクションに紐付くため、返却後も次の貸出先で再利用される。
+	 * @param connection	物理コネクション
+	 * @param statementCache	物理コネクションのステートメントキャッシュ
+	 * @return	コネクション
+	 */
+	static TestConnection newPooledInstance(Connection connection, StatementCache statementCache) {
+		return new TestConnection(connection, statementCache, true);
+	}
+
+	/**
+	 * @return	生成箇所。db.tracking の設定で記録していない場合は null
+	 */
 	StackTraceElement getGenerator() {
-		return generator;
+		return ConnectionTracker.getCreationSite(tracked);
+	}
+
+	/**
+	 * @return	ステートメントキャッシュ。キャッシュしない場合は null
+	 */
+	public StatementCache getStatementCache() {
+		return statementCache;
+	}
+
+	/**
+	 * セーブポイントによるテスト分離を開始する。<br/>
+	 * 以降、{@link #commit()}はセーブポイントの解放（次のセーブポイントの設定）に、
+	 * {@link #rollback()}は直前のセーブポイントへのロールバックに置き換わる。
+	 * 物理的なコミットは行われないため、{@link #endIsolation()}で開始時点の状態に戻せる。<br/>
+	 * ※OracleではDDLが暗黙的にコミットされるため、分離中にDDLを実行しないこと。
+	 * @throws SQLException
+	 */
+	public void beginIsolation() throws SQLException {
+		if (parent != null) {
+			throw new IllegalStateException("Isolation must be controlled on the original connection.");
+		}
+		if (isolation != null) {
+			throw new IllegalStateException("Isolation is already started.");
+		}
+		if (connection.getAutoCommit()) {
+			connection.setAutoCommit(false);
+			autoCommitSuspended = true;
+		}
+		isolation = new Isolation(connection.setSavepoint(), autoCommitSuspended);
+		carriedReused = false;
+	}
+
+	/**
+	 * セーブポイントによるテスト分離を終了し、{@link #beginIsolation()}時点の状態にロールバックする。
+	 * @throws SQLException
+	 */
+	public void endIsolation() throws SQLException {
+		if (parent != null) {
+			throw new IllegalStateException("Isolation must be controlled on the original connection.");
+		}
+		Isolation current = isolation;
+		if (current == null) {
+			return;
+		}
+		isolation = null;
+		connection.rollback(current.start);
+		if (carriedFrom == null) {
+			// 引き継いだデータのテーブルは、コミットされた場合に記録するため保留のままとする
+			pendingTables.clear();
+		}
+	}
+
+	/**
+	 * セーブポイントによるテスト分離中の更新を物理的にコミットし、テスト分離の開始時点をコミット後の状態に移す。<br/>
+	 * コミットした更新は{@link #endIsolation()}で戻らないため、更新したテーブルを{@link DirtyTables}に記録する。
+	 * 前のテストから引き継いだデータもコミットされるため、引き継ぎは終了する。
+	 * 現在のテストのデータを別のコネクションから参照する場合に利用する。
+	 * @throws SQLException
+	 */
+	public void commitIsolation() throws SQLException {
+		if (parent != null) {
+			throw new IllegalStateException("Isolation must be controlled on the original connection.");
+		}
+		Isolation current = isolation;
+		if (current == null) {
+			throw new IllegalStateException("Isolation is not started.");
+		}
+		connection.commit();
+		committed();
+		carriedFrom = null;
+		carriedReused = false;
+		isolation = new Isolation(connection.setSavepoint(), current.autoCommit);
+	}
+
+	/**
+	 * セーブポイントによるテスト分離の開始時点を、現在の状態に移す。<br/>
+	 * 以降の{@link #endIsolation()}は、このメソッドを呼び出した時点の状態にロールバックする。
+	 * テスト開始後に投入したデータを、次のテストへ引き継ぐ場合に利用する。
+	 * @throws SQLException
+	 */
+	public void rebaseIsolation() throws SQLException {
+		if (parent != null) {
+			throw new IllegalStateException("Isolation must be controlled on the original connection.");
+		}
+		Isolation current = isolation;
+		if (current == null) {
+			throw new IllegalStateException("Isolation is not started.");
+		}
+		isolation = new Isolation(connection.setSavepoint(), current.autoCommit);
+	}
+
+	/**
+	 * 現在のテストで投入したデータを次のテストへ引き継ぐ。<br/>
+	 * {@link #rebaseIsolation()}に加えて、引き継ぐデータを投入する前の状態を記録する。
+	 * 次のテストが{@link #reuseCarriedOver()}を呼び出さずにこのコネクションを利用した場合、
+	 * 引き継いだデータは利用の直前に取り消される（{@link #discardCarriedOver()}）。
+	 * @throws SQLException
+	 */
+	public void carryOver() throws SQLException {
+		if (parent != null) {
+			throw new IllegalStateException("Isolation must be controlled on the original connection.");
+		}
+		Isolation current = isolation;
+		if (current == null) {
+			throw new IllegalStateException("Isolation is not started.");
+		}
+		if (carriedFrom == null) {
+			carriedFrom = current.start;
+		}
+		rebaseIsolation();
+	}
+
+	/**
+	 * 前のテストから引き継いだデータを、現在のテストで利用することを宣言する。
+	 */
+	public void reuseCarriedOver() {
+		owner().carriedReused = true;
+	}
+
+	/**
+	 * @return	前のテストから引き継いだデータがある場合 true
+	 */
+	public boolean isCarryingOver() {
+		return owner().carriedFrom != null;
+	}
+
+	/**
+	 * 前のテストから引き継いだデータを、現在のテストで利用しない場合に取り消す。<br/>
+	 * 引き継いだデータを投入する前のセーブポイントへロールバックし、テスト分離の開始時点をその状態に移す。
+	 * ステートメントの生成時に自動的に呼び出される。
+	 * @throws SQLException
+	 */
+	public void discardCarriedOver() throws SQLException {
+		TestConnection owner = owner();
+		Savepoint savepoint = owner.carriedFrom;
+		if (savepoint == null || owner.carriedReused) {
+			return;
+		}
+		owner.carriedFrom = null;
+		connection.rollback(savepoint);
+		owner.pendingTables.clear();
+		Isolation current = owner.isolation;
+		if (current != null) {
+			owner.isolation = new Isolation(savepoint, current.autoCommit);
+		}
+	}
+
+	/**
+	 * @return	セーブポイントによるテスト分離中の場合 true
+	 */
+	public boolean isIsolated() {
+		return isolation() != null;
+	}
+
+	/**
+	 * ロールバックを無効にしたコネクションを取得する。<br/>
+	 * 物理コネクションとテスト分離の状態は元のコネクションと共有し、
+	 * {@link #rollback()}は何もしない。{@link #close()}は物理コネクションを閉じない。
+	 * @return	ロールバックを無効にしたコネクション
+	 */
+	public TestConnection getRollbackDisabledView() {
+		return new TestConnection(connection, statementCache, true, this);
+	}
+
+	private Isolation isolation() {
+		return parent != null ? parent.isolation : isolation;
+	}
+
+	private TestConnection owner() {
+		return parent != null ? parent : this;
+	}
+
+	/**
+	 * SQL文が更新するテーブルを記録する。<br/>
+	 * 自動コミットの場合は{@link DirtyTables}に、それ以外はコミットされるまで保留する。
+	 * セーブポイント分離中のコミットは物理的なコミットではないため保留のままとなる。
+	 * @param sql	準備・実行するSQL文
+	 */
+	void written(String sql) {
+		if (!DirtyTables.isEnabled()) {
+			return;
+		}
+		Set<String> tables = DirtyTables.parse(sql);
+		if (tables.isEmpty()) {
+			return;
+		}
+		boolean autoCommit;
+		try {
+			autoCommit = isolation() == null && connection.getAutoCommit();
+		} catch (SQLException e) {
+			autoCommit = true;
+		}
+		if (autoCommit) {
+			DirtyTables.current().add(tables);
+		} else {
+			owner().pendingTables.addAll(tables);
+		}
+	}
+
+	/**
+	 * 物理的にコミットされたため、保留していたテーブルを{@link DirtyTables}に記録する。
+	 */
+	private void committed() {
+		TestConnection owner = owner();
+		if (!owner.pendingTables.isEmpty()) {
+			DirtyTables.current().add(owner.pendingTables);
+			owner.pendingTables.clear();
+		}
 	}
 
 	@Override
 	public Statement createStatement() throws SQLException {
-		return connection.createStatement();
+		discardCarriedOver();
+		return SqlStatistics.wrap(DirtyTables.wrap(connection.createStatement(), this), Statement.class, null);
 	}
 
 	@Override
 	public PreparedStatement prepareStatement(String sql) throws SQLException {
-		return connection.prepareStatement(sql);
+		discardCarriedOver();
+		written(sql);
+		if (statementCache != null) {
+			return SqlStatistics.wrap(statementCache.prepare(this, connection, sql, ResultSet.TYPE_FORWARD_ONLY,
+					ResultSet.CONCUR_READ_ONLY, StatementCache.DEFAULT_HOLDABILITY), PreparedStatement.class, sql);
+		}
+		return SqlStatistics.wrap(connection.prepareStatement(sql), PreparedStatement.class, sql);
 	}
 
 	@Override
 	public CallableStatement prepareCall(String sql) throws SQLException {
-		return connection.prepareCall(sql);
+		discardCarriedOver();
+		written(sql);
+		return SqlStatistics.wrap(connection.prepareCall(sql), CallableStatement.class, sql);
 	}
 
 	@Override
@@ -68,27 +335,80 @@ public class TestConnection implements Connection, PooledConnection {
 
 	@Override
 	public void setAutoCommit(boolean autoCommit) throws SQLException {
+		Isolation current = isolation();
+		if (current != null) {
+			// 分離中は物理的なコミットを避けるため、設定値のみ保持する
+			current.autoCommit = autoCommit;
+			return;
+		}
+		boolean committing = autoCommit && !connection.getAutoCommit();
 		connection.setAutoCommit(autoCommit);
+		if (committing) {
+			// 自動コミットへの切り替えで、実行中のトランザクションはコミットされる
+			committed();
+		}
 	}
 
 	@Override
 	public boolean getAutoCommit() throws SQLException {
+		Isolation current = isolation();
+		if (current != null) {
+			return current.autoCommit;
+		}
 		return connection.getAutoCommit();
 	}
 
 	@Override
 	public void commit() throws SQLException {
+		Isolation current = isolation();
+		if (current != null) {
+			current.commit(connection);
+			return;
+		}
 		connection.commit();
+		committed();
 	}
 
 	@Override
 	public void rollback() throws SQLException {
+		if (parent != null) {
+			// ロールバック無効
+			return;
+		}
+		Isolation current = isolation();
+		if (current != null) {
+			connection.rollback(current.last);
+			return;
+		}
 		connection.rollback();
+		owner().pendingTables.clear();
+		owner().carriedFrom = null;
 	}
 
 	@Override
 	public void close() throws SQLException {
-		connection.close();
+		if (closed) {
+			return;
+		}
+		closed = true;
+		ConnectionTracker.closed(tracked);
+		if (parent != null) {
+			return;
+		}
+		carriedFrom = null;
+		if (pooled) {
+			// プールへの返却時にロールバックされる
+			pendingTables.clear();
+		} else {
+			// Oracleのドライバはクローズ時にコミットする
+			committed();
+		}
+		if (!pooled) {
+			if (statementCache != null) {
+				statementCache.close();
+			}
+			connection.close();
+		}
 		for (ConnectionEventListener listner : ceListners) {
 			listner.connectionClosed(new ConnectionEvent(this));
 		}
@@ -96,7 +416,7 @@ public class TestConnection implements Connection, PooledConnection {
 
 	@Override
 	public boolean isClosed() throws SQLException {
-		return connection.isClosed();
+		return closed || connection.isClosed();
 	}
 
 	@Override
@@ -146,18 +466,30 @@ public class TestConnection implements Connection, PooledConnection {
 
 	@Override
 	public Statement createStatement(int resultSetType, int resultSetConcurrency) throws SQLException {
-		return connection.createStatement(resultSetType, resultSetConcurrency);
+		discardCarriedOver();
+		return SqlStatistics.wrap(DirtyTables.wrap(connection.createStatement(resultSetType, resultSetConcurrency),
+				this), Statement.class, null);
 	}
 
 	@Override
 	public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency)
 			throws SQLException {
-		return connection.prepareStatement(sql, resultSetType, resultSetConcurrency);
+		discardCarriedOver();
+		written(sql);
+		if (statementCache != null) {
+			return SqlStatistics.wrap(statementCache.prepare(this, connection, sql, resultSetType, resultSetConcurrency,
+					StatementCache.DEFAULT_HOLDABILITY), PreparedStatement.class, sql);
+		}
+		return SqlStatistics.wrap(connection.prepareStatement(sql, resultSetType, resultSetConcurrency),
+				PreparedStatement.class, sql);
 	}
 
 	@Override
 	public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency) throws SQLException {
-		return connection.prepareCall(sql, resultSetType, resultSetConcurrency);
+		discardCarriedOver();
+		written(sql);
+		return SqlStatistics.wrap(connection.prepareCall(sql, resultSetType, resultSetConcurrency),
+				CallableStatement.class, sql);
 	}
 
 	@Override
@@ -192,6 +524,10 @@ public class TestConnection implements Connection, PooledConnection {
 
 	@Override
 	public void rollback(Savepoint savepoint) throws SQLException {
+		if (parent != null) {
+			// ロールバック無効
+			return;
+		}
 		connection.rollback(savepoint);
 	}
 
@@ -203,34 +539,54 @@ public class TestConnection implements Connection, PooledConnection {
 	@Override
 	public Statement createStatement(int resultSetType, int resultSetConcurrency, int resultSetHoldability)
 			throws SQLException {
-		return connection.createStatement(resultSetType, resultSetConcurrency, resultSetHoldability);
+		discardCarriedOver();
+		return SqlStatistics.wrap(DirtyTables.wrap(connection.createStatement(resultSetType, resultSetConcurrency,
+				resultSetHoldability), this), Statement.class, null);
 	}
 
 	@Override
 	public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency,
 			int resultSetHoldability) throws SQLException {
-		return connection.prepareStatement(sql, resultSetType, resultSetConcurrency, resultSetHoldability);
+		discardCarriedOver();
+		written(sql);
+		if (statementCache != null) {
+			return SqlStatistics.wrap(statementCache.prepare(this, connection, sql, resultSetType, resultSetConcurrency,
+					resultSetHoldability), PreparedStatement.class, sql);
+		}
+		return SqlStatistics.wrap(
+				connection.prepareStatement(sql, resultSetType, resultSetConcurrency, resultSetHoldability),
+				PreparedStatement.class, sql);
 	}
 
 	@Override
 	public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency,
 			int resultSetHoldability) throws SQLException {
-		return connection.prepareCall(sql, resultSetType, resultSetConcurrency, resultSetHoldability);
+		discardCarriedOver();
+		written(sql);
+		return SqlStatistics.wrap(
+				connection.prepareCall(sql, resultSetType, resultSetConcurrency, resultSetHoldability),
+				CallableStatement.class, sql);
 	}
 
 	@Override
 	public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException {
-		return connection.prepareStatement(sql, autoGeneratedKeys);
+		discardCarriedOver();
+		written(sql);
+		return SqlStatistics.wrap(connection.prepareStatement(sql, autoGeneratedKeys), PreparedStatement.class, sql);
 	}
 
 	@Override
 	public PreparedStatement prepareStatement(String sql, int[] columnIndexes) throws SQLException {
-		return connection.prepareStatement(sql, columnIndexes);
+		discardCarriedOver();
+		written(sql);
+		return SqlStatistics.wrap(connection.prepareStatement(sql, columnIndexes), PreparedStatement.class, sql);
 	}
 
 	@Override
 	public PreparedStatement prepareStatement(String sql, String[] columnNames) throws SQLException {
-		return connection.prepareStatement(sql, columnNames);
+		discardCarriedOver();
+		written(sql);
+		return SqlStatistics.wrap(connection.prepareStatement(sql, columnNames), PreparedStatement.class, sql);
 	}
 
 	@Override
@@ -353,4 +709,39 @@ public class TestConnection implements Connection, PooledConnection {
 		return 0;
 	}
 
+	/**
+	 * セーブポイントによるテスト分離の状態
+	 */
+	private static final class Isolation {
+		/** テスト開始時のセーブポイント */
+		final Savepoint start;
+		/** 直前のコミットに相当するセーブポイント */
+		Savepoint last;
+		/** アプリケーションから見た自動コミットの設定値 */
+		boolean autoCommit;
+		/** ドライバーがセーブポイントの解放をサポートしない場合 false */
+		boolean releaseSupported = true;
+
+		Isolation(Savepoint start, boolean autoCommit) {
+			this.start = start;
+			this.last = start;
+			this.autoCommit = autoCommit;
+		}
+
+		/**
+		 * コミットの代わりに、直前のセーブポイントを解放して新しいセーブポイントを設定する
+		 */
+		void commit(Connection connection) throws SQLException {
+			Savepoint previous = last;
+			last = connection.setSavepoint();
+			if (previous != start && releaseSupported) {
+				try {
+					connection.releaseSavepoint(previous);
+				} catch (SQLException e) {
+					// Oracle はセーブポイントの解放をサポートしない
+					releaseSupported = false;
+				}
+			}
+		}
+	}
 }
@@ -1,17 +1,34 @@
 package com.test.dbunit.common.test;
 
 import java.io.File;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import mockit.Delegate;
 import mockit.Mocked;
@@ -25,7 +42,9 @@ import org.apache.commons.logging.LogFactory;
 import org.dbunit.Assertion;
 import org.dbunit.database.DatabaseConfig;
 import org.dbunit.database.IDatabaseConnection;
+import org.dbunit.database.ResultSetTableMetaData;
 import org.dbunit.dataset.Column;
+import org.dbunit.dataset.DataSetException;
 import org.dbunit.dataset.IDataSet;
 import org.dbunit.dataset.ITable;
 import org.dbunit.dataset.ITableMetaData;
@@ -35,15 +54,26 @@ import org.dbunit.ext.oracle.OracleDataTypeFactory;
 import org.dbunit.operation.DatabaseOperation;
 import org.junit.After;
 import org.junit.AfterClass;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Rule;
 import org.junit.rules.TestName;
 
+import com.test.dbunit.common.db.ConnectionTracker;
 import com.test.dbunit.common.db.DbConnection;
+import com.test.dbunit.common.db.DbConnectionPool;
+import com.test.dbunit.common.db.DbShard;
+import com.test.dbunit.common.db.DirtyTables;
+import com.test.dbunit.common.db.SqlStatistics;
 import com.test.dbunit.common.db.TestConnection;
+import com.test.dbunit.common.util.AdaptiveBatchStatementFactory;
 import com.test.dbunit.common.util.DbUnitUtils;
+import com.test.dbunit.common.util.ForeignKeys;
 import com.test.dbunit.common.util.LibraryHack;
+import com.test.dbunit.common.util.MetaDataPrimaryKeyFilter;
+import com.test.dbunit.common.util.MergeRefreshOperation;
+import com.test.dbunit.common.util.ParallelDatabaseOperation;
 import com.test.dbunit.common.util.StaticColumnFilter;
 import com.test.dbunit.common.util.StaticColumnFilter.PrimaryKey;
 
@@ -54,6 +84,140 @@ public abstract class DBTestBase {
 
 	private static Log log = LogFactory.getLog(DBTestBase.class);
 
+	/** SQLṽtF[YFeXgΏۃWbN */
+	private static final String PHASE_LOGIC = "logic";
+	/** SQLṽtF[YFf[^ */
+	private static final String PHASE_FIXTURE = "fixture";
+	/** SQLṽtF[YFʌ */
+	private static final String PHASE_ASSERT = "assert";
+
+	/**
+	 * Z[u|CgɂeXgidb.properties  db.isolation=savepointjB<br/>
+	 * LȏꍇARlNV̓eXgNXi[J[XbhjPʂŕێA
+	 * eeXg̓Z[u|CgŎs܂Bcommit/rollback̖{@link TestConnection}gs܂B<br/>
+	 * ȏꍇidb.isolation=mockjAeXgɃRlNV擾Acommit/rollbackJMockitŖ܂B
+	 */
+	private static final boolean SAVEPOINT_ISOLATION = "savepoint".equalsIgnoreCase(DbConnection.getProperty(
+			"db.isolation", "mock"));
+
+	/**
+	 * Xg[~Oɐ؂ւt@CTCYioCgAdb.properties  dataset.streaming.thresholdjB<br/>
+	 * ̃TCYȏFlat XMLt@C͑Sɓǂݍ܂Aǂݍ݂Ȃ瓊܂B0ȉ̏ꍇ͐؂ւ܂B
+	 */
+	private static final long STREAMING_THRESHOLD = Long.parseLong(DbConnection.getProperty(
+			"dataset.streaming.threshold", String.valueOf(10L * 1024 * 1024)));
+
+	/**
+	 * ob`idb.properties  dataset.batch.enabled=truejB<br/>
+	 * LȏꍇAf[^JDBCob`𗘗pAob`TCY܂Bȏꍇ null
+	 */
+	private static final AdaptiveBatchStatementFactory BATCH_FACTORY = Boolean.parseBoolean(DbConnection.getProperty(
+			"dataset.batch.enabled", "false")) ? new AdaptiveBatchStatementFactory(
+			Integer.parseInt(DbConnection.getProperty("dataset.batch.initialSize", "100")),
+			Integer.parseInt(DbConnection.getProperty("dataset.batch.minSize", "10")),
+			Integer.parseInt(DbConnection.getProperty("dataset.batch.maxSize", "5000"))) : null;
+
+	/**
+	 * REFRESH̕idb.properties  dataset.refresh=mergejB<br/>
+	 * merge ̏ꍇ̓Xe[WOe[uMERGEŃe[uɔfi{@link MergeRefreshOperation}jA
+	 * row ̏ꍇDBUnitREFRESH1sɔf܂B
+	 */
+	private static final DatabaseOperation REFRESH_OPERATION = "merge".equalsIgnoreCase(DbConnection.getProperty(
+			"dataset.refresh", "row")) ? new MergeRefreshOperation() : DatabaseOperation.REFRESH;
+
+	/**
+	 * idb.properties  dataset.differential=trueAdb.isolation=savepoint ̏ꍇ̂ݗLjB<br/>
+	 * LȏꍇA{@link #prepare(String, PrimaryKey...)}œf[^̓eXgIɃ[obÑeXgֈpA
+	 * {@link #prepare(String, PrimaryKey...)}ł͑Õf[^Ƃ݂̍̂𔽉f܂B<br/>
+	 * {@link #prepare(String, PrimaryKey...)}ĂяoȂeXgł́Apf[^̓RlNV̍ŏ̗p
+	 * ܂i{@link TestConnection#discardCarriedOver()}jB
+	 */
+	private static final boolean DIFFERENTIAL_FIXTURE = SAVEPOINT_ISOLATION
+			&& Boolean.parseBoolean(DbConnection.getProperty("dataset.differential", "false"));
+
+	/**
+	 * 񓊓̕񐔁idb.properties  dataset.parallel.threadsAdataset.parallel.enabled=true ̏ꍇ̂ݗLjB<br/>
+	 * LȏꍇAe[ũf[^OL[̈ˑ֌W̏ɁAe[uɕʂ̃RlNVŕɓăR~bg܂
+	 * i{@link ParallelDatabaseOperation}jBR~bgf[^̓[obNŖ߂Ȃ߁A[J[p̃V[hmۂA
+	 * nidb.cleanup=delete / truncatejLŁAeXg̃RlNVɃR~bgĂȂXVꍇ̂ݗpA
+	 * ȊO̓eXg̃RlNVŏɓ܂BƃXg[~Oł͗p܂B0 ̏ꍇ͕񓊓܂B
+	 */
+	private static final int PARALLEL_THREADS = Boolean.parseBoolean(DbConnection.getProperty(
+			"dataset.parallel.enabled", "false")) ? Integer.parseInt(DbConnection.getProperty(
+			"dataset.parallel.threads", "4")) : 0;
+
+	/** e[u؂̕idb.properties  dataset.assert.engine=dbunit / hash / minusj */
+	private static final String ASSERT_ENGINE = DbConnection.getProperty("dataset.assert.engine", "dbunit")
+			.toLowerCase();
+
+	/**
+	 * nbVɂ錟؁idataset.assert.engine=hash ܂ minusjB<br/>
+	 * LȏꍇAҒl̍svC}L[ōĎۂ̍sƏƍi{@link TableComparator}jA
+	 * Srŕ񍐂܂Bs̏͌؂Ȃ߁A؂eXgɂ͗pł܂B<br/>
+	 * dbunitiftHgj̏ꍇDBUnit{@link Assertion}ŁAs̏܂߂Ĕr܂B
+	 */
+	private static final boolean HASH_ASSERTION = "hash".equals(ASSERT_ENGINE) || "minus".equals(ASSERT_ENGINE);
+
+	/**
+	 * Wɂ錟؁idataset.assert.engine=minusjB<br/>
+	 * LȏꍇAҒlꎞ\֓A؂SQLƂ̍WDBŋ߂܂i{@link SetDifferenceComparator}jB
+	 * rLOB܂ޏꍇ̓nbVŌ؂܂B
+	 */
+	private static final boolean MINUS_ASSERTION = "minus".equals(ASSERT_ENGINE);
+
+	/** e[u؂ŕ񍐂s̍ő吔idb.properties  dataset.assert.maxDiffsAsE]El̑Ⴛꂼj */
+	private static final int MAX_DIFFS = Integer.parseInt(DbConnection.getProperty("dataset.assert.maxDiffs", "20"));
+
+	/**
+	 * Xg[~O؁idb.properties  dataset.assert.streaming=trueAnbVɂ錟؂̏ꍇ̂ݗLjB<br/>
+	 * LȏꍇA؁E擾SQLOp̃J[\ŎsAʂɕێ1sr܂B
+	 * tFb`TCY dataset.assert.fetchSize Ŏw肵܂B
+	 */
+	private static final boolean STREAMING_ASSERTION = HASH_ASSERTION
+			&& Boolean.parseBoolean(DbConnection.getProperty("dataset.assert.streaming", "false"));
+
+	/**
+	 * e[u̕񌟏؂̕񐔁idb.properties  dataset.assert.parallel.threadsA
+	 * dataset.assert.parallel.enabled=true ̏ꍇ̂ݗLjB<br/>
+	 * LȏꍇA{@link #assertTables(IDataSet, Map, String...)}̓eXg̃f[^[J[p̃V[hɃR~bgA
+	 * e[uɕʂ̃RlNVŕɌ؂܂BR~bge[u̓eXgǏn
+	 * idb.cleanup=delete / truncatejō폜܂BV[h܂͌nȏꍇ́AeXg̃RlNVŏɌ؂܂B
+	 */
+	private static final int ASSERT_THREADS = Boolean.parseBoolean(DbConnection.getProperty(
+			"dataset.assert.parallel.enabled", "false")) ? Integer.parseInt(DbConnection.getProperty(
+			"dataset.assert.parallel.threads", "4")) : 0;
+
+	/** Xg[~O؂̃tFb`TCYidb.properties  dataset.assert.fetchSizej */
+	private static final int ASSERT_FETCH_SIZE = Integer.parseInt(DbConnection.getProperty(
+			"dataset.assert.fetchSize", "1000"));
+
+	/**
+	 * `FbNTɂ錟؁idb.properties  dataset.assert.checksum=trueA
+	 * nbVEWɂ錟؂̏ꍇ̂ݗLjB<br/>
+	 * LȏꍇAҒlƌ؂SQĽʂ̍s̏ɈˑȂ`FbNTi{@link TableChecksum}j܂rA
+	 * vꍇ͍sPʂ̔rȗ܂BvȂꍇA܂͑ΏۊO̗܂ޏꍇ͒ʏǂr܂B
+	 * s̏؂ dbunit ̏ꍇ͗p܂B
+	 */
+	private static final boolean CHECKSUM_ASSERTION = Boolean.parseBoolean(DbConnection.getProperty(
+			"dataset.assert.checksum", "false"));
+
+	/** f[^^̉ɗpt@Ngie[ũ^f[^̃LbVƕċLj */
+	private static final OracleDataTypeFactory DATA_TYPE_FACTORY = new OracleDataTypeFactory();
+
+	/** ɁAeXgNXPʂŕێO̓f[^̏ */
+	private static final ThreadLocal<DifferentialFixtureOperation.State> classFixture =
+			new ThreadLocal<DifferentialFixtureOperation.State>();
+
+	/** eXgNX́A{@link com.test.dbunit.common.annotation.PrimaryKey}Ő錾vC}L[̃tB^ */
+	private static final Map<Class<?>, StaticColumnFilter> classFilters =
+			new ConcurrentHashMap<Class<?>, StaticColumnFilter>();
+
+	/** Z[u|CgɁAeXgNXPʂŕێRlNV */
+	private static final ThreadLocal<TestConnection> classConn = new ThreadLocal<TestConnection>();
+
+	/** Z[u|CgɁAeXgNXPʂŕێDBUnit̃RlNV */
+	private static final ThreadLocal<IDatabaseConnection> classDbunitConn = new ThreadLocal<IDatabaseConnection>();
+
 	@Rule
 	public TestName name = new TestName();
 
@@ -62,6 +226,7 @@ public abstract class DBTestBase {
 	 * ̃RlNV{@link Connection#commit()}R[ꂽꍇłR~bgꂸAgUNVp܂B
 	 * ƂāÃRlNV𗘗pĂB<br/>
 	 * {@link Before}ŊmۂA{@link After}ŉ܂B<br/>
+	 * iZ[u|Cg̓eXgNXPʂŊmۂA{@link After}ŃeXgJn_Ƀ[obN܂Bj<br/>
 	 * ̃RlNVȊO𗘗pꍇA{@link #newConnection()}ŐVRlNV擾ĂB<br/>
 	 * VRlNV擾ꍇ́AK{@link #releaseConnection(Connection)}ŉĂB
 	 * @see #getRollbackDisabledConnection()
@@ -85,20 +250,61 @@ public abstract class DBTestBase {
 	 */
 	protected IDatabaseConnection dbunitConn = null;
 
+	static {
+		// CunbNiJVMŜ1xKpAeXǧ㏈ŉȂ悤ɂj
+		LibraryHack.mockup();
+	}
+
+	/**
+	 * V[hɂs\ȕB<br/>
+	 * db.isolation=mock JMockitɂcommit̖JVMŜɍpAɎs鑼̃eXgNX
+	 * ㏈ŉ邽߁AV[hLɂꍇ db.isolation=savepoint KvłB<br/>
+	 * CũbNi{@link LibraryHack}jRŃeXgɂ͓KpA
+	 * ̃NX̏JVM̏I܂ŗLȃbNƂ1xKp܂B
+	 * @throws IllegalStateException	V[hL db.isolation=savepoint łȂꍇ
+	 */
+	static void checkShardIsolation() {
+		if (DbShard.isEnabled() && !SAVEPOINT_ISOLATION) {
+			throw new IllegalStateException("db.shard.count requires db.isolation=savepoint. "
+					+ "JMockit mocks of db.isolation=mock are global and cannot be shared by parallel test classes.");
+		}
+	}
+
 	/**
 	 *
+	 * @throws Exception
 	 */
 	@BeforeClass
-	public static void beforeBaseClass() {
+	public static void beforeBaseClass() throws Exception {
+		// s̓[J[p̃V[hmۂieXgNX̊ԁAXbhŕێj
+		if (DbShard.isEnabled()) {
+			checkShardIsolation();
+			log.info("DBTestBase: use " + DbShard.acquire());
+		}
 
 		log.info("DBTestBase: @BeforeClass end.");
 	}
 
 	/**
 	 *
+	 * @throws Exception
 	 */
 	@AfterClass
-	public static void afterBaseClass() {
+	public static void afterBaseClass() throws Exception {
+		// Z[u|CgpRlNV
+		releaseClassConnection();
+
+		// N[YŘo
+		ConnectionTracker.reportLeaks();
+
+		DbShard shard = DbShard.current();
+		DbConnectionPool pool = shard != null ? shard.getPool() : DbConnection.getPool();
+		if (pool != null) {
+			log.info(pool);
+		}
+
+		// V[h
+		DbShard.release();
 		log.info("DBTestBase: @AfterClass end.");
 	}
 
@@ -109,25 +315,36 @@ public abstract class DBTestBase {
 	@Before
 	public void beforeBase() throws Exception {
 		// R~bgłȂ悤TestConnectioñ\bhւĂ
-		new NonStrictExpectations() {
-			@Mocked(methods = { "commit" })
-			TestConnection testConnection;
-			{
-				testConnection.commit();
-				result = new Delegate<TestConnection>() {
-					@SuppressWarnings("unused")
-					private void commit() {
-						log.info("(Called mock commit(). Nothing to do.)");
-					}
-				};
-			}
-		};
+		// iZ[u|CgTestConnectiongR~bgZ[u|Cgɒuj
+		if (!SAVEPOINT_ISOLATION) {
+			new NonStrictExpectations() {
+				@Mocked(methods = { "commit" })
+				TestConnection testConnection;
+				{
+					testConnection.commit();
+					result = new Delegate<TestConnection>() {
+						@SuppressWarnings("unused")
+						private void commit() {
+							log.info("(Called mock commit(). Nothing to do.)");
+						}
+					};
+				}
+			};
+		}
 
-		// CunbN
-		LibraryHack.mockup();
+		// XVe[űL^Jn
+		if (DirtyTables.isEnabled()) {
+			DirtyTables.current().reset();
+		}
 
 		// eXgpRlNVm
 		setupConnections();
+
+		// SQLv̏WvJn
+		if (SqlStatistics.isEnabled()) {
+			SqlStatistics.current().reset();
+			SqlStatistics.current().setPhase(PHASE_LOGIC);
+		}
 		log.info("DBTestBase: @Before end.");
 	}
 
@@ -138,12 +355,102 @@ public abstract class DBTestBase {
 	@After
 	public void afterBase() throws Exception {
 		// eXgpRlNV
-		if ((conn != null) && !conn.isClosed()) {
+		if (SAVEPOINT_ISOLATION) {
+			endIsolation();
+		} else if ((conn != null) && !conn.isClosed()) {
 			DbUtils.rollbackAndCloseQuietly(conn);
 		}
+		// R~bgꂽXV̌nidb.cleanup=delete / truncatej
+		cleanupDirtyTables();
+
+		// SQLv̏o
+		if (SqlStatistics.isEnabled()) {
+			log.info(SqlStatistics.current().report(this.getClass().getSimpleName() + "#" + name.getMethodName()));
+			SqlStatistics.current().reset();
+		}
 		log.info("DBTestBase: @After end.");
 	}
 
+	/**
+	 * eXgɍXVR~bgꂽe[ui{@link DirtyTables}j̃f[^폜܂B<br/>
+	 * OL[ŎQƂ鑤̃e[u珇ɍ폜܂Bdb.cleanup=truncate ̏ꍇTRUNCATEA
+	 * OL[ŎQƂĂ铙TRUNCATEłȂe[uDELETE܂B<br/>
+	 * XVe[ułȂR~bgꂽꍇi{@link DirtyTables#ALL_TABLES}j́AXL[}̑Se[u폜܂B
+	 */
+	private void cleanupDirtyTables() {
+		if (!DirtyTables.isEnabled()) {
+			return;
+		}
+		List<String> tables = DirtyTables.current().drain();
+		if (tables.isEmpty()) {
+			return;
+		}
+		Connection cleanupConn = null;
+		Statement stmt = null;
+		try {
+			cleanupConn = DbConnection.getConnection();
+			cleanupConn.setAutoCommit(true);
+			if (tables.remove(DirtyTables.ALL_TABLES)) {
+				log.warn("DBTestBase: tables updated by an unparsed statement are unknown. All tables are cleaned up.");
+				Set<String> all = new LinkedHashSet<String>(tables);
+				all.addAll(schemaTables(cleanupConn.getMetaData(), DbConnection.getSchema()));
+				tables = new ArrayList<String>(all);
+			}
+			Map<String, Set<String>> parents = ForeignKeys.dependencies(cleanupConn.getMetaData(),
+					DbConnection.getSchema(), tables);
+			List<String> order = ForeignKeys.sort(parents);
+			if (order == null) {
+				log.warn("Foreign keys of dirty tables are cyclic. Tables are deleted in recorded order.");
+				order = new ArrayList<String>(tables);
+			}
+			Collections.reverse(order);
+			stmt = cleanupConn.createStatement();
+			for (String table : order) {
+				if (DirtyTables.isTruncate()) {
+					try {
+						stmt.executeUpdate("TRUNCATE TABLE " + table);
+						continue;
+					} catch (SQLException e) {
+						log.debug("Failed to truncate " + table + ". Delete instead: " + e.getLocalizedMessage());
+					}
+				}
+				stmt.executeUpdate("DELETE FROM " + table);
+			}
+			log.info("DBTestBase: cleaned up " + order);
+		} catch (Exception e) {
+			log.warn("Failed to clean up dirty tables " + tables + ": " + e.getLocalizedMessage(), e);
+		} finally {
+			DbUtils.closeQuietly(stmt);
+			DbUtils.closeQuietly(cleanupConn);
+			// ng̍XV͋L^Ȃ
+			DirtyTables.current().reset();
+		}
+	}
+
+	/**
+	 * XL[}̑Se[u擾܂Bݔ̃e[u͏܂B
+	 * @param metaData	DB̃^f[^
+	 * @param schema	XL[}
+	 * @return	e[ui{@link DirtyTables#parse(String)}̌`j
+	 * @throws SQLException
+	 */
+	private static List<String> schemaTables(DatabaseMetaData metaData, String schema) throws SQLException {
+		List<String> tables = new ArrayList<String>();
+		ResultSet rs = metaData.getTables(null, schema == null ? null : schema.toUpperCase(), "%",
+				new String[] { "TABLE" });
+		try {
+			while (rs.next()) {
+				String table = rs.getString("TABLE_NAME");
+				if (!table.startsWith("BIN$")) {
+					tables.add(DirtyTables.identifier(table));
+				}
+			}
+		} finally {
+			DbUtils.closeQuietly(rs);
+		}
+		return tables;
+	}
+
 	/**
 	 * VRlNV擾܂B<br/>
 	 * ̃RlNV{@link Connection#commit()}R[ꂽꍇłR~bgꂸAgUNVp܂B
@@ -151,6 +458,10 @@ public abstract class DBTestBase {
 	 * @throws Exception
 	 */
 	private void setupConnections() throws Exception {
+		if (SAVEPOINT_ISOLATION) {
+			setupIsolatedConnections();
+			return;
+		}
 		Connection testConn = DbConnection.getConnection();
 		// commit ̂ݖ
 		this.conn = testConn;
@@ -170,15 +481,90 @@ public abstract class DBTestBase {
 		this.dbunitConn = DbUnitUtils.getDbUnitConnection(conn, DbConnection.getSchema());
 	}
 
+	/**
+	 * Z[u|Cgp̃RlNV܂B<br/>
+	 * RlNV̓eXgNXPʂōėpAeXgɃZ[u|Cgݒ肵܂B
+	 * @throws Exception
+	 */
+	private void setupIsolatedConnections() throws Exception {
+		TestConnection testConn = classConn.get();
+		if ((testConn == null) || testConn.isClosed()) {
+			testConn = (TestConnection)DbConnection.getConnection();
+			classConn.set(testConn);
+			classDbunitConn.set(DbUnitUtils.getDbUnitConnection(testConn, DbConnection.getSchema()));
+		}
+		testConn.beginIsolation();
+
+		this.conn = testConn;
+		this.rollbackDisabledConn = testConn.getRollbackDisabledView();
+		this.dbunitConn = classDbunitConn.get();
+	}
+
+	/**
+	 * Z[u|CgIAeXgJn_̏ԂɃ[obN܂B<br/>
+	 * [obNłȂꍇiDDLɂÖكR~bgj̓RlNVj܂B
+	 */
+	private void endIsolation() {
+		TestConnection testConn = classConn.get();
+		if (testConn == null) {
+			return;
+		}
+		try {
+			testConn.endIsolation();
+		} catch (SQLException e) {
+			log.warn("Failed to rollback to savepoint. Connection is discarded: " + e.getLocalizedMessage());
+			releaseClassConnection();
+		}
+	}
+
+	/**
+	 * Z[u|Cgp̃RlNV܂B
+	 */
+	private static void releaseClassConnection() {
+		TestConnection testConn = classConn.get();
+		classConn.remove();
+		classDbunitConn.remove();
+		classFixture.remove();
+		if (testConn != null) {
+			DbUtils.rollbackAndCloseQuietly(testConn);
+		}
+	}
+
 	/**
 	 * VRlNV擾܂B<br/>
 	 * ̃RlNV{@link Connection#commit()}R[ꂽꍇłR~bgꂸAgUNVp܂B
+	 * idb.isolation=mock łJMockitcommit̖ɂAdb.isolation=savepoint ł͂̃RlNVg
+	 * Z[u|CgɂAR~bgZ[u|Cgɒu܂j<br/>
 	 * VRlNV擾ꍇ́AK{@link #releaseConnection(Connection)}ŉĂB
+	 * Ɏ擾_̏Ԃփ[obN܂B
 	 * @return	RlNV
 	 * @throws Exception
 	 */
 	protected Connection newConnection() throws Exception {
-		return DbConnection.getConnection();
+		// ʂ̃RlNVɂXV̓[obNȂ߁ȂO񂪕
+		invalidateFixture();
+		// pȂpf[^̍sbNŁAʂ̃RlNV҂Ȃ悤ɂ
+		TestConnection testConn = classConn.get();
+		if (testConn != null) {
+			testConn.discardCarriedOver();
+		}
+		Connection newConn = DbConnection.getConnection();
+		if (SAVEPOINT_ISOLATION) {
+			((TestConnection)newConn).beginIsolation();
+		}
+		return newConn;
+	}
+
+	/**
+	 * ňpf[^𖳌ɂ܂B<br/>
+	 * eXgΏۂ̃WbN{@link #conn}ȊÕRlNVœf[^̃e[uXVꍇɌĂяoĂB
+	 * {@link #prepare(String, PrimaryKey...)}ł́AÕf[^폜őS𓊓܂B
+	 */
+	protected void invalidateFixture() {
+		DifferentialFixtureOperation.State state = classFixture.get();
+		if (state != null) {
+			state.invalidate();
+		}
 	}
 
 	/**
@@ -186,6 +572,13 @@ public abstract class DBTestBase {
 	 * @param conn	RlNV
 	 */
 	protected void releaseConnection(Connection conn) {
+		if (conn instanceof TestConnection && ((TestConnection)conn).isIsolated()) {
+			try {
+				((TestConnection)conn).endIsolation();
+			} catch (SQLException e) {
+				log.warn("Failed to rollback to savepoint: " + e.getLocalizedMessage());
+			}
+		}
 		DbUtils.rollbackAndCloseQuietly(conn);
 	}
 
@@ -240,7 +633,9 @@ public abstract class DBTestBase {
 
 	/**
 	 * t@Cf[^x[XɃf[^}܂B<br/>
-	 * t@C̎w@{@link #loadResourceFile(String)}̐QlɂĂB
+	 * t@C̎w@{@link #loadResourceFile(String)}̐QlɂĂB<br/>
+	 * 傫Flat XMLt@Cidataset.streaming.threshold ȏj̓Xg[~Oœ܂B
+	 * ̏ꍇA߂l{@link IDataSet}͓ǂݍݍς݂̂ߎQƂł܂B
 	 *
 	 * @param fileName
 	 * @throws Exception
@@ -269,7 +664,8 @@ public abstract class DBTestBase {
 	/**
 	 * t@Cf[^x[XɃf[^}܂B<br/>
 	 * ̃\bh͐ÓIɃvC}[L[w肷ׁA{@link #insertFrom(String)}ɓ삵܂B
-	 * t@C̎w@{@link #loadResourceFile(String)}̐QlɂĂB
+	 * t@C̎w@{@link #loadResourceFile(String)}̐QlɂĂB<br/>
+	 * dataset.refresh=merge ̏ꍇAe[u1MERGEŔf܂B
 	 *
 	 * @param fileName
 	 * @param primaryKeys
@@ -277,7 +673,7 @@ public abstract class DBTestBase {
 	 * @return }{@link IDataSet}
 	 */
 	protected IDataSet refresh(String fileName, PrimaryKey... primaryKeys) throws Exception {
-		return dbOperate(DatabaseOperation.REFRESH, fileName, primaryKeys);
+		return dbOperate(REFRESH_OPERATION, fileName, primaryKeys);
 	}
 
 	/**
@@ -291,10 +687,7 @@ public abstract class DBTestBase {
 	private IDataSet dbOperate(DatabaseOperation operation, String fileName, PrimaryKey... primaryKeys)
 			throws Exception {
 
-		StaticColumnFilter filter = null;
-		if ((primaryKeys != null) && (primaryKeys.length > 0)) {
-			filter = new StaticColumnFilter(primaryKeys);
-		}
+		StaticColumnFilter filter = getPrimaryKeyFilter(primaryKeys);
 
 		DatabaseConfig config = dbunitConn.getConfig();
 		IColumnFilter orginalFilter = null;
@@ -302,19 +695,130 @@ public abstract class DBTestBase {
 			orginalFilter = (IColumnFilter)config.getProperty(DatabaseConfig.PROPERTY_PRIMARY_KEY_FILTER);
 			config.setProperty(DatabaseConfig.PROPERTY_PRIMARY_KEY_FILTER, filter);
 		}
-		config.setProperty(DatabaseConfig.PROPERTY_DATATYPE_FACTORY, new OracleDataTypeFactory());
+		config.setProperty(DatabaseConfig.PROPERTY_DATATYPE_FACTORY, DATA_TYPE_FACTORY);
+
+		Object orginalStatementFactory = null;
+		Object orginalBatched = null;
+		if (BATCH_FACTORY != null) {
+			orginalStatementFactory = config.getProperty(DatabaseConfig.PROPERTY_STATEMENT_FACTORY);
+			orginalBatched = config.getProperty(DatabaseConfig.FEATURE_BATCHED_STATEMENTS);
+			config.setProperty(DatabaseConfig.PROPERTY_STATEMENT_FACTORY, BATCH_FACTORY);
+			config.setProperty(DatabaseConfig.FEATURE_BATCHED_STATEMENTS, Boolean.TRUE);
+		}
 
+		String phase = enterPhase(PHASE_FIXTURE);
 		try {
-			IDataSet ds = loadResourceFile(fileName);
+			File file = getResourceFile(fileName);
+			IDataSet ds;
+			if (isStreaming(file)) {
+				log.info("DBTestBase: streaming " + file.getName() + " (" + file.length() + " bytes)");
+				ds = DbUnitUtils.newStreamingDataSet(file, getReplacements());
+			} else {
+				ds = DbUnitUtils.newDataSet(file, getReplacements());
+				if (PARALLEL_THREADS > 0 && !(operation instanceof DifferentialFixtureOperation)
+						&& canCommitToShard()) {
+					operation = new ParallelDatabaseOperation(operation, PARALLEL_THREADS);
+				}
+			}
 			operation.execute(dbunitConn, ds);
 			return ds;
 		} finally {
+			exitPhase(phase);
 			if (filter != null) {
 				config.setProperty(DatabaseConfig.PROPERTY_PRIMARY_KEY_FILTER, orginalFilter);
 			}
+			if (BATCH_FACTORY != null) {
+				config.setProperty(DatabaseConfig.PROPERTY_STATEMENT_FACTORY, orginalStatementFactory);
+				config.setProperty(DatabaseConfig.FEATURE_BATCHED_STATEMENTS, orginalBatched);
+				log.info(BATCH_FACTORY.report());
+			}
 		}
 	}
 
+	/**
+	 * eXg̃f[^V[hɃR~bgĂ悢肷B<br/>
+	 * [J[p̃V[hmۂĂāĩ[J[猩ȂjAR~bgꂽe[ǔnLŁA
+	 * eXg̃RlNVɃR~bgĂȂXViʂ̃RlNV̍XVsbNő҂Ȃjꍇ̂ trueB
+	 * @return	R~bgĂ悢ꍇ true
+	 */
+	private boolean canCommitToShard() {
+		return DbShard.current() != null && DirtyTables.isEnabled() && !hasUncommittedChanges();
+	}
+
+	/**
+	 * eXg̃ZbVɃR~bgĂȂXV邩肷B
+	 * @return	gUNVJnĂꍇA܂͔łȂꍇ true
+	 */
+	private boolean hasUncommittedChanges() {
+		Statement stmt = null;
+		ResultSet rs = null;
+		try {
+			stmt = dbunitConn.getConnection().createStatement();
+			rs = stmt.executeQuery("SELECT DBMS_TRANSACTION.LOCAL_TRANSACTION_ID FROM DUAL");
+			return !rs.next() || rs.getString(1) != null;
+		} catch (SQLException e) {
+			log.warn("DBTestBase: failed to check the transaction, " + e.getLocalizedMessage());
+			return true;
+		} finally {
+			DbUtils.closeQuietly(rs);
+			DbUtils.closeQuietly(stmt);
+		}
+	}
+
+	/**
+	 * vC}L[̃tB^擾B<br/>
+	 * Ŏw肵ꍇ͂̃L[Aw肵Ȃꍇ̓eXgNXŐ錾L[i{@link #getDeclaredPrimaryKeys()}j𗘗pB
+	 * L[`ĂȂe[uDB̃vC}L[Ŕ肷B
+	 * @param primaryKeys	vC}L[
+	 * @return	tB^BL[w錾ĂȂꍇ null
+	 * @throws IllegalAccessException
+	 */
+	private StaticColumnFilter getPrimaryKeyFilter(PrimaryKey... primaryKeys) throws IllegalAccessException {
+		if ((primaryKeys != null) && (primaryKeys.length > 0)) {
+			return new StaticColumnFilter(MetaDataPrimaryKeyFilter.INSTANCE, primaryKeys);
+		}
+		StaticColumnFilter filter = classFilters.get(getClass());
+		if (filter == null) {
+			filter = new StaticColumnFilter(MetaDataPrimaryKeyFilter.INSTANCE, getDeclaredPrimaryKeys());
+			classFilters.put(getClass(), filter);
+		}
+		return filter.isEmpty() ? null : filter;
+	}
+
+	/**
+	 * eXgNXieNX܂ށj{@link com.test.dbunit.common.annotation.PrimaryKey}ttB[h
+	 * vC}L[擾܂B<br/>
+	 * tB[ȟ^{@link PrimaryKey}܂͂̔zƂ܂BeXgNX1񂾂QƂ܂B
+	 * <pre>
+	 * &#064;com.test.dbunit.common.annotation.PrimaryKey
+	 * private static final PrimaryKey[] PKEYS = { new PrimaryKey("TEST_001", new String[] { "TEST_ID" }) };
+	 * </pre>
+	 * @return	vC}L[
+	 * @throws IllegalAccessException
+	 */
+	protected PrimaryKey[] getDeclaredPrimaryKeys() throws IllegalAccessException {
+		List<PrimaryKey> keys = new ArrayList<PrimaryKey>();
+		for (Class<?> clazz = getClass(); clazz != null && clazz != DBTestBase.class; clazz = clazz.getSuperclass()) {
+			for (Field field : clazz.getDeclaredFields()) {
+				if (!field.isAnnotationPresent(com.test.dbunit.common.annotation.PrimaryKey.class)) {
+					continue;
+				}
+				field.setAccessible(true);
+				Object value = field.get(Modifier.isStatic(field.getModifiers()) ? null : this);
+				if (value instanceof PrimaryKey) {
+					keys.add((PrimaryKey)value);
+				} else if (value instanceof PrimaryKey[]) {
+					for (PrimaryKey key : (PrimaryKey[])value) {
+						keys.add(key);
+					}
+				} else if (value != null) {
+					throw new IllegalStateException("@PrimaryKey field must be PrimaryKey or PrimaryKey[]: " + field);
+				}
+			}
+		}
+		return keys.toArray(new PrimaryKey[keys.size()]);
+	}
+
 	/**
 	 * SQLɂ郌R[h擾
 	 * @param tableName	e[u
@@ -326,6 +830,26 @@ public abstract class DBTestBase {
 
 		List<Map<String, Object>> records = new ArrayList<Map<String, Object>>();
 
+		if (STREAMING_ASSERTION) {
+			PreparedStatement stmt = prepareForwardOnly(dbunitConn, sql);
+			ResultSet rs = null;
+			try {
+				rs = stmt.executeQuery();
+				Column[] columns = new ResultSetTableMetaData(tableName, rs, dbunitConn, false).getColumns();
+				while (rs.next()) {
+					Map<String, Object> record = new HashMap<String, Object>();
+					for (int i = 0; i < columns.length; i++) {
+						record.put(columns[i].getColumnName(), columns[i].getDataType().getSqlValue(i + 1, rs));
+					}
+					records.add(record);
+				}
+			} finally {
+				DbUtils.closeQuietly(rs);
+				DbUtils.closeQuietly(stmt);
+			}
+			return records;
+		}
+
 		ITable table = dbunitConn.createQueryTable(tableName, sql);
 
 		ITableMetaData tableMetaData = table.getTableMetaData();
@@ -406,10 +930,26 @@ public abstract class DBTestBase {
 
 		File file = getResourceFile(fileName);
 
+		return DbUnitUtils.newDataSet(file, getReplacements());
+	}
+
+	/**
+	 * Xg[~Oœ邩𔻒肷
+	 * @param file	f[^̃t@C
+	 * @return	Xg[~Oœꍇ true
+	 */
+	private boolean isStreaming(File file) {
+		return (STREAMING_THRESHOLD > 0) && (file.length() >= STREAMING_THRESHOLD) && DbUnitUtils.isStreamable(file);
+	}
+
+	/**
+	 * u[Map쐬
+	 * @return	u[Map
+	 */
+	private Map<Object, Object> getReplacements() {
 		Map<Object, Object> replacements = new HashMap<Object, Object>();
 		setReplacement(replacements);
-
-		return DbUnitUtils.newDataSet(file, replacements);
+		return replacements;
 	}
 
 	/**
@@ -491,7 +1031,30 @@ public abstract class DBTestBase {
 		String resourceFolder = getResourceFolder(testMethod);
 
 		// f[^
-		refresh(resourceFolder + "/input.xls");
+		if (DIFFERENTIAL_FIXTURE) {
+			prepareDifferential(resourceFolder + "/input.xls", pks);
+			return;
+		}
+		refresh(resourceFolder + "/input.xls", pks);
+	}
+
+	/**
+	 * ÕeXgœf[^Ƃ݂̍̂𔽉fAf[^̃eXgֈpB
+	 * @param fileName	t@C
+	 * @param pks	primary keys
+	 * @throws Exception
+	 */
+	private void prepareDifferential(String fileName, PrimaryKey... pks) throws Exception {
+		TestConnection testConn = classConn.get();
+		// pf[^ĂꍇiÕeXgpreparegȂj͑S𓊓
+		DifferentialFixtureOperation.State previous = testConn.isCarryingOver() ? classFixture.get() : null;
+		testConn.reuseCarriedOver();
+		DifferentialFixtureOperation operation = new DifferentialFixtureOperation(previous, REFRESH_OPERATION);
+		// sꍇAeXgIɊJn_iO̓jփ[obN邽߁AȌԂێ܂܂Ƃ
+		dbOperate(operation, fileName, pks);
+		classFixture.set(operation.getState());
+		// eXgĨ[obN𓊓̏Ԃ܂łɂ
+		testConn.carryOver();
 	}
 
 	/**
@@ -504,6 +1067,363 @@ public abstract class DBTestBase {
 	 */
 	protected void assertTable(IDataSet dataset, String sql, String tableName, String... ignoreColumns)
 			throws Exception {
-		Assertion.assertEqualsByQuery(dataset, dbunitConn, sql, tableName, ignoreColumns);
+		String phase = enterPhase(PHASE_ASSERT);
+		try {
+			String report = verifyTable(dbunitConn, dataset, sql, tableName, ignoreColumns);
+			if (report != null) {
+				Assert.fail(report);
+			}
+		} finally {
+			exitPhase(phase);
+		}
+	}
+
+	/**
+	 * ̃e[u؂ASe[ȗ܂Ƃ߂ĕ񍐂B<br/>
+	 * 񌟏؁idataset.assert.parallel.enabledjLŁA[J[p̃V[hƃR~bgꂽe[ǔn
+	 * Lȏꍇ́AeXg̃f[^V[hɃR~bgŁAe[uɕʂ̃RlNVŕɌ؂܂
+	 * iR~bgf[^̓eXgIɍ폜Ał͈p܂jB
+	 * ȊÓAf[^̃R~bgĂȂXV悤AeXg̃RlNVŏɌ؂܂B
+	 * @param dataset		Ғl̃f[^Zbg
+	 * @param tableToSql	e[u  ؂SQLi񍐂͂̏j
+	 * @param ignoreColumns	rȂiSe[uʁj
+	 * @throws Exception
+	 */
+	protected void assertTables(IDataSet dataset, Map<String, String> tableToSql, String... ignoreColumns)
+			throws Exception {
+		String phase = enterPhase(PHASE_ASSERT);
+		try {
+			Map<String, String> reports;
+			if (ASSERT_THREADS > 1 && tableToSql.size() > 1 && canVerifyOnShard()) {
+				reports = verifyTablesOnShard(dataset, tableToSql, ignoreColumns);
+			} else {
+				reports = new LinkedHashMap<String, String>();
+				for (Map.Entry<String, String> entry : tableToSql.entrySet()) {
+					reports.put(entry.getKey(), verifyTableQuietly(dbunitConn, dataset, entry.getValue(),
+							entry.getKey(), ignoreColumns));
+				}
+			}
+			StringBuilder failure = new StringBuilder();
+			int failed = 0;
+			for (String report : reports.values()) {
+				if (report != null) {
+					failure.append('\n').append(report);
+					failed++;
+				}
+			}
+			if (failed > 0) {
+				Assert.fail(failed + " of " + tableToSql.size() + " tables differ:" + failure);
+			}
+		} finally {
+			exitPhase(phase);
+		}
+	}
+
+	/**
+	 * eXg̃f[^V[hɃR~bgāAʂ̃RlNVŌ؂ł邩肷B<br/>
+	 * Z[u|Cg̃eXg̃RlNVŁA[J[p̃V[hmۂĂāĩ[J[猩ȂjA
+	 * R~bgꂽe[ǔnLȏꍇ̂ trueB
+	 * @return	ʂ̃RlNVŌ؂łꍇ true
+	 */
+	private boolean canVerifyOnShard() {
+		TestConnection testConn = classConn.get();
+		return SAVEPOINT_ISOLATION && DbShard.current() != null && DirtyTables.isEnabled() && testConn != null
+				&& testConn.isIsolated();
+	}
+
+	/**
+	 * eXg̃f[^V[hɃR~bgAe[uɕʂ̃RlNVŕɌ؂B<br/>
+	 * R~bge[u{@link DirtyTables}ɋL^AeXgIɍ폜B
+	 * @return	e[u  ̕񍐁ivꍇ nullAtableToSql ̏j
+	 */
+	private Map<String, String> verifyTablesOnShard(final IDataSet dataset, Map<String, String> tableToSql,
+			final String[] ignoreColumns) throws Exception {
+		// R~bgf[^͌nō폜邽߁ÃeXgֈpȂ
+		invalidateFixture();
+		classConn.get().commitIsolation();
+
+		final DbShard shard = DbShard.current();
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(ASSERT_THREADS, tableToSql.size()));
+		try {
+			Map<String, Future<String>> futures = new LinkedHashMap<String, Future<String>>();
+			for (final Map.Entry<String, String> entry : tableToSql.entrySet()) {
+				futures.put(entry.getKey(), executor.submit(new Callable<String>() {
+					@Override
+					public String call() throws Exception {
+						DbShard.attach(shard);
+						Connection readConn = null;
+						try {
+							readConn = DbConnection.getConnection();
+							// ꎞ\ւ̊Ғl̓idataset.assert.engine=minusjR~bgȂ
+							readConn.setAutoCommit(false);
+							IDatabaseConnection readDbunitConn = DbUnitUtils.getDbUnitConnection(readConn,
+									DbConnection.getSchema());
+							DbUnitUtils.copyConfig(dbunitConn, readDbunitConn);
+							return verifyTableQuietly(readDbunitConn, dataset, entry.getValue(), entry.getKey(),
+									ignoreColumns);
+						} finally {
+							DbUtils.rollbackAndCloseQuietly(readConn);
+							DbShard.detach();
+						}
+					}
+				}));
+			}
+			Map<String, String> reports = new LinkedHashMap<String, String>();
+			for (Map.Entry<String, Future<String>> entry : futures.entrySet()) {
+				try {
+					reports.put(entry.getKey(), entry.getValue().get());
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					if (cause instanceof Exception) {
+						throw (Exception)cause;
+					}
+					throw (Error)cause;
+				}
+			}
+			return reports;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * e[u؂A񍐂ƂĕԂiDBUnit{@link Assertion}̎s񍐂ƂjB
+	 * @return	̕񍐁Bvꍇ null
+	 */
+	private String verifyTableQuietly(IDatabaseConnection connection, IDataSet dataset, String sql,
+			String tableName, String[] ignoreColumns) throws Exception {
+		try {
+			return verifyTable(connection, dataset, sql, tableName, ignoreColumns);
+		} catch (AssertionError e) {
+			return tableName + ": " + e.getMessage();
+		}
+	}
+
+	/**
+	 * e[u؂B<br/>
+	 * DBUnit{@link Assertion}Ŕrꍇidataset.assert.engine=dbunitjA{@link AssertionError}ŒʒmB
+	 * @param connection	DBUnit̃RlNV
+	 * @param dataset		Ғl̃f[^Zbg
+	 * @param sql			؂SQL
+	 * @param tableName		e[u
+	 * @param ignoreColumns	rȂ
+	 * @return	̕񍐁Bvꍇ null
+	 * @throws Exception
+	 */
+	private String verifyTable(IDatabaseConnection connection, IDataSet dataset, String sql, String tableName,
+			String[] ignoreColumns) throws Exception {
+		if (!HASH_ASSERTION) {
+			// `FbNT͍s̏rȂ߁A؂DBUnit̔rł͏ȗȂ
+			Assertion.assertEqualsByQuery(dataset, connection, sql, tableName, ignoreColumns);
+			return null;
+		}
+		ITable expected = dataset.getTable(tableName);
+		if (CHECKSUM_ASSERTION && matchesChecksum(connection, expected, sql, tableName, ignoreColumns)) {
+			return null;
+		}
+		if (MINUS_ASSERTION) {
+			SetDifferenceComparator minus = new SetDifferenceComparator(connection, tableName, sql, ignoreColumns,
+					MAX_DIFFS);
+			if (minus.isSupported()) {
+				return minus.compare(expected);
+			}
+			log.info("DBTestBase: " + tableName + " has LOB columns, compared by hash join");
+		}
+		TableComparator.Result result = STREAMING_ASSERTION ? compareByStream(connection, expected, sql,
+				ignoreColumns) : compare(expected, connection.createQueryTable(tableName, sql), ignoreColumns);
+		return result.getReport();
+	}
+
+	/**
+	 * Ғlƌ؂SQĽʂ̃`FbNTi{@link TableChecksum}jrB<br/>
+	 * r̍\قȂꍇAK̋K܂ޏꍇADBŏWvłȂꍇ false ԂB
+	 * @param connection	DBUnit̃RlNV
+	 * @param expected		Ғl̃e[u
+	 * @param sql			؂SQL
+	 * @param tableName		e[u
+	 * @param ignoreColumns	rȂ
+	 * @return	`FbNTvꍇ true
+	 * @throws Exception
+	 */
+	private boolean matchesChecksum(IDatabaseConnection connection, ITable expected, String sql, String tableName,
+			String[] ignoreColumns) throws Exception {
+		Set<String> ignored = new HashSet<String>();
+		for (String ignoreColumn : ignoreColumns) {
+			ignored.add(ignoreColumn.toUpperCase());
+		}
+		Set<String> expectedNames = new HashSet<String>();
+		for (Column column : expected.getTableMetaData().getColumns()) {
+			if (!ignored.contains(column.getColumnName().toUpperCase())) {
+				expectedNames.add(column.getColumnName().toUpperCase());
+			}
+		}
+		List<Column> columns = new ArrayList<Column>();
+		for (Column column : SetDifferenceComparator.describe(connection, tableName, sql)) {
+			if (ignored.contains(column.getColumnName().toUpperCase())) {
+				continue;
+			}
+			if (!TableChecksum.supports(column) || !expectedNames.remove(column.getColumnName().toUpperCase())) {
+				return false;
+			}
+			columns.add(column);
+		}
+		if (!expectedNames.isEmpty()) {
+			return false;
+		}
+
+		Column[] compared = columns.toArray(new Column[columns.size()]);
+		TableChecksum checksum;
+		try {
+			checksum = TableChecksum.of(expected, compared);
+		} catch (DataSetException e) {
+			// ϊłȂҒl͍sPʂ̔rŕ񍐂
+			return false;
+		}
+		Statement stmt = connection.getConnection().createStatement();
+		ResultSet rs = null;
+		try {
+			rs = stmt.executeQuery(TableChecksum.checksumSql(sql, compared));
+			rs.next();
+			boolean matched = checksum.matches(rs.getLong(1), rs.getBigDecimal(2));
+			log.debug("DBTestBase: checksum of " + tableName + (matched ? " matched" : " unmatched") + ", rows="
+					+ checksum.getCount());
+			return matched;
+		} catch (SQLException e) {
+			log.warn("DBTestBase: checksum of " + tableName + " failed, " + e.getLocalizedMessage());
+			return false;
+		} finally {
+			DbUtils.closeQuietly(rs);
+			DbUtils.closeQuietly(stmt);
+		}
+	}
+
+	/**
+	 * Ғl̍svC}L[iꍇ͑SjōAۂ̍sƏƍB
+	 * @param expected		Ғl̃e[u
+	 * @param actual		ۂ̃e[u
+	 * @param ignoreColumns	rȂ
+	 * @return	r
+	 * @throws Exception
+	 */
+	private TableComparator.Result compare(ITable expected, ITable actual, String[] ignoreColumns)
+			throws Exception {
+		Column[] columns = actual.getTableMetaData().getColumns();
+		TableComparator comparator = newComparator(expected, columns, ignoreColumns);
+		int rowCount = actual.getRowCount();
+		for (int row = 0; row < rowCount; row++) {
+			Object[] values = new Object[columns.length];
+			for (int i = 0; i < columns.length; i++) {
+				values[i] = actual.getValue(row, columns[i].getColumnName());
+			}
+			comparator.compareRow(values);
+		}
+		return comparator.finish();
+	}
+
+	/**
+	 * SQLOp̃J[\ŎsAۂ̍s擾ȂҒlƏƍB<br/>
+	 * ۂ̍s̓ɕێȂ߁Aʂ̌Ɋւ炸gp郁͊Ғl݂̂̕ƂȂB
+	 * @param connection	DBUnit̃RlNV
+	 * @param expected		Ғl̃e[u
+	 * @param sql			SQL
+	 * @param ignoreColumns	rȂ
+	 * @return	r
+	 * @throws Exception
+	 */
+	private TableComparator.Result compareByStream(IDatabaseConnection connection, ITable expected, String sql,
+			String[] ignoreColumns) throws Exception {
+		PreparedStatement stmt = prepareForwardOnly(connection, sql);
+		ResultSet rs = null;
+		try {
+			rs = stmt.executeQuery();
+			Column[] columns = new ResultSetTableMetaData(expected.getTableMetaData().getTableName(), rs,
+					connection, false).getColumns();
+			TableComparator comparator = newComparator(expected, columns, ignoreColumns);
+			Object[] values = new Object[columns.length];
+			while (rs.next()) {
+				for (int i = 0; i < columns.length; i++) {
+					values[i] = columns[i].getDataType().getSqlValue(i + 1, rs);
+				}
+				comparator.compareRow(values);
+			}
+			return comparator.finish();
+		} finally {
+			DbUtils.closeQuietly(rs);
+			DbUtils.closeQuietly(stmt);
+		}
+	}
+
+	/**
+	 * ؗp̃Xe[ggOpEǂݎpŏB
+	 * @param connection	DBUnit̃RlNV
+	 * @param sql	SQL
+	 * @return	tFb`TCYݒ肵Xe[gg
+	 * @throws SQLException
+	 */
+	private PreparedStatement prepareForwardOnly(IDatabaseConnection connection, String sql) throws SQLException {
+		PreparedStatement stmt = connection.getConnection().prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY,
+				ResultSet.CONCUR_READ_ONLY);
+		stmt.setFetchSize(ASSERT_FETCH_SIZE);
+		return stmt;
+	}
+
+	/**
+	 * rJnB
+	 * @param expected		Ғl̃e[u
+	 * @param columns		ۂ̗
+	 * @param ignoreColumns	rȂ
+	 * @return	Ғlr
+	 * @throws Exception
+	 */
+	private TableComparator newComparator(ITable expected, Column[] columns, String[] ignoreColumns)
+			throws Exception {
+		TableComparator comparator = new TableComparator(expected, ignoreColumns, getKeyColumns(
+				expected.getTableMetaData().getTableName(), columns), MAX_DIFFS);
+		comparator.begin(columns);
+		return comparator;
+	}
+
+	/**
+	 * sʂ擾B<br/>
+	 * eXgNXŐ錾vC}L[AꍇDB̃vC}L[𗘗pB
+	 * @param tableName	e[u
+	 * @param columns	
+	 * @return	sʂBvC}L[ꍇ͋
+	 * @throws IllegalAccessException
+	 */
+	private String[] getKeyColumns(String tableName, Column[] columns) throws IllegalAccessException {
+		IColumnFilter filter = getPrimaryKeyFilter();
+		if (filter == null) {
+			filter = MetaDataPrimaryKeyFilter.INSTANCE;
+		}
+		List<String> keys = new ArrayList<String>();
+		for (Column column : columns) {
+			if (filter.accept(tableName, column)) {
+				keys.add(column.getColumnName());
+			}
+		}
+		return keys.toArray(new String[keys.size()]);
+	}
+
+	/**
+	 * SQLṽtF[Y؂ւ
+	 * @param phase	tF[Y
+	 * @return	֑ؑÕtF[YBv̏ꍇ null
+	 */
+	private String enterPhase(String phase) {
+		if (!SqlStatistics.isEnabled()) {
+			return null;
+		}
+		return SqlStatistics.current().setPhase(phase);
+	}
+
+	/**
+	 * SQLṽtF[Y߂
+	 * @param phase	{@link #enterPhase(String)}̖߂l
+	 */
+	private void exitPhase(String phase) {
+		if (SqlStatistics.isEnabled()) {
+			SqlStatistics.current().setPhase(phase);
+		}
 	}
 }
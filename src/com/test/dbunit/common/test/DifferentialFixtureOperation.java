@@ -0,0 +1,244 @@
+package com.test.dbunit.common.test;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.dbunit.DatabaseUnitException;
+import org.dbunit.database.IDatabaseConnection;
+import org.dbunit.dataset.Column;
+import org.dbunit.dataset.DefaultDataSet;
+import org.dbunit.dataset.DefaultTable;
+import org.dbunit.dataset.DefaultTableMetaData;
+import org.dbunit.dataset.IDataSet;
+import org.dbunit.dataset.ITable;
+import org.dbunit.dataset.ITableIterator;
+import org.dbunit.dataset.ITableMetaData;
+import org.dbunit.dataset.NoPrimaryKeyException;
+import org.dbunit.dataset.RowOutOfBoundsException;
+import org.dbunit.operation.DatabaseOperation;
+
+/**
+ * 前回投入したデータとの差分のみを反映するDB操作。<br/>
+ * 投入したデータのテーブル毎・行毎のハッシュを{@link State}として保持し、次の投入では
+ * 前回から無くなった行をDELETE、値が変わった行をUPDATE、新しい行をREFRESHします。
+ * 行はプライマリキーで識別します。<br/>
+ * 前回の状態が無い場合は全行をREFRESHします。前回の状態が無効化されている場合（テスト対象のロジックが
+ * 別のコネクションで更新した可能性がある場合）は、前回の行を削除した上で全行をREFRESHします。
+ */
+class DifferentialFixtureOperation extends DatabaseOperation {
+
+	private static Log log = LogFactory.getLog(DifferentialFixtureOperation.class);
+
+	/** FNV-1a 64bit */
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	private final State previous;
+	private final DatabaseOperation refreshOperation;
+	private State next = null;
+
+	/**
+	 * @param previous			前回投入したデータの状態。無い場合は null
+	 * @param refreshOperation	新しい行の投入に利用するREFRESH操作
+	 */
+	DifferentialFixtureOperation(State previous, DatabaseOperation refreshOperation) {
+		this.previous = previous;
+		this.refreshOperation = refreshOperation;
+	}
+
+	/**
+	 * @return	今回投入したデータの状態
+	 */
+	State getState() {
+		return next;
+	}
+
+	@Override
+	public void execute(IDatabaseConnection connection, IDataSet dataSet) throws DatabaseUnitException,
+			SQLException {
+		boolean reusable = previous != null && previous.valid;
+		Map<String, TableState> remaining = new LinkedHashMap<String, TableState>();
+		if (previous != null) {
+			remaining.putAll(previous.tables);
+		}
+		State state = new State();
+		IDataSet databaseDataSet = connection.createDataSet();
+
+		List<ITable> deletes = new ArrayList<ITable>();
+		List<ITable> updates = new ArrayList<ITable>();
+		List<ITable> refreshes = new ArrayList<ITable>();
+		int skipped = 0;
+
+		ITableIterator iterator = dataSet.iterator();
+		while (iterator.next()) {
+			ITable table = iterator.getTable();
+			ITableMetaData metaData = table.getTableMetaData();
+			String tableName = metaData.getTableName();
+			Column[] primaryKeys = databaseDataSet.getTableMetaData(tableName).getPrimaryKeys();
+			if (primaryKeys.length == 0) {
+				throw new NoPrimaryKeyException(tableName);
+			}
+			TableState before = remaining.remove(tableName.toUpperCase());
+			Map<String, RowState> beforeRows = before != null ? new HashMap<String, RowState>(before.rows)
+					: Collections.<String, RowState> emptyMap();
+
+			TableState after = new TableState(primaryKeys);
+			DefaultTable update = new DefaultTable(metaData);
+			DefaultTable refresh = new DefaultTable(metaData);
+			Column[] columns = metaData.getColumns();
+			try {
+				for (int row = 0;; row++) {
+					Object[] values = new Object[columns.length];
+					for (int i = 0; i < columns.length; i++) {
+						values[i] = table.getValue(row, columns[i].getColumnName());
+					}
+					Object[] keyValues = new Object[primaryKeys.length];
+					for (int i = 0; i < primaryKeys.length; i++) {
+						keyValues[i] = table.getValue(row, primaryKeys[i].getColumnName());
+					}
+					String key = hashKey(keyValues);
+					long hash = hash(values);
+					after.put(key, new RowState(hash, keyValues));
+
+					RowState old = beforeRows.remove(key);
+					if (reusable && old != null) {
+						if (old.hash != hash) {
+							update.addRow(values);
+						}
+					} else {
+						refresh.addRow(values);
+					}
+				}
+			} catch (RowOutOfBoundsException e) {
+				// end of table
+			}
+			if (reusable && before != null && after.hash == before.hash) {
+				skipped++;
+			}
+			if (!beforeRows.isEmpty()) {
+				deletes.add(deleteTable(tableName, before.primaryKeys, beforeRows.values()));
+			}
+			if (update.getRowCount() > 0) {
+				updates.add(update);
+			}
+			if (refresh.getRowCount() > 0) {
+				refreshes.add(refresh);
+			}
+			state.tables.put(tableName.toUpperCase(), after);
+		}
+		// 今回のデータに含まれないテーブルの行は削除する
+		for (Map.Entry<String, TableState> entry : remaining.entrySet()) {
+			TableState before = entry.getValue();
+			deletes.add(deleteTable(entry.getKey(), before.primaryKeys, before.rows.values()));
+		}
+
+		Collections.reverse(deletes);
+		DatabaseOperation.DELETE.execute(connection, new DefaultDataSet(deletes.toArray(new ITable[0])));
+		DatabaseOperation.UPDATE.execute(connection, new DefaultDataSet(updates.toArray(new ITable[0])));
+		refreshOperation.execute(connection, new DefaultDataSet(refreshes.toArray(new ITable[0])));
+		next = state;
+
+		log.info("Differential fixture: " + (reusable ? "diff" : previous != null ? "reload" : "full") + ", tables="
+				+ state.tables.size() + ", unchanged=" + skipped + ", delete=" + rowCount(deletes) + ", update="
+				+ rowCount(updates) + ", refresh=" + rowCount(refreshes));
+	}
+
+	private static ITable deleteTable(String tableName, Column[] primaryKeys, Iterable<RowState> rows)
+			throws DatabaseUnitException {
+		DefaultTable table = new DefaultTable(new DefaultTableMetaData(tableName, primaryKeys, primaryKeys));
+		for (RowState row : rows) {
+			table.addRow(row.key);
+		}
+		return table;
+	}
+
+	private static int rowCount(List<ITable> tables) {
+		int count = 0;
+		for (ITable table : tables) {
+			count += table.getRowCount();
+		}
+		return count;
+	}
+
+	private static String hashKey(Object[] values) {
+		StringBuilder key = new StringBuilder();
+		for (Object value : values) {
+			key.append(toString(value)).append('\u0001');
+		}
+		return key.toString();
+	}
+
+	static long hash(Object[] values) {
+		long hash = FNV_OFFSET;
+		for (Object value : values) {
+			String text = toString(value);
+			for (int i = 0; i < text.length(); i++) {
+				hash = (hash ^ text.charAt(i)) * FNV_PRIME;
+			}
+			hash = (hash ^ 0xff) * FNV_PRIME;
+		}
+		return hash;
+	}
+
+	private static String toString(Object value) {
+		if (value == null || value == ITable.NO_VALUE) {
+			return "\u0000";
+		}
+		if (value instanceof byte[]) {
+			return Arrays.toString((byte[])value);
+		}
+		return value.toString();
+	}
+
+	/**
+	 * 投入したデータの状態（テーブル名の大文字 → テーブルの状態）
+	 */
+	static final class State {
+		private final Map<String, TableState> tables = new LinkedHashMap<String, TableState>();
+		private boolean valid = true;
+
+		/**
+		 * テスト対象のロジックがテーブルを更新した可能性がある場合に、差分による投入を無効にする
+		 */
+		void invalidate() {
+			valid = false;
+		}
+	}
+
+	private static final class TableState {
+		private final Column[] primaryKeys;
+		private final Map<String, RowState> rows = new LinkedHashMap<String, RowState>();
+		/** 行のハッシュの合計（行の順序に依存しない） */
+		private long hash = 0;
+
+		TableState(Column[] primaryKeys) {
+			this.primaryKeys = primaryKeys;
+		}
+
+		void put(String key, RowState row) {
+			RowState old = rows.put(key, row);
+			if (old != null) {
+				hash -= old.hash;
+			}
+			hash += row.hash;
+		}
+	}
+
+	private static final class RowState {
+		private final long hash;
+		private final Object[] key;
+
+		RowState(long hash, Object[] key) {
+			this.hash = hash;
+			this.key = key;
+		}
+	}
+}
@@ -0,0 +1,74 @@
+package com.test.dbunit.common.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.experimental.ParallelComputer;
+import org.junit.runner.Computer;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+import org.junit.runner.notification.Failure;
+
+import com.test.dbunit.common.db.DbShard;
+
+/**
+ * テストクラスをワーカーシャード毎に並列実行するランナー。<br/>
+ * 各テストクラスは{@link DBTestBase}の@BeforeClassで{@link DbShard}を確保するため、
+ * 同時に実行されるクラス数はシャード数（db.shard.count）で制限されます。
+ * シャードを有効にする場合は db.isolation=savepoint が必要です（mock の場合は実行前にエラーとなります）。
+ * <pre>
+ * java com.test.dbunit.common.test.ParallelTestRunner [-provision グループ名] テストクラス名...
+ * </pre>
+ * -provision を指定した場合、実行前に全シャードでsql.propertiesのSQLグループを実行します。
+ */
+public class ParallelTestRunner {
+
+	private static Log log = LogFactory.getLog(ParallelTestRunner.class);
+
+	/**
+	 * インスタンス化抑制用コンストラクタ
+	 */
+	private ParallelTestRunner() {
+	}
+
+	/**
+	 * @param args	[-provision グループ名] テストクラス名...
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		List<Class<?>> classes = new ArrayList<Class<?>>();
+		for (int i = 0; i < args.length; i++) {
+			if ("-provision".equals(args[i]) && i + 1 < args.length) {
+				DbShard.provision(args[++i]);
+			} else {
+				classes.add(Class.forName(args[i]));
+			}
+		}
+		Result result = run(classes.toArray(new Class<?>[classes.size()]));
+		System.exit(result.wasSuccessful() ? 0 : 1);
+	}
+
+	/**
+	 * テストクラスを並列実行する。<br/>
+	 * シャードが設定されていない場合は逐次実行する。
+	 * @param classes	テストクラス
+	 * @return	実行結果
+	 * @throws IllegalStateException	シャードが有効で db.isolation=savepoint でない場合
+	 */
+	public static Result run(Class<?>... classes) {
+		DBTestBase.checkShardIsolation();
+		if (!DbShard.isEnabled()) {
+			log.warn("db.shard.count is not set. Test classes run sequentially.");
+		}
+		Computer computer = DbShard.isEnabled() ? ParallelComputer.classes() : new Computer();
+		Result result = JUnitCore.runClasses(computer, classes);
+		for (Failure failure : result.getFailures()) {
+			log.error(failure.getTestHeader() + "\n" + failure.getTrace());
+		}
+		log.info("ParallelTestRunner: run=" + result.getRunCount() + ", failure=" + result.getFailureCount()
+				+ ", time=" + result.getRunTime() + "ms, shards=" + DbShard.all().size());
+		return result;
+	}
+}
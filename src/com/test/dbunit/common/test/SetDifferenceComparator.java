@@ -0,0 +1,390 @@
+package com.test.dbunit.common.test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.dbutils.DbUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.dbunit.database.DatabaseConfig;
+import org.dbunit.database.IDatabaseConnection;
+import org.dbunit.database.ResultSetTableMetaData;
+import org.dbunit.dataset.Column;
+import org.dbunit.dataset.DataSetException;
+import org.dbunit.dataset.ITable;
+
+import com.test.dbunit.common.db.DbConnection;
+
+/**
+ * DB側の差集合（MINUS）によるテーブル比較。<br/>
+ * 期待値の行をグローバル一時表（<code>EX$テーブル名$ハッシュ</code>、ON COMMIT PRESERVE ROWS）へバッチで投入し、
+ * 検証のSQLとの差集合<code>(実際 MINUS 期待値) UNION ALL (期待値 MINUS 実際)</code>をDBで求め、
+ * 相違する行のみ（種類毎に最大件数まで）を取得します。実際の行は転送しないため、大きなテーブルの検証に向きます。<br/>
+ * 一時表は検証のSQLと比較する列の定義（データ型・長さ・精度・位取り）毎に、存在しない場合は別のコネクションで作成します
+ * （DDLによりテストのトランザクションがコミットされないようにするため）。比較する列は別名の無い式を含まないようにしてください。<br/>
+ * 差集合のため重複行の件数は比較せず、値の異なる行は不足と余分の両方に現れます。
+ * LOB列は差集合で比較できないため、比較する列に含む場合は{@link #isSupported()}が false を返します。
+ */
+final class SetDifferenceComparator {
+
+	private static Log log = LogFactory.getLog(SetDifferenceComparator.class);
+
+	/** 一時表名の接頭辞 */
+	private static final String TEMPORARY_PREFIX = "EX$";
+	/** Oracleの識別子の最大長 */
+	private static final int MAX_IDENTIFIER_LENGTH = 30;
+
+	/** 作成済みの一時表（スキーマ.テーブル名） */
+	private static final Set<String> temporaryTables = Collections.synchronizedSet(new HashSet<String>());
+
+	private final IDatabaseConnection connection;
+	private final String tableName;
+	private final String sql;
+	private final Set<String> ignoreColumns = new HashSet<String>();
+	private final int maxDiffs;
+
+	/** 比較する列（検証のSQLの列から除外列を除いたもの） */
+	private Column[] columns = null;
+	/** 検証のSQLの列名（大文字） → 列の定義 */
+	private final Map<String, String> definitions = new HashMap<String, String>();
+
+	/**
+	 * @param connection	DBUnitのコネクション
+	 * @param tableName		テーブル名
+	 * @param sql			検証のSQL
+	 * @param ignoreColumns	比較しない列
+	 * @param maxDiffs		報告する行の最大数（不足・余分それぞれ）
+	 */
+	SetDifferenceComparator(IDatabaseConnection connection, String tableName, String sql, String[] ignoreColumns,
+			int maxDiffs) {
+		this.connection = connection;
+		this.tableName = tableName;
+		this.sql = sql;
+		if (ignoreColumns != null) {
+			for (String name : ignoreColumns) {
+				this.ignoreColumns.add(name.toUpperCase());
+			}
+		}
+		this.maxDiffs = maxDiffs;
+	}
+
+	/**
+	 * 検証のSQLの列を取得し、差集合で比較できるか判定する。
+	 * @return	比較する列にLOB列を含まない場合 true
+	 * @throws SQLException
+	 * @throws DataSetException
+	 */
+	boolean isSupported() throws SQLException, DataSetException {
+		for (Column column : describe()) {
+			switch (column.getDataType().getSqlType()) {
+			case Types.BLOB:
+			case Types.CLOB:
+			case Types.NCLOB:
+			case Types.LONGVARBINARY:
+			case Types.LONGVARCHAR:
+				return false;
+			default:
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * 期待値を一時表へ投入し、検証のSQLとの差集合を求める。
+	 * @param expected	期待値のテーブル
+	 * @return	相違の報告。一致した場合は null
+	 * @throws Exception
+	 */
+	String compare(ITable expected) throws Exception {
+		Column[] compared = describe();
+		List<String> columnErrors = new ArrayList<String>();
+		Set<String> expectedNames = new HashSet<String>();
+		for (Column column : expected.getTableMetaData().getColumns()) {
+			String name = column.getColumnName().toUpperCase();
+			expectedNames.add(name);
+			if (!ignoreColumns.contains(name) && !contains(compared, name)) {
+				columnErrors.add("column " + column.getColumnName() + " is not in the actual table");
+			}
+		}
+		for (Column column : compared) {
+			if (!expectedNames.contains(column.getColumnName().toUpperCase())) {
+				columnErrors.add("column " + column.getColumnName() + " is not in the expected table");
+			}
+		}
+		int expectedRows = expected.getRowCount();
+		StringBuilder report = new StringBuilder(tableName).append(": expected ").append(expectedRows)
+				.append(" rows");
+		if (!columnErrors.isEmpty()) {
+			for (String error : columnErrors) {
+				report.append("\n  ").append(error);
+			}
+			return report.toString();
+		}
+
+		String temporary = prepareTemporaryTable();
+		Connection conn = connection.getConnection();
+		try {
+			load(conn, expected, temporary);
+			return difference(conn, temporary, report);
+		} finally {
+			Statement stmt = conn.createStatement();
+			try {
+				stmt.executeUpdate("DELETE FROM " + temporary);
+			} finally {
+				DbUtils.closeQuietly(stmt);
+			}
+		}
+	}
+
+	private Column[] describe() throws SQLException, DataSetException {
+		if (columns != null) {
+			return columns;
+		}
+		List<Column> list = new ArrayList<Column>();
+		for (Column column : describe(connection, tableName, sql, definitions)) {
+			if (!ignoreColumns.contains(column.getColumnName().toUpperCase())) {
+				list.add(column);
+			}
+		}
+		columns = list.toArray(new Column[list.size()]);
+		return columns;
+	}
+
+	/**
+	 * 検証のSQLを行を取得せずに実行し、列を取得する。
+	 * @param connection	DBUnitのコネクション
+	 * @param tableName		テーブル名
+	 * @param sql			検証のSQL
+	 * @return	列（SQLの列の順）
+	 * @throws SQLException
+	 * @throws DataSetException
+	 */
+	static Column[] describe(IDatabaseConnection connection, String tableName, String sql) throws SQLException,
+			DataSetException {
+		return describe(connection, tableName, sql, null);
+	}
+
+	/**
+	 * 検証のSQLを行を取得せずに実行し、列と列の定義を取得する。
+	 * @param definitions	列名（大文字） → 列の定義（データ型・長さ・精度・位取り）を格納する。null の場合は取得しない
+	 */
+	private static Column[] describe(IDatabaseConnection connection, String tableName, String sql,
+			Map<String, String> definitions) throws SQLException, DataSetException {
+		Statement stmt = connection.getConnection().createStatement();
+		ResultSet rs = null;
+		try {
+			rs = stmt.executeQuery("SELECT * FROM (" + sql + ") WHERE 1 = 0");
+			if (definitions != null) {
+				ResultSetMetaData metaData = rs.getMetaData();
+				for (int i = 1; i <= metaData.getColumnCount(); i++) {
+					definitions.put(metaData.getColumnName(i).toUpperCase(), metaData.getColumnTypeName(i) + "("
+							+ metaData.getColumnDisplaySize(i) + "," + metaData.getPrecision(i) + ","
+							+ metaData.getScale(i) + ")");
+				}
+			}
+			return new ResultSetTableMetaData(tableName, rs, connection, false).getColumns();
+		} finally {
+			DbUtils.closeQuietly(rs);
+			DbUtils.closeQuietly(stmt);
+		}
+	}
+
+	private static boolean contains(Column[] columns, String name) {
+		for (Column column : columns) {
+			if (column.getColumnName().equalsIgnoreCase(name)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * 期待値を一時表にバッチで投入する。値は検証のSQLの列のデータ型で設定する。
+	 */
+	private void load(Connection conn, ITable expected, String temporary) throws Exception {
+		StringBuilder insert = new StringBuilder("INSERT INTO ").append(temporary).append(" (").append(columnList())
+				.append(") VALUES (");
+		for (int i = 0; i < columns.length; i++) {
+			insert.append(i > 0 ? ", ?" : "?");
+		}
+		insert.append(")");
+
+		int batchSize = ((Integer)connection.getConfig().getProperty(DatabaseConfig.PROPERTY_BATCH_SIZE)).intValue();
+		int rowCount = expected.getRowCount();
+		PreparedStatement stmt = conn.prepareStatement(insert.toString());
+		try {
+			for (int row = 0; row < rowCount; row++) {
+				for (int i = 0; i < columns.length; i++) {
+					Object value = expected.getValue(row, columns[i].getColumnName());
+					if (value == null || value == ITable.NO_VALUE) {
+						stmt.setNull(i + 1, columns[i].getDataType().getSqlType());
+					} else {
+						columns[i].getDataType().setSqlValue(value, i + 1, stmt);
+					}
+				}
+				stmt.addBatch();
+				if ((row + 1) % batchSize == 0) {
+					stmt.executeBatch();
+				}
+			}
+			if (rowCount % batchSize != 0) {
+				stmt.executeBatch();
+			}
+		} finally {
+			DbUtils.closeQuietly(stmt);
+		}
+	}
+
+	/**
+	 * 差集合を求め、相違する行を種類毎に最大件数まで取得する。
+	 */
+	private String difference(Connection conn, String temporary, StringBuilder report) throws Exception {
+		String actual = "SELECT " + columnList() + " FROM (" + sql + ")";
+		String expected = "SELECT " + columnList() + " FROM " + temporary;
+		String difference = "SELECT * FROM (" + side("EXTRA", actual, expected) + ") WHERE ROWNUM <= ?"
+				+ " UNION ALL SELECT * FROM (" + side("MISSING", expected, actual) + ") WHERE ROWNUM <= ?";
+
+		int missingCount = 0;
+		int extraCount = 0;
+		List<String> missing = new ArrayList<String>();
+		List<String> extra = new ArrayList<String>();
+		PreparedStatement stmt = conn.prepareStatement(difference);
+		ResultSet rs = null;
+		try {
+			stmt.setInt(1, maxDiffs);
+			stmt.setInt(2, maxDiffs);
+			rs = stmt.executeQuery();
+			while (rs.next()) {
+				StringBuilder row = new StringBuilder("{");
+				for (int i = 0; i < columns.length; i++) {
+					row.append(i > 0 ? ", " : "").append(columns[i].getColumnName()).append('=')
+							.append(TableComparator.toString(columns[i].getDataType().getSqlValue(i + 2, rs)));
+				}
+				row.append('}');
+				int count = rs.getInt(columns.length + 2);
+				if ("MISSING".equals(rs.getString(1))) {
+					missingCount = count;
+					missing.add(row.toString());
+				} else {
+					extraCount = count;
+					extra.add(row.toString());
+				}
+			}
+		} finally {
+			DbUtils.closeQuietly(rs);
+			DbUtils.closeQuietly(stmt);
+		}
+		if (missingCount == 0 && extraCount == 0) {
+			return null;
+		}
+		append(report, "missing", missingCount, missing);
+		append(report, "extra", extraCount, extra);
+		return report.toString();
+	}
+
+	/**
+	 * 差集合の件数（COUNT$）を付けた一方向の差集合
+	 */
+	private static String side(String label, String from, String minus) {
+		return "SELECT '" + label + "' DIFF$, D.*, COUNT(*) OVER () COUNT$ FROM (" + from + " MINUS " + minus
+				+ ") D";
+	}
+
+	private void append(StringBuilder sb, String label, int count, List<String> rows) {
+		if (count == 0) {
+			return;
+		}
+		sb.append("\n  ").append(label).append(' ').append(count).append(':');
+		for (String row : rows) {
+			sb.append("\n    ").append(row);
+		}
+		if (count > rows.size()) {
+			sb.append("\n    ... and ").append(count - rows.size()).append(" more");
+		}
+	}
+
+	/**
+	 * 比較する列の定義を列の順に並べたもの
+	 */
+	private String columnDefinitions() {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < columns.length; i++) {
+			sb.append(i > 0 ? ", " : "").append(columns[i].getColumnName()).append(' ')
+					.append(definitions.get(columns[i].getColumnName().toUpperCase()));
+		}
+		return sb.toString();
+	}
+
+	private String columnList() {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < columns.length; i++) {
+			sb.append(i > 0 ? ", " : "").append(columns[i].getColumnName());
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * 一時表が無ければ作成する。<br/>
+	 * 一時表名は検証のSQLと比較する列の定義から求めるため、列の構成が異なるSQLや、テーブルの変更で列の長さ等が
+	 * 変わったSQLで同じ一時表を共有することはない（変更前の定義で作成した一時表に投入しない）。
+	 * DDLは暗黙にコミットされるため、テストとは別のコネクションで実行する。
+	 * @return	スキーマ付きの一時表名
+	 */
+	private String prepareTemporaryTable() throws SQLException {
+		String name = tableName.toUpperCase();
+		int dot = name.lastIndexOf('.');
+		if (dot >= 0) {
+			name = name.substring(dot + 1);
+		}
+		String hash = String.format("$%08X", Integer.valueOf((sql + "|" + columnDefinitions()).hashCode()));
+		int maxLength = MAX_IDENTIFIER_LENGTH - TEMPORARY_PREFIX.length() - hash.length();
+		name = TEMPORARY_PREFIX + (name.length() > maxLength ? name.substring(0, maxLength) : name) + hash;
+		String schema = connection.getSchema();
+		String qualified = schema == null ? name : schema + "." + name;
+		if (temporaryTables.contains(qualified)) {
+			return qualified;
+		}
+
+		Connection conn = null;
+		PreparedStatement query = null;
+		Statement ddl = null;
+		ResultSet rs = null;
+		try {
+			conn = DbConnection.getConnection();
+			conn.setAutoCommit(true);
+			query = conn.prepareStatement("SELECT 1 FROM ALL_TABLES WHERE OWNER = NVL(?, USER) AND TABLE_NAME = ?");
+			query.setString(1, schema == null ? null : schema.toUpperCase());
+			query.setString(2, name);
+			rs = query.executeQuery();
+			if (!rs.next()) {
+				ddl = conn.createStatement();
+				ddl.executeUpdate("CREATE GLOBAL TEMPORARY TABLE " + qualified + " ON COMMIT PRESERVE ROWS AS SELECT "
+						+ columnList() + " FROM (" + sql + ") WHERE 1 = 0");
+				log.info("Created temporary table " + qualified + " for " + tableName);
+			}
+			temporaryTables.add(qualified);
+			return qualified;
+		} catch (SQLException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new SQLException(e);
+		} finally {
+			DbUtils.closeQuietly(rs);
+			DbUtils.closeQuietly(query);
+			DbUtils.closeQuietly(ddl);
+			DbUtils.closeQuietly(conn);
+		}
+	}
+}
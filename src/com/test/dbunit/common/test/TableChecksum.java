@@ -0,0 +1,234 @@
+package com.test.dbunit.common.test;
+
+import java.io.UnsupportedEncodingException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.text.SimpleDateFormat;
+
+import org.dbunit.dataset.Column;
+import org.dbunit.dataset.DataSetException;
+import org.dbunit.dataset.ITable;
+import org.dbunit.dataset.datatype.DataType;
+
+/**
+ * 行の順序に依存しないテーブルのチェックサム。<br/>
+ * 各行を以下の規則で文字列に正規化し、そのMD5の先頭64ビットを数値として全行で合計します（件数と合わせて比較）。
+ * 同じ規則の集計をDBで行うSQL（{@link #checksumSql(String, Column[])}）と、期待値からの計算（{@link #add(Object[])}）は
+ * 同じ結果となるため、チェックサムが一致した場合は行単位の比較を省略できます。
+ * <ul>
+ * <li>列の値は{@link TableComparator}と同じくデータ型で変換してから正規化する（チェックサムが一致して比較が失敗することはない）</li>
+ * <li>NULL は <code>-</code>、NULL以外は <code>文字数:文字列</code>（空文字とNULLは別の値）</li>
+ * <li>数値は末尾のゼロを除いた10進表記、整数部が0の場合は0を省略（<code>1.50</code> → <code>1.5</code>、
+ *     <code>0.50</code> → <code>.5</code>、<code>0.00</code> → <code>0</code>。OracleのTO_CHAR(n, 'TM9')と同じ）</li>
+ * <li>日時は <code>yyyy-MM-dd HH:mm:ss.ナノ秒9桁</code>（DATE型は小数部が0）</li>
+ * <li>文字列はそのまま（CHAR型の空白の補完は期待値では行わない）。バイト列はUTF-8</li>
+ * </ul>
+ * 数値（NUMBER等）、文字列（CHAR, VARCHAR2）、日時（DATE, TIMESTAMP）以外の列は正規化の規則が無いため対象外です
+ * （{@link #supports(Column)}）。
+ */
+final class TableChecksum {
+
+	/** DBでの1行の正規化文字列のハッシュ（MD5の先頭64ビット） */
+	private static final String ROW_HASH = "TO_NUMBER(SUBSTR(RAWTOHEX(DBMS_OBFUSCATION_TOOLKIT.MD5("
+			+ "input => UTL_I18N.STRING_TO_RAW(%s, 'AL32UTF8'))), 1, 16), 'XXXXXXXXXXXXXXXX')";
+
+	private static final String NULL_VALUE = "-";
+
+	/** 比較する列 */
+	private final Column[] columns;
+	private long count = 0;
+	private BigInteger sum = BigInteger.ZERO;
+
+	/**
+	 * @param columns	比較する列（DBで集計するSQLと同じ順）
+	 */
+	TableChecksum(Column[] columns) {
+		this.columns = columns;
+	}
+
+	/**
+	 * 期待値のテーブルのチェックサムを求める。
+	 * @param expected	期待値のテーブル
+	 * @param columns	比較する列（実際の列）
+	 * @return	チェックサム
+	 * @throws DataSetException	期待値をデータ型で変換できない場合
+	 */
+	static TableChecksum of(ITable expected, Column[] columns) throws DataSetException {
+		TableChecksum checksum = new TableChecksum(columns);
+		int rowCount = expected.getRowCount();
+		Object[] values = new Object[columns.length];
+		for (int row = 0; row < rowCount; row++) {
+			for (int i = 0; i < columns.length; i++) {
+				values[i] = expected.getValue(row, columns[i].getColumnName());
+			}
+			checksum.add(values);
+		}
+		return checksum;
+	}
+
+	/**
+	 * 正規化の規則がある列か判定する。
+	 * @param column	列
+	 * @return	数値・文字列・日時の列の場合 true
+	 */
+	static boolean supports(Column column) {
+		switch (column.getDataType().getSqlType()) {
+		case Types.NUMERIC:
+		case Types.DECIMAL:
+		case Types.INTEGER:
+		case Types.SMALLINT:
+		case Types.TINYINT:
+		case Types.BIGINT:
+		case Types.CHAR:
+		case Types.VARCHAR:
+			return true;
+		case Types.TIMESTAMP:
+			// TIMESTAMP WITH (LOCAL) TIME ZONE はセッションのタイムゾーンに依存するため対象外
+			String typeName = column.getSqlTypeName();
+			return typeName == null || !typeName.toUpperCase().contains("ZONE");
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * 1行を加える。
+	 * @param values	列の値（変換前）
+	 * @throws DataSetException	値をデータ型で変換できない場合
+	 */
+	void add(Object[] values) throws DataSetException {
+		count++;
+		sum = sum.add(hash(rowText(values)));
+	}
+
+	/**
+	 * 1行を正規化した文字列を求める。
+	 * @param values	列の値（変換前）
+	 * @return	正規化した文字列
+	 * @throws DataSetException	値をデータ型で変換できない場合
+	 */
+	String rowText(Object[] values) throws DataSetException {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < columns.length; i++) {
+			String text = text(TableComparator.normalize(values[i], columns[i].getDataType()));
+			if (text == null) {
+				sb.append(NULL_VALUE);
+			} else {
+				sb.append(text.codePointCount(0, text.length())).append(':').append(text);
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * 変換後の値を正規化する。
+	 * @param value	{@link TableComparator#normalize(Object, DataType)}で変換した値
+	 * @return	正規化した文字列。NULLの場合は null
+	 */
+	static String text(Object value) {
+		if (value == null) {
+			return null;
+		} else if (value instanceof BigDecimal) {
+			String text = ((BigDecimal)value).toPlainString();
+			if (text.startsWith("0.")) {
+				return text.substring(1);
+			} else if (text.startsWith("-0.")) {
+				return "-" + text.substring(2);
+			}
+			return text;
+		} else if (value instanceof Timestamp) {
+			Timestamp timestamp = (Timestamp)value;
+			return new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(timestamp)
+					+ String.format(".%09d", Integer.valueOf(timestamp.getNanos()));
+		} else if (value instanceof String) {
+			return (String)value;
+		}
+		throw new IllegalArgumentException("No normalization rule for " + value.getClass().getName());
+	}
+
+	/**
+	 * 1行の正規化文字列のハッシュ（MD5の先頭64ビット）
+	 */
+	static BigInteger hash(String rowText) {
+		try {
+			byte[] digest = MessageDigest.getInstance("MD5").digest(rowText.getBytes("UTF-8"));
+			byte[] head = new byte[8];
+			System.arraycopy(digest, 0, head, 0, head.length);
+			return new BigInteger(1, head);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * DBでチェックサムを集計するSQLを作成する。
+	 * @param sql		検証のSQL
+	 * @param columns	比較する列
+	 * @return	件数とハッシュの合計を返すSQL
+	 */
+	static String checksumSql(String sql, Column[] columns) {
+		return "SELECT COUNT(*), SUM(" + String.format(ROW_HASH, rowExpression(columns)) + ") FROM (" + sql + ")";
+	}
+
+	/**
+	 * 1行を正規化した文字列を求めるSQLの式（{@link #rowText(Object[])}と同じ規則）
+	 * @param columns	比較する列
+	 * @return	SQLの式
+	 */
+	static String rowExpression(Column[] columns) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < columns.length; i++) {
+			String name = columns[i].getColumnName();
+			String text = textExpression(columns[i]);
+			sb.append(i > 0 ? " || " : "").append("NVL2(").append(name).append(", LENGTH(").append(text)
+					.append(") || ':' || ").append(text).append(", '").append(NULL_VALUE).append("')");
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * 列の値を正規化するSQLの式（{@link #text(Object)}と同じ規則）
+	 */
+	private static String textExpression(Column column) {
+		String name = column.getColumnName();
+		switch (column.getDataType().getSqlType()) {
+		case Types.CHAR:
+		case Types.VARCHAR:
+			return name;
+		case Types.TIMESTAMP:
+			return "TO_CHAR(CAST(" + name + " AS TIMESTAMP(9)), 'YYYY-MM-DD HH24:MI:SS.FF9')";
+		default:
+			return "TO_CHAR(" + name + ", 'TM9', 'NLS_NUMERIC_CHARACTERS=''.,''')";
+		}
+	}
+
+	/**
+	 * @return	行数
+	 */
+	long getCount() {
+		return count;
+	}
+
+	/**
+	 * @return	行のハッシュの合計
+	 */
+	BigInteger getSum() {
+		return sum;
+	}
+
+	/**
+	 * DBで集計した結果と比較する。
+	 * @param count	行数
+	 * @param sum	行のハッシュの合計（行が無い場合は null）
+	 * @return	一致した場合 true
+	 */
+	boolean matches(long count, BigDecimal sum) {
+		return this.count == count && this.sum.equals(sum == null ? BigInteger.ZERO : sum.toBigInteger());
+	}
+}
@@ -0,0 +1,396 @@
+package com.test.dbunit.common.test;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.dbunit.dataset.Column;
+import org.dbunit.dataset.DataSetException;
+import org.dbunit.dataset.ITable;
+import org.dbunit.dataset.ITableMetaData;
+import org.dbunit.dataset.datatype.DataType;
+import org.dbunit.dataset.datatype.TypeCastException;
+
+/**
+ * ハッシュ結合によるテーブル比較。<br/>
+ * 期待値の行をキー（プライマリキー、無い場合は比較する全列）で索引し、実際の行を1件ずつ索引と照合します。
+ * 行を順に比較して最初の相違で終了するDBUnitの{@link org.dbunit.Assertion}と異なり、1回の走査で全件を比較し、
+ * 不足・余分・値の異なる行を列単位で報告します（種類毎に最大件数まで）。<br/>
+ * 行の順序は比較しません。期待値と実際の行の順序が異なっても、同じ行の集合であれば一致とみなします。<br/>
+ * 値は実際の列のデータ型（不明な場合は期待値の列のデータ型）に変換した上で比較します。
+ * 使い方は{@link #begin(Column[])}、{@link #compareRow(Object[])}（実際の行毎）、{@link #finish()}の順に呼び出します。
+ */
+final class TableComparator {
+
+	private final ITable expected;
+	private final String tableName;
+	private final Set<String> ignoreColumns = new HashSet<String>();
+	private final Set<String> keyNames = new HashSet<String>();
+	private final int maxDiffs;
+
+	/** 比較する列（期待値の列から除外列を除いたもの） */
+	private Column[] columns;
+	/** 比較する列毎の、実際の行での位置 */
+	private int[] actualIndexes;
+	/** 比較する列毎のデータ型 */
+	private DataType[] dataTypes;
+	/** キーの列の、比較する列での位置 */
+	private int[] keyIndexes;
+
+	/** キー → 未照合の期待値の行（期待値の順） */
+	private final Map<RowKey, LinkedList<ExpectedRow>> index = new LinkedHashMap<RowKey, LinkedList<ExpectedRow>>();
+	private int expectedRows = 0;
+	private int actualRows = 0;
+
+	private int missingCount = 0;
+	private int extraCount = 0;
+	private int changedCount = 0;
+	private final List<String> missing = new ArrayList<String>();
+	private final List<String> extra = new ArrayList<String>();
+	private final List<String> changed = new ArrayList<String>();
+	/** 列の過不足 */
+	private final List<String> columnErrors = new ArrayList<String>();
+
+	/**
+	 * @param expected		期待値のテーブル
+	 * @param ignoreColumns	比較しない列
+	 * @param keyNames		行を識別する列。空の場合は比較する全列で識別する
+	 * @param maxDiffs		報告する行の最大数（不足・余分・値の相違それぞれ）
+	 */
+	TableComparator(ITable expected, String[] ignoreColumns, String[] keyNames, int maxDiffs) {
+		this.expected = expected;
+		this.tableName = expected.getTableMetaData().getTableName();
+		if (ignoreColumns != null) {
+			for (String name : ignoreColumns) {
+				this.ignoreColumns.add(name.toUpperCase());
+			}
+		}
+		if (keyNames != null) {
+			for (String name : keyNames) {
+				this.keyNames.add(name.toUpperCase());
+			}
+		}
+		this.maxDiffs = maxDiffs;
+	}
+
+	/**
+	 * 実際の列を受け取り、期待値の索引を作成する。
+	 * @param actualColumns	実際の列
+	 * @throws DataSetException
+	 */
+	void begin(Column[] actualColumns) throws DataSetException {
+		Map<String, Integer> positions = new HashMap<String, Integer>();
+		for (int i = 0; i < actualColumns.length; i++) {
+			positions.put(actualColumns[i].getColumnName().toUpperCase(), Integer.valueOf(i));
+		}
+		ITableMetaData metaData = expected.getTableMetaData();
+		List<Column> compared = new ArrayList<Column>();
+		List<Integer> indexes = new ArrayList<Integer>();
+		List<DataType> types = new ArrayList<DataType>();
+		Set<String> expectedNames = new HashSet<String>();
+		for (Column column : metaData.getColumns()) {
+			String name = column.getColumnName().toUpperCase();
+			expectedNames.add(name);
+			if (ignoreColumns.contains(name)) {
+				continue;
+			}
+			Integer position = positions.get(name);
+			if (position == null) {
+				columnErrors.add("column " + column.getColumnName() + " is not in the actual table");
+				continue;
+			}
+			DataType type = actualColumns[position.intValue()].getDataType();
+			compared.add(column);
+			indexes.add(position);
+			types.add(type == DataType.UNKNOWN ? column.getDataType() : type);
+		}
+		for (Column column : actualColumns) {
+			String name = column.getColumnName().toUpperCase();
+			if (!expectedNames.contains(name) && !ignoreColumns.contains(name)) {
+				columnErrors.add("column " + column.getColumnName() + " is not in the expected table");
+			}
+		}
+
+		columns = compared.toArray(new Column[compared.size()]);
+		actualIndexes = new int[columns.length];
+		dataTypes = types.toArray(new DataType[types.size()]);
+		List<Integer> keys = new ArrayList<Integer>();
+		for (int i = 0; i < columns.length; i++) {
+			actualIndexes[i] = indexes.get(i).intValue();
+			if (keyNames.contains(columns[i].getColumnName().toUpperCase())) {
+				keys.add(Integer.valueOf(i));
+			}
+		}
+		if (keyNames.isEmpty() || keys.size() != keyNames.size()) {
+			// キーが無い、または除外されている場合は全列で識別する
+			keyIndexes = new int[columns.length];
+			for (int i = 0; i < columns.length; i++) {
+				keyIndexes[i] = i;
+			}
+		} else {
+			keyIndexes = new int[keys.size()];
+			for (int i = 0; i < keyIndexes.length; i++) {
+				keyIndexes[i] = keys.get(i).intValue();
+			}
+		}
+
+		int rowCount = expected.getRowCount();
+		for (int row = 0; row < rowCount; row++) {
+			Object[] values = new Object[columns.length];
+			for (int i = 0; i < columns.length; i++) {
+				values[i] = normalize(expected.getValue(row, columns[i].getColumnName()), dataTypes[i]);
+			}
+			RowKey key = keyOf(values);
+			LinkedList<ExpectedRow> rows = index.get(key);
+			if (rows == null) {
+				rows = new LinkedList<ExpectedRow>();
+				index.put(key, rows);
+			}
+			rows.add(new ExpectedRow(row, values));
+		}
+		expectedRows = rowCount;
+	}
+
+	/**
+	 * 実際の行を期待値の索引と照合する。
+	 * @param actualValues	実際の行（{@link #begin(Column[])}で渡した列の順、配列は保持しない）
+	 * @throws TypeCastException
+	 */
+	void compareRow(Object[] actualValues) throws TypeCastException {
+		int actualRow = actualRows++;
+		Object[] values = new Object[columns.length];
+		for (int i = 0; i < columns.length; i++) {
+			values[i] = normalize(actualValues[actualIndexes[i]], dataTypes[i]);
+		}
+		LinkedList<ExpectedRow> rows = index.get(keyOf(values));
+		if (rows == null) {
+			if (extraCount++ < maxDiffs) {
+				extra.add("row " + actualRow + ": " + format(values));
+			}
+			return;
+		}
+		// 同じキーの行が複数ある場合は、値が全て一致する行を優先する
+		ExpectedRow match = rows.getFirst();
+		for (ExpectedRow row : rows) {
+			if (Arrays.equals(row.values, values)) {
+				match = row;
+				break;
+			}
+		}
+		rows.remove(match);
+		if (rows.isEmpty()) {
+			index.remove(keyOf(values));
+		}
+		if (!Arrays.equals(match.values, values)) {
+			if (changedCount++ < maxDiffs) {
+				StringBuilder sb = new StringBuilder("row ").append(match.row).append(' ')
+						.append(format(match.values, keyIndexes)).append(':');
+				for (int i = 0; i < columns.length; i++) {
+					if (!equals(match.values[i], values[i])) {
+						sb.append(' ').append(columns[i].getColumnName()).append(" expected <")
+								.append(toString(match.values[i])).append("> but was <").append(toString(values[i]))
+								.append('>');
+					}
+				}
+				changed.add(sb.toString());
+			}
+		}
+	}
+
+	/**
+	 * 照合を終了し、結果を返す。
+	 * @return	比較結果
+	 */
+	Result finish() {
+		for (List<ExpectedRow> rows : index.values()) {
+			for (ExpectedRow row : rows) {
+				if (missingCount++ < maxDiffs) {
+					missing.add("row " + row.row + ": " + format(row.values));
+				}
+			}
+		}
+		index.clear();
+		return new Result(this);
+	}
+
+	/**
+	 * 値を比較用の形式に変換する。<br/>
+	 * データ型で変換した上で、数値は末尾のゼロを除いた{@link BigDecimal}、バイト列は内容で比較できる形式にする。
+	 */
+	static Object normalize(Object value, DataType dataType) throws TypeCastException {
+		if (value == null || value == ITable.NO_VALUE) {
+			return null;
+		}
+		Object typed = dataType == DataType.UNKNOWN ? value.toString() : dataType.typeCast(value);
+		if (typed instanceof BigDecimal) {
+			BigDecimal decimal = (BigDecimal)typed;
+			return decimal.signum() == 0 ? BigDecimal.ZERO : decimal.stripTrailingZeros();
+		} else if (typed instanceof Number && !(typed instanceof Double || typed instanceof Float)) {
+			return new BigDecimal(typed.toString()).stripTrailingZeros();
+		} else if (typed instanceof byte[]) {
+			return ByteBuffer.wrap((byte[])typed);
+		}
+		return typed;
+	}
+
+	private RowKey keyOf(Object[] values) {
+		Object[] key = new Object[keyIndexes.length];
+		for (int i = 0; i < keyIndexes.length; i++) {
+			key[i] = values[keyIndexes[i]];
+		}
+		return new RowKey(key);
+	}
+
+	private static boolean equals(Object o1, Object o2) {
+		return o1 == null ? o2 == null : o1.equals(o2);
+	}
+
+	private String format(Object[] values) {
+		StringBuilder sb = new StringBuilder("{");
+		for (int i = 0; i < columns.length; i++) {
+			sb.append(i > 0 ? ", " : "").append(columns[i].getColumnName()).append('=').append(toString(values[i]));
+		}
+		return sb.append('}').toString();
+	}
+
+	private String format(Object[] values, int[] indexes) {
+		StringBuilder sb = new StringBuilder("{");
+		for (int i = 0; i < indexes.length; i++) {
+			sb.append(i > 0 ? ", " : "").append(columns[indexes[i]].getColumnName()).append('=')
+					.append(toString(values[indexes[i]]));
+		}
+		return sb.append('}').toString();
+	}
+
+	static String toString(Object value) {
+		if (value instanceof BigDecimal) {
+			return ((BigDecimal)value).toPlainString();
+		} else if (value instanceof ByteBuffer) {
+			return "byte[" + ((ByteBuffer)value).remaining() + "]";
+		}
+		return String.valueOf(value);
+	}
+
+	/**
+	 * 比較結果
+	 */
+	static final class Result {
+		private final String tableName;
+		private final int expectedRows;
+		private final int actualRows;
+		private final int missingCount;
+		private final int extraCount;
+		private final int changedCount;
+		private final String report;
+
+		private Result(TableComparator comparator) {
+			this.tableName = comparator.tableName;
+			this.expectedRows = comparator.expectedRows;
+			this.actualRows = comparator.actualRows;
+			this.missingCount = comparator.missingCount;
+			this.extraCount = comparator.extraCount;
+			this.changedCount = comparator.changedCount;
+
+			StringBuilder sb = new StringBuilder();
+			sb.append(tableName).append(": expected ").append(expectedRows).append(" rows, actual ").append(actualRows)
+					.append(" rows");
+			for (String error : comparator.columnErrors) {
+				sb.append("\n  ").append(error);
+			}
+			append(sb, "missing", missingCount, comparator.missing, comparator.maxDiffs);
+			append(sb, "extra", extraCount, comparator.extra, comparator.maxDiffs);
+			append(sb, "changed", changedCount, comparator.changed, comparator.maxDiffs);
+			this.report = comparator.columnErrors.isEmpty() && missingCount == 0 && extraCount == 0
+					&& changedCount == 0 ? null : sb.toString();
+		}
+
+		private static void append(StringBuilder sb, String label, int count, List<String> rows, int maxDiffs) {
+			if (count == 0) {
+				return;
+			}
+			sb.append("\n  ").append(label).append(' ').append(count).append(':');
+			for (String row : rows) {
+				sb.append("\n    ").append(row);
+			}
+			if (count > maxDiffs) {
+				sb.append("\n    ... and ").append(count - maxDiffs).append(" more");
+			}
+		}
+
+		/**
+		 * @return	一致した場合 true
+		 */
+		boolean isMatched() {
+			return report == null;
+		}
+
+		/**
+		 * @return	相違の報告。一致した場合は null
+		 */
+		String getReport() {
+			return report;
+		}
+
+		String getTableName() {
+			return tableName;
+		}
+
+		int getExpectedRows() {
+			return expectedRows;
+		}
+
+		int getActualRows() {
+			return actualRows;
+		}
+
+		int getMissingCount() {
+			return missingCount;
+		}
+
+		int getExtraCount() {
+			return extraCount;
+		}
+
+		int getChangedCount() {
+			return changedCount;
+		}
+	}
+
+	private static final class ExpectedRow {
+		private final int row;
+		private final Object[] values;
+
+		ExpectedRow(int row, Object[] values) {
+			this.row = row;
+			this.values = values;
+		}
+	}
+
+	private static final class RowKey {
+		private final Object[] values;
+		private final int hash;
+
+		RowKey(Object[] values) {
+			this.values = values;
+			this.hash = Arrays.hashCode(values);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof RowKey && hash == ((RowKey)obj).hash && Arrays.equals(values, ((RowKey)obj).values);
+		}
+	}
+}
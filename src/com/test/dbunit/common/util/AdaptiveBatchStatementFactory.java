@@ -0,0 +1,283 @@
+package com.test.dbunit.common.util;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.dbunit.database.DatabaseConfig;
+import org.dbunit.database.IDatabaseConnection;
+import org.dbunit.database.statement.IPreparedBatchStatement;
+import org.dbunit.database.statement.PreparedStatementFactory;
+import org.dbunit.dataset.ITable;
+import org.dbunit.dataset.datatype.DataType;
+import org.dbunit.dataset.datatype.TypeCastException;
+
+/**
+ * バッチサイズを自動調整するDBUnitの{@link org.dbunit.database.statement.IStatementFactory}です。<br/>
+ * {@link DatabaseConfig#FEATURE_BATCHED_STATEMENTS}と併せて設定すると、INSERT等の行は
+ * JDBCバッチでまとめて実行されます。<br/>
+ * バッチサイズは、1行あたりの実行時間が変わらない間は倍に増やし（最大値まで）、
+ * 実行時間が悪化した場合やドライバがエラーを返した場合は半分に減らします（最小値まで）。
+ * 1行あたりの実行時間は列の数や幅で変わるため、バッチサイズと基準値はテーブル毎に保持します。<br/>
+ * テーブル毎の投入件数と件数/秒はスレッド毎に集計し、{@link #report()}で取得します。
+ */
+public class AdaptiveBatchStatementFactory extends PreparedStatementFactory {
+
+	private static Log log = LogFactory.getLog(AdaptiveBatchStatementFactory.class);
+
+	/** 1行あたりの実行時間が変わらないとみなす比率 */
+	private static final double FLAT_RATIO = 1.25;
+	/** 1行あたりの実行時間が悪化したとみなす比率 */
+	private static final double SLOW_RATIO = 2.0;
+
+	private static final Pattern TABLE_NAME = Pattern.compile(
+			"^\\s*(?:INSERT\\s+INTO|UPDATE|DELETE\\s+FROM)\\s+([^\\s(]+)", Pattern.CASE_INSENSITIVE);
+
+	private final int initialSize;
+	private final int minSize;
+	private final int maxSize;
+	/** テーブル毎のバッチサイズの調整 */
+	private final ConcurrentMap<String, Sizing> sizings = new ConcurrentHashMap<String, Sizing>();
+
+	/** テーブル毎の集計（件数, 経過時間ナノ秒） */
+	private final ThreadLocal<Map<String, long[]>> statistics = new ThreadLocal<Map<String, long[]>>() {
+		@Override
+		protected Map<String, long[]> initialValue() {
+			return new LinkedHashMap<String, long[]>();
+		}
+	};
+
+	/**
+	 * @param initialSize	バッチサイズの初期値
+	 * @param minSize		バッチサイズの最小値
+	 * @param maxSize		バッチサイズの最大値
+	 */
+	public AdaptiveBatchStatementFactory(int initialSize, int minSize, int maxSize) {
+		this.minSize = Math.max(1, minSize);
+		this.maxSize = Math.max(this.minSize, maxSize);
+		this.initialSize = Math.min(this.maxSize, Math.max(this.minSize, initialSize));
+	}
+
+	@Override
+	public IPreparedBatchStatement createPreparedBatchStatement(String sql, IDatabaseConnection connection)
+			throws SQLException {
+		if (!supportBatchStatement(connection)) {
+			return super.createPreparedBatchStatement(sql, connection);
+		}
+		return createStatement(connection.getConnection().prepareStatement(sql), sql);
+	}
+
+	/**
+	 * @param statement	実行するステートメント
+	 * @param sql		SQL文（テーブル名の判定に利用）
+	 * @return	バッチサイズを自動調整するステートメント
+	 */
+	IPreparedBatchStatement createStatement(PreparedStatement statement, String sql) {
+		Matcher matcher = TABLE_NAME.matcher(sql);
+		String tableName = matcher.find() ? matcher.group(1).toUpperCase() : sql;
+		return new AdaptiveStatement(statement, tableName, sizing(tableName));
+	}
+
+	/**
+	 * @param tableName	テーブル名
+	 * @return	テーブルの現在のバッチサイズ
+	 */
+	public int getBatchSize(String tableName) {
+		return sizing(tableName.toUpperCase()).size();
+	}
+
+	private Sizing sizing(String tableName) {
+		Sizing sizing = sizings.get(tableName);
+		if (sizing == null) {
+			Sizing created = new Sizing(initialSize);
+			sizing = sizings.putIfAbsent(tableName, created);
+			if (sizing == null) {
+				sizing = created;
+			}
+		}
+		return sizing;
+	}
+
+	/**
+	 * @return	現在時刻（ナノ秒）
+	 */
+	long nanoTime() {
+		return System.nanoTime();
+	}
+
+	/**
+	 * 現在のスレッドで投入したテーブル毎の件数と件数/秒を返し、集計をリセットする。
+	 * @return	集計結果
+	 */
+	public String report() {
+		Map<String, long[]> tables = statistics.get();
+		StringBuilder report = new StringBuilder("Batch load");
+		for (Map.Entry<String, long[]> entry : tables.entrySet()) {
+			long rows = entry.getValue()[0];
+			long nanos = entry.getValue()[1];
+			report.append("\n  ").append(entry.getKey()).append(": rows=").append(rows).append(", time=")
+					.append(nanos / 1000000).append("ms, rows/s=")
+					.append(nanos > 0 ? rows * 1000000000L / nanos : rows).append(", batchSize=")
+					.append(sizing(entry.getKey()).size());
+		}
+		tables.clear();
+		return report.toString();
+	}
+
+	private void record(String tableName, long rows, long nanos) {
+		long[] total = statistics.get().get(tableName);
+		if (total == null) {
+			total = new long[2];
+			statistics.get().put(tableName, total);
+		}
+		total[0] += rows;
+		total[1] += nanos;
+	}
+
+	/**
+	 * 1テーブルのバッチサイズと、1行あたりの実行時間の基準値
+	 */
+	private class Sizing {
+		private int batchSize;
+		/** 1行あたりの実行時間（ナノ秒）の基準値。未計測の場合は 0 */
+		private double baseline = 0;
+
+		Sizing(int batchSize) {
+			this.batchSize = batchSize;
+		}
+
+		synchronized int size() {
+			return batchSize;
+		}
+
+		/**
+		 * バッチの実行時間からバッチサイズを調整する
+		 * @param rows	実行した行数
+		 * @param nanos	実行時間
+		 */
+		synchronized void executed(int rows, long nanos) {
+			if (rows < batchSize) {
+				// 端数のバッチは計測に使わない
+				return;
+			}
+			double perRow = (double)nanos / rows;
+			if (baseline == 0 || perRow <= baseline * FLAT_RATIO) {
+				baseline = baseline == 0 ? perRow : Math.min(baseline, perRow);
+				batchSize = Math.min(maxSize, batchSize * 2);
+			} else if (perRow > baseline * SLOW_RATIO) {
+				batchSize = Math.max(minSize, batchSize / 2);
+				baseline = perRow;
+			}
+		}
+
+		synchronized void failed(String tableName, SQLException e) {
+			batchSize = Math.max(minSize, batchSize / 2);
+			baseline = 0;
+			log.warn("Batch execution failed. Batch size of " + tableName + " is reduced to " + batchSize + ": "
+					+ e.getLocalizedMessage());
+		}
+	}
+
+	/**
+	 * 現在のバッチサイズに達する毎に実行するステートメント
+	 */
+	private class AdaptiveStatement implements IPreparedBatchStatement {
+		private final PreparedStatement statement;
+		private final String tableName;
+		private final Sizing sizing;
+		private final long created = nanoTime();
+		private int index = 0;
+		private int pending = 0;
+		private long rows = 0;
+		private int result = 0;
+
+		AdaptiveStatement(PreparedStatement statement, String tableName, Sizing sizing) {
+			this.statement = statement;
+			this.tableName = tableName;
+			this.sizing = sizing;
+		}
+
+		@Override
+		public void addValue(Object value, DataType dataType) throws TypeCastException, SQLException {
+			if (value == null || value == ITable.NO_VALUE) {
+				statement.setNull(++index, dataType.getSqlType());
+			} else {
+				dataType.setSqlValue(value, ++index, statement);
+			}
+		}
+
+		@Override
+		public void addBatch() throws SQLException {
+			statement.addBatch();
+			index = 0;
+			if (++pending >= sizing.size()) {
+				flush();
+			}
+		}
+
+		@Override
+		public int executeBatch() throws SQLException {
+			flush();
+			return result;
+		}
+
+		@Override
+		public void clearBatch() throws SQLException {
+			statement.clearBatch();
+			index = 0;
+			pending = 0;
+		}
+
+		@Override
+		public void close() throws SQLException {
+			try {
+				statement.close();
+			} finally {
+				record(tableName, rows, nanoTime() - created);
+			}
+		}
+
+		/**
+		 * 未実行のバッチを破棄する。破棄に失敗した場合は元の例外を優先するためログのみ出力する。
+		 */
+		private void discard() {
+			try {
+				clearBatch();
+			} catch (SQLException e) {
+				log.warn("Failed to clear batch: " + e.getLocalizedMessage());
+			}
+		}
+
+		private void flush() throws SQLException {
+			if (pending == 0) {
+				return;
+			}
+			long start = nanoTime();
+			try {
+				for (int count : statement.executeBatch()) {
+					// Oracle returns SUCCESS_NO_INFO for each row of prepared batch
+					result += count == Statement.SUCCESS_NO_INFO ? 1 : count;
+				}
+			} catch (SQLException e) {
+				try {
+					sizing.failed(tableName, e);
+				} finally {
+					// 失敗したバッチが残ると、後続のaddBatch/executeBatchで再実行されるため破棄する
+					discard();
+				}
+				throw e;
+			}
+			sizing.executed(pending, nanoTime() - start);
+			rows += pending;
+			pending = 0;
+		}
+	}
+}
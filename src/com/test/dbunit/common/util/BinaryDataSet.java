@@ -0,0 +1,379 @@
+package com.test.dbunit.common.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.dbunit.dataset.AbstractDataSet;
+import org.dbunit.dataset.AbstractTable;
+import org.dbunit.dataset.Column;
+import org.dbunit.dataset.DataSetException;
+import org.dbunit.dataset.DefaultTableIterator;
+import org.dbunit.dataset.DefaultTableMetaData;
+import org.dbunit.dataset.IDataSet;
+import org.dbunit.dataset.ITable;
+import org.dbunit.dataset.ITableIterator;
+import org.dbunit.dataset.ITableMetaData;
+import org.dbunit.dataset.datatype.DataType;
+
+/**
+ * <code>BinaryDataSet</code>
+ * <pre>
+ * {@link IDataSet} of a precompiled binary fixture file (*.fxb) created by {@link BinaryFixtureConverter}.
+ * The file is memory-mapped, and each {@link ITable} reads typed column data directly from the mapped buffer.
+ *
+ * Format (big endian, strings are length-prefixed UTF-8):
+ *   file   : "DBUFXB01" tableCount:int {table}...
+ *   table  : name:string rowCount:int columnCount:int {column}...
+ *   column : name:string tags:byte[rowCount] slots:long[rowCount] heapLength:int heap:byte[heapLength]
+ * The tag gives the type of each cell. The slot holds the value itself (numbers, dates),
+ * or the offset and length of the value in the heap of the column (strings, decimals, bytes).
+ *
+ * The mapping is shared by all tables of the dataset, so the dataset should be kept and reused
+ * ({@link DataSetCache} does it) rather than created per call. {@link #close()} releases the mapping
+ * without waiting for the garbage collector. The tables can not be read after that.
+ * </pre>
+ */
+public class BinaryDataSet extends AbstractDataSet implements Closeable {
+
+	private static Log log = LogFactory.getLog(BinaryDataSet.class);
+
+	/** File extension of the binary fixture */
+	public static final String EXTENSION = "fxb";
+
+	private static final byte[] MAGIC = "DBUFXB01".getBytes(Charset.forName("US-ASCII"));
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final byte NULL = 0;
+	private static final byte STRING = 1;
+	private static final byte LONG = 2;
+	private static final byte INTEGER = 3;
+	private static final byte DOUBLE = 4;
+	private static final byte DECIMAL = 5;
+	private static final byte BOOLEAN = 6;
+	private static final byte DATE = 7;
+	private static final byte SQL_DATE = 8;
+	private static final byte TIMESTAMP = 9;
+	private static final byte BYTES = 10;
+
+	private final List<ITable> tables = new ArrayList<ITable>();
+	private final File file;
+	private final long mappedBytes;
+	/** Mapped file, <code>null</code> after {@link #close()} */
+	private volatile MappedByteBuffer mapped;
+
+	/**
+	 * Map the binary fixture file and read the table directory.
+	 * @param file
+	 * @throws DataSetException
+	 */
+	public BinaryDataSet(File file) throws DataSetException {
+		this.file = file;
+		this.mapped = map(file);
+		this.mappedBytes = mapped.capacity();
+		ByteBuffer buffer = mapped.duplicate();
+		byte[] magic = new byte[MAGIC.length];
+		buffer.get(magic);
+		if (!Arrays.equals(MAGIC, magic)) {
+			throw new DataSetException("Not a binary fixture file: file=" + file);
+		}
+		int tableCount = buffer.getInt();
+		for (int t = 0; t < tableCount; t++) {
+			String tableName = readString(buffer);
+			int rowCount = buffer.getInt();
+			Column[] columns = new Column[buffer.getInt()];
+			int[] tagsAt = new int[columns.length];
+			int[] slotsAt = new int[columns.length];
+			int[] heapAt = new int[columns.length];
+			for (int c = 0; c < columns.length; c++) {
+				columns[c] = new Column(readString(buffer), DataType.UNKNOWN);
+				tagsAt[c] = buffer.position();
+				slotsAt[c] = tagsAt[c] + rowCount;
+				int heapLength = buffer.getInt(slotsAt[c] + rowCount * 8);
+				heapAt[c] = slotsAt[c] + rowCount * 8 + 4;
+				buffer.position(heapAt[c] + heapLength);
+			}
+			tables.add(new MappedTable(new DefaultTableMetaData(tableName, columns), rowCount, tagsAt, slotsAt,
+					heapAt));
+		}
+	}
+
+	/**
+	 * @return size of the mapped file in bytes
+	 */
+	public long getMappedBytes() {
+		return mappedBytes;
+	}
+
+	/**
+	 * Release the mapped file. The tables of this dataset can not be read after this call,
+	 * so it must not be called while another thread is reading them.
+	 */
+	@Override
+	public synchronized void close() {
+		MappedByteBuffer buffer = mapped;
+		if (buffer != null) {
+			mapped = null;
+			unmap(buffer);
+		}
+	}
+
+	private ByteBuffer buffer() throws DataSetException {
+		ByteBuffer buffer = mapped;
+		if (buffer == null) {
+			throw new DataSetException("Binary fixture is already closed: file=" + file);
+		}
+		return buffer;
+	}
+
+	/**
+	 * Unmap the buffer through the cleaner of the JDK. If the JDK does not allow it,
+	 * the mapping is left to the garbage collector.
+	 */
+	private static void unmap(MappedByteBuffer buffer) {
+		try {
+			try {
+				// Java 9 or later
+				Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+				Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+				Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+				theUnsafe.setAccessible(true);
+				invokeCleaner.invoke(theUnsafe.get(null), buffer);
+			} catch (NoSuchMethodException e) {
+				// Java 7, 8
+				Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+				cleanerMethod.setAccessible(true);
+				Object cleaner = cleanerMethod.invoke(buffer);
+				if (cleaner != null) {
+					cleaner.getClass().getMethod("clean").invoke(cleaner);
+				}
+			}
+		} catch (Exception e) {
+			log.debug("Mapped buffer is left to the garbage collector: " + e);
+		}
+	}
+
+	private static MappedByteBuffer map(File file) throws DataSetException {
+		RandomAccessFile input = null;
+		try {
+			input = new RandomAccessFile(file, "r");
+			FileChannel channel = input.getChannel();
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			return buffer;
+		} catch (IOException e) {
+			throw new DataSetException("Failed to map binary fixture file: file=" + file, e);
+		} finally {
+			IOUtils.closeQuietly(input);
+		}
+	}
+
+	private static String readString(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.getInt()];
+		buffer.get(bytes);
+		return new String(bytes, UTF_8);
+	}
+
+	@Override
+	protected ITableIterator createIterator(boolean reversed) throws DataSetException {
+		return new DefaultTableIterator(tables.toArray(new ITable[tables.size()]), reversed);
+	}
+
+	/**
+	 * Write {@link IDataSet} to the binary fixture file.
+	 * @param dataSet
+	 * @param file
+	 * @throws DataSetException
+	 * @throws IOException
+	 */
+	public static void write(IDataSet dataSet, File file) throws DataSetException, IOException {
+		OutputStream output = new FileOutputStream(file);
+		try {
+			DataOutputStream out = new DataOutputStream(output);
+			List<ITable> sources = new ArrayList<ITable>();
+			ITableIterator iterator = dataSet.iterator();
+			while (iterator.next()) {
+				sources.add(iterator.getTable());
+			}
+			out.write(MAGIC);
+			out.writeInt(sources.size());
+			for (ITable table : sources) {
+				writeTable(table, out);
+			}
+			out.flush();
+		} finally {
+			IOUtils.closeQuietly(output);
+		}
+	}
+
+	private static void writeTable(ITable table, DataOutputStream out) throws DataSetException, IOException {
+		ITableMetaData metaData = table.getTableMetaData();
+		Column[] columns = metaData.getColumns();
+		int rowCount = table.getRowCount();
+		writeString(metaData.getTableName(), out);
+		out.writeInt(rowCount);
+		out.writeInt(columns.length);
+		for (Column column : columns) {
+			byte[] tags = new byte[rowCount];
+			long[] slots = new long[rowCount];
+			ByteArrayOutputStream heap = new ByteArrayOutputStream();
+			for (int row = 0; row < rowCount; row++) {
+				Object value = table.getValue(row, column.getColumnName());
+				tags[row] = encode(value, row, slots, heap);
+			}
+			writeString(column.getColumnName(), out);
+			out.write(tags);
+			for (long slot : slots) {
+				out.writeLong(slot);
+			}
+			out.writeInt(heap.size());
+			heap.writeTo(out);
+		}
+	}
+
+	private static byte encode(Object value, int row, long[] slots, ByteArrayOutputStream heap) throws IOException {
+		if (value == null || value == ITable.NO_VALUE) {
+			return NULL;
+		} else if (value instanceof Long) {
+			slots[row] = ((Long)value).longValue();
+			return LONG;
+		} else if (value instanceof Integer) {
+			slots[row] = ((Integer)value).longValue();
+			return INTEGER;
+		} else if (value instanceof Double) {
+			slots[row] = Double.doubleToLongBits(((Double)value).doubleValue());
+			return DOUBLE;
+		} else if (value instanceof Boolean) {
+			slots[row] = ((Boolean)value).booleanValue() ? 1 : 0;
+			return BOOLEAN;
+		} else if (value instanceof Timestamp) {
+			// millis and nanos in the heap (millis alone loses sub-millisecond precision)
+			Timestamp timestamp = (Timestamp)value;
+			ByteBuffer bytes = ByteBuffer.allocate(12);
+			bytes.putLong(timestamp.getTime()).putInt(timestamp.getNanos());
+			slots[row] = append(bytes.array(), heap);
+			return TIMESTAMP;
+		} else if (value instanceof java.sql.Date) {
+			slots[row] = ((Date)value).getTime();
+			return SQL_DATE;
+		} else if (value instanceof Date) {
+			slots[row] = ((Date)value).getTime();
+			return DATE;
+		} else if (value instanceof BigDecimal) {
+			slots[row] = append(((BigDecimal)value).toString().getBytes(UTF_8), heap);
+			return DECIMAL;
+		} else if (value instanceof byte[]) {
+			slots[row] = append((byte[])value, heap);
+			return BYTES;
+		}
+		slots[row] = append(value.toString().getBytes(UTF_8), heap);
+		return STRING;
+	}
+
+	private static long append(byte[] bytes, ByteArrayOutputStream heap) throws IOException {
+		long slot = ((long)heap.size() << 32) | bytes.length;
+		heap.write(bytes);
+		return slot;
+	}
+
+	private static void writeString(String value, DataOutputStream out) throws IOException {
+		byte[] bytes = value.getBytes(UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * {@link ITable} reading the cells from the mapped buffer.
+	 */
+	private class MappedTable extends AbstractTable {
+		private final ITableMetaData metaData;
+		private final int rowCount;
+		private final int[] tagsAt;
+		private final int[] slotsAt;
+		private final int[] heapAt;
+
+		MappedTable(ITableMetaData metaData, int rowCount, int[] tagsAt, int[] slotsAt, int[] heapAt) {
+			this.metaData = metaData;
+			this.rowCount = rowCount;
+			this.tagsAt = tagsAt;
+			this.slotsAt = slotsAt;
+			this.heapAt = heapAt;
+		}
+
+		@Override
+		public ITableMetaData getTableMetaData() {
+			return metaData;
+		}
+
+		@Override
+		public int getRowCount() {
+			return rowCount;
+		}
+
+		@Override
+		public Object getValue(int row, String columnName) throws DataSetException {
+			assertValidRowIndex(row);
+			int column = getColumnIndex(columnName);
+			ByteBuffer buffer = buffer();
+			byte tag = buffer.get(tagsAt[column] + row);
+			long slot = buffer.getLong(slotsAt[column] + row * 8);
+			switch (tag) {
+			case NULL:
+				return null;
+			case LONG:
+				return Long.valueOf(slot);
+			case INTEGER:
+				return Integer.valueOf((int)slot);
+			case DOUBLE:
+				return Double.valueOf(Double.longBitsToDouble(slot));
+			case BOOLEAN:
+				return Boolean.valueOf(slot != 0);
+			case DATE:
+				return new Date(slot);
+			case SQL_DATE:
+				return new java.sql.Date(slot);
+			case TIMESTAMP:
+				ByteBuffer bytes = ByteBuffer.wrap(heap(buffer, column, slot));
+				Timestamp timestamp = new Timestamp(bytes.getLong());
+				timestamp.setNanos(bytes.getInt());
+				return timestamp;
+			case DECIMAL:
+				return new BigDecimal(new String(heap(buffer, column, slot), UTF_8));
+			case BYTES:
+				return heap(buffer, column, slot);
+			case STRING:
+				return new String(heap(buffer, column, slot), UTF_8);
+			default:
+				throw new DataSetException("Unknown cell type " + tag + ": table=" + metaData.getTableName()
+						+ ", row=" + row + ", column=" + columnName);
+			}
+		}
+
+		private byte[] heap(ByteBuffer buffer, int column, long slot) {
+			byte[] bytes = new byte[(int)slot];
+			ByteBuffer view = buffer.duplicate();
+			view.position(heapAt[column] + (int)(slot >>> 32));
+			view.get(bytes);
+			return bytes;
+		}
+	}
+}
@@ -0,0 +1,125 @@
+package com.test.dbunit.common.util;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.dbunit.dataset.DataSetException;
+import org.dbunit.dataset.csv.CsvDataSet;
+
+/**
+ * <code>BinaryFixtureConverter</code>
+ * <pre>
+ * Converts fixture files (XLS, XML and CSV directories) to the binary format read by {@link BinaryDataSet}.
+ * The compiled file is written next to the source as "source name + .fxb" (e.g. input.xls.fxb), and
+ * {@link DbUnitUtils#newDataSet(File)} reads it instead of the source as long as it is newer than the source.
+ * Sources whose compiled file is up to date are skipped, so the tool can be run over the whole resource tree.
+ *
+ *   java -javaagent:lib/jmockit.jar com.test.dbunit.common.util.BinaryFixtureConverter &lt;file or directory&gt;...
+ *
+ * JMockit is required to read XLS dates in the same way as tests (see {@link LibraryHack}).
+ * </pre>
+ */
+public enum BinaryFixtureConverter {
+	;
+
+	private static Log log = LogFactory.getLog(BinaryFixtureConverter.class);
+
+	private static boolean mocked = false;
+
+	/**
+	 * @param args fixture files or directories to search fixture files
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		int converted = 0;
+		for (String arg : args) {
+			converted += convertAll(new File(arg));
+		}
+		log.info("BinaryFixtureConverter: converted=" + converted);
+	}
+
+	/**
+	 * Convert all fixture files under the specified file.
+	 * @param file fixture file, or directory to search fixture files
+	 * @return number of converted files
+	 * @throws IOException
+	 * @throws DataSetException
+	 */
+	public static int convertAll(File file) throws IOException, DataSetException {
+		if (isFixture(file)) {
+			return convert(file) ? 1 : 0;
+		}
+		int converted = 0;
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				converted += convertAll(child);
+			}
+		}
+		return converted;
+	}
+
+	/**
+	 * Convert the fixture file if the compiled file is not up to date.
+	 * @param source fixture file
+	 * @return <code>true</code> if converted
+	 * @throws IOException
+	 * @throws DataSetException
+	 */
+	public static boolean convert(File source) throws IOException, DataSetException {
+		if (isUpToDate(source)) {
+			return false;
+		}
+		if (source.isFile() && FilenameUtils.isExtension(source.getName().toLowerCase(), "xls") && !mocked) {
+			LibraryHack.mockup();
+			mocked = true;
+		}
+		File target = compiledFileOf(source);
+		File temporary = new File(target.getParentFile(), target.getName() + ".tmp");
+		BinaryDataSet.write(DbUnitUtils.parseDataSetFile(source), temporary);
+		if (target.exists() && !target.delete() || !temporary.renameTo(target)) {
+			throw new IOException("Failed to write compiled fixture: file=" + target);
+		}
+		log.info("Converted " + source + " -> " + target.getName());
+		return true;
+	}
+
+	/**
+	 * @param source fixture file
+	 * @return compiled file of the fixture (may not exist)
+	 */
+	public static File compiledFileOf(File source) {
+		return new File(source.getParentFile(), source.getName() + "." + BinaryDataSet.EXTENSION);
+	}
+
+	/**
+	 * @param source fixture file
+	 * @return <code>true</code> if the compiled file exists and is newer than the source
+	 */
+	public static boolean isUpToDate(File source) {
+		File compiled = compiledFileOf(source);
+		return compiled.isFile() && compiled.lastModified() >= lastModifiedOf(source);
+	}
+
+	private static long lastModifiedOf(File source) {
+		long lastModified = source.lastModified();
+		File[] children = source.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				lastModified = Math.max(lastModified, child.lastModified());
+			}
+		}
+		return lastModified;
+	}
+
+	private static boolean isFixture(File file) {
+		if (file.isDirectory()) {
+			return new File(file, CsvDataSet.TABLE_ORDERING_FILE).isFile();
+		}
+		String name = file.getName().toLowerCase();
+		return FilenameUtils.isExtension(name, "xls") || FilenameUtils.isExtension(name, "xml");
+	}
+}
@@ -0,0 +1,210 @@
+package com.test.dbunit.common.util;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.dbunit.DatabaseUnitException;
+import org.dbunit.database.DatabaseConfig;
+import org.dbunit.database.DatabaseConnection;
+import org.dbunit.database.DatabaseDataSet;
+import org.dbunit.database.DatabaseTableIterator;
+import org.dbunit.database.IResultSetTableFactory;
+import org.dbunit.dataset.AbstractDataSet;
+import org.dbunit.dataset.AbstractTableMetaData;
+import org.dbunit.dataset.Column;
+import org.dbunit.dataset.Columns;
+import org.dbunit.dataset.DataSetException;
+import org.dbunit.dataset.IDataSet;
+import org.dbunit.dataset.ITable;
+import org.dbunit.dataset.ITableIterator;
+import org.dbunit.dataset.ITableMetaData;
+import org.dbunit.dataset.NoSuchTableException;
+import org.dbunit.dataset.datatype.DataTypeException;
+import org.dbunit.dataset.datatype.IDataTypeFactory;
+import org.dbunit.dataset.filter.IColumnFilter;
+import org.dbunit.util.QualifiedTableName;
+
+/**
+ * <code>CachedMetaDataConnection</code>
+ * <pre>
+ * {@link DatabaseConnection} whose data set reads table names, columns and primary keys
+ * from {@link TableMetaDataCache} instead of querying {@link java.sql.DatabaseMetaData} per connection.
+ * Primary keys are still filtered by {@link DatabaseConfig#PROPERTY_PRIMARY_KEY_FILTER} of the connection,
+ * and data types are resolved by {@link DatabaseConfig#PROPERTY_DATATYPE_FACTORY} of the connection.
+ * The data set is created again after {@link TableMetaDataCache#clear()}, and a table which is not found
+ * is looked up again after validating the cached schema.
+ * </pre>
+ */
+public class CachedMetaDataConnection extends DatabaseConnection {
+
+	private IDataSet dataSet = null;
+	/** {@link TableMetaDataCache#generation()} when the data set was created */
+	private int generation = -1;
+
+	/**
+	 * @param connection
+	 * @param schema
+	 * @throws DatabaseUnitException
+	 */
+	public CachedMetaDataConnection(Connection connection, String schema) throws DatabaseUnitException {
+		super(connection, schema);
+	}
+
+	@Override
+	public IDataSet createDataSet() throws SQLException {
+		int current = TableMetaDataCache.generation();
+		if (dataSet == null || generation != current) {
+			dataSet = new CachedDatabaseDataSet();
+			generation = current;
+		}
+		return dataSet;
+	}
+
+	/**
+	 * {@link DatabaseDataSet} backed by {@link TableMetaDataCache}.
+	 */
+	private class CachedDatabaseDataSet extends AbstractDataSet {
+		/** table name (upper case) -> table name in the database */
+		private Map<String, String> tableNames = null;
+		/** table name (upper case) -> metadata */
+		private final Map<String, CachedTableMetaData> metaData = new HashMap<String, CachedTableMetaData>();
+
+		CachedDatabaseDataSet() {
+			super(false);
+		}
+
+		private Map<String, String> tableNames() throws DataSetException {
+			if (tableNames == null) {
+				try {
+					String[] names = TableMetaDataCache.getTableNames(getConnection(), getSchema(),
+							new TableMetaDataCache.TableNameLoader() {
+								@Override
+								public String[] load() throws SQLException {
+									try {
+										return new DatabaseDataSet(CachedMetaDataConnection.this, false)
+												.getTableNames();
+									} catch (DataSetException e) {
+										throw new SQLException(e);
+									}
+								}
+							});
+					Map<String, String> map = new LinkedHashMap<String, String>();
+					for (String name : names) {
+						map.put(name.toUpperCase(), name);
+					}
+					tableNames = map;
+				} catch (SQLException e) {
+					throw new DataSetException(e);
+				}
+			}
+			return tableNames;
+		}
+
+		@Override
+		protected ITableIterator createIterator(boolean reversed) throws DataSetException {
+			String[] names = getTableNames();
+			if (reversed) {
+				String[] reverse = new String[names.length];
+				for (int i = 0; i < names.length; i++) {
+					reverse[i] = names[names.length - 1 - i];
+				}
+				names = reverse;
+			}
+			return new DatabaseTableIterator(names, this);
+		}
+
+		@Override
+		public String[] getTableNames() throws DataSetException {
+			Map<String, String> names = tableNames();
+			return names.values().toArray(new String[names.size()]);
+		}
+
+		@Override
+		public ITableMetaData getTableMetaData(String tableName) throws DataSetException {
+			String key = tableName.toUpperCase();
+			CachedTableMetaData cached = metaData.get(key);
+			if (cached != null) {
+				return cached;
+			}
+			String databaseName = tableNames().get(key);
+			if (databaseName == null) {
+				// the table may have been created after the table names were cached
+				TableMetaDataCache.revalidate(getSchema());
+				tableNames = null;
+				databaseName = tableNames().get(key);
+				if (databaseName == null) {
+					throw new NoSuchTableException(tableName);
+				}
+			}
+			DatabaseConfig config = getConfig();
+			IDataTypeFactory dataTypeFactory = (IDataTypeFactory)config.getProperty(
+					DatabaseConfig.PROPERTY_DATATYPE_FACTORY);
+			try {
+				// DbUnit names tables as "SCHEMA.TABLE" if qualified table names are enabled
+				QualifiedTableName qualified = new QualifiedTableName(databaseName, getSchema());
+				TableMetaDataCache.TableMetaData data = TableMetaDataCache.getTableMetaData(getConnection(),
+						qualified.getSchema(), qualified.getTable(), dataTypeFactory,
+						((Boolean)config.getProperty(DatabaseConfig.FEATURE_DATATYPE_WARNING)).booleanValue());
+				cached = new CachedTableMetaData(tableName, data.columns, data.primaryKeys);
+			} catch (SQLException e) {
+				throw new DataSetException(e);
+			} catch (DataTypeException e) {
+				throw new DataSetException(e);
+			}
+			metaData.put(key, cached);
+			return cached;
+		}
+
+		@Override
+		public ITable getTable(String tableName) throws DataSetException {
+			IResultSetTableFactory factory = (IResultSetTableFactory)getConfig().getProperty(
+					DatabaseConfig.PROPERTY_RESULTSET_TABLE_FACTORY);
+			try {
+				return factory.createTable(getTableMetaData(tableName), CachedMetaDataConnection.this);
+			} catch (SQLException e) {
+				throw new DataSetException(e);
+			}
+		}
+	}
+
+	/**
+	 * {@link ITableMetaData} of cached columns. Primary keys follow the current primary key filter.
+	 */
+	private class CachedTableMetaData extends AbstractTableMetaData {
+		private final String tableName;
+		private final Column[] columns;
+		private final String[] primaryKeyNames;
+		private IColumnFilter lastFilter = null;
+		private Column[] primaryKeys = null;
+
+		CachedTableMetaData(String tableName, Column[] columns, String[] primaryKeyNames) {
+			this.tableName = tableName;
+			this.columns = columns;
+			this.primaryKeyNames = primaryKeyNames;
+		}
+
+		@Override
+		public String getTableName() {
+			return tableName;
+		}
+
+		@Override
+		public Column[] getColumns() {
+			return columns;
+		}
+
+		@Override
+		public Column[] getPrimaryKeys() {
+			IColumnFilter filter = (IColumnFilter)getConfig().getProperty(DatabaseConfig.PROPERTY_PRIMARY_KEY_FILTER);
+			if (primaryKeys == null || filter != lastFilter) {
+				lastFilter = filter;
+				primaryKeys = filter != null ? Columns.getColumns(tableName, columns, filter) : Columns.getColumns(
+						primaryKeyNames, columns);
+			}
+			return primaryKeys;
+		}
+	}
+}
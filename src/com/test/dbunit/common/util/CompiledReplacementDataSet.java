@@ -0,0 +1,262 @@
+package com.test.dbunit.common.util;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.dbunit.dataset.DataSetException;
+import org.dbunit.dataset.IDataSet;
+import org.dbunit.dataset.ITable;
+import org.dbunit.dataset.ITableIterator;
+import org.dbunit.dataset.ITableMetaData;
+import org.dbunit.dataset.ReplacementDataSet;
+import org.dbunit.dataset.ReplacementTable;
+
+/**
+ * <code>CompiledReplacementDataSet</code>
+ * <pre>
+ * {@link ReplacementDataSet} which looks up the replacement of each cell with a single hash lookup.
+ * Cells are checked against the first character and the length of the registered tokens before the lookup,
+ * so cells which can not be a token cost almost nothing.
+ * Values registered by {@link #addReplacementValue(String, Value)} are computed only when a cell matches:
+ * once per dataset, or once per cell if the value is random and <code>randomPerCell</code> is enabled.
+ * After the replacements are registered, tables of this dataset can be read from several threads.
+ * </pre>
+ */
+public class CompiledReplacementDataSet extends ReplacementDataSet {
+
+	/**
+	 * Value of a replacement token, computed on demand.
+	 */
+	public interface Value {
+		/**
+		 * @return replacement value
+		 */
+		Object value();
+
+		/**
+		 * @return <code>true</code> if the value should be generated per cell in <code>randomPerCell</code> mode
+		 */
+		boolean isRandom();
+	}
+
+	/** Placeholder of a generated <code>null</code> in the per cell values */
+	private static final Object NULL = new Object();
+
+	private final IDataSet dataSet;
+	private final boolean randomPerCell;
+
+	private final Map<Object, Token> tokens = new HashMap<Object, Token>();
+	/** First characters of String tokens (ASCII only) */
+	private final boolean[] firstChars = new boolean[128];
+	private boolean nonAsciiFirstChar = false;
+	private boolean nonStringKey = false;
+	private int minLength = Integer.MAX_VALUE;
+	private int maxLength = -1;
+
+	private final Map<String, String> substrings = new HashMap<String, String>();
+	private String startDelimiter = null;
+	private String endDelimiter = null;
+	private boolean strictReplacement = false;
+
+	/**
+	 * @param dataSet
+	 * @param randomPerCell generate random values per cell instead of once per dataset
+	 */
+	public CompiledReplacementDataSet(IDataSet dataSet, boolean randomPerCell) {
+		super(dataSet);
+		this.dataSet = dataSet;
+		this.randomPerCell = randomPerCell;
+	}
+
+	@Override
+	public void addReplacementObject(Object originalObject, Object replacementObject) {
+		register(originalObject, new Token(replacementObject, null));
+	}
+
+	/**
+	 * Add replacement token whose value is computed when a cell matches.
+	 * @param key
+	 * @param value
+	 */
+	public void addReplacementValue(String key, Value value) {
+		register(key, new Token(null, value));
+	}
+
+	@Override
+	public void addReplacementSubstring(String originalSubstring, String replacementSubstring) {
+		if (originalSubstring == null || replacementSubstring == null) {
+			throw new NullPointerException();
+		}
+		substrings.put(originalSubstring, replacementSubstring);
+	}
+
+	@Override
+	public void setSubstringDelimiters(String startDelimiter, String endDelimiter) {
+		super.setSubstringDelimiters(startDelimiter, endDelimiter);
+		this.startDelimiter = startDelimiter;
+		this.endDelimiter = endDelimiter;
+	}
+
+	@Override
+	public void setStrictReplacement(boolean strictReplacement) {
+		super.setStrictReplacement(strictReplacement);
+		this.strictReplacement = strictReplacement;
+	}
+
+	private void register(Object key, Token token) {
+		tokens.put(key, token);
+		if (!(key instanceof String)) {
+			nonStringKey = true;
+			return;
+		}
+		String text = (String)key;
+		minLength = Math.min(minLength, text.length());
+		maxLength = Math.max(maxLength, text.length());
+		if (text.length() > 0) {
+			char first = text.charAt(0);
+			if (first < firstChars.length) {
+				firstChars[first] = true;
+			} else {
+				nonAsciiFirstChar = true;
+			}
+		}
+	}
+
+	/**
+	 * @param value cell value
+	 * @return token of the value, or <code>null</code> if the value is not a token
+	 */
+	private Token lookup(Object value) {
+		if (value instanceof String) {
+			String text = (String)value;
+			int length = text.length();
+			if (length < minLength || length > maxLength) {
+				return null;
+			}
+			if (length > 0) {
+				char first = text.charAt(0);
+				if (first < firstChars.length ? !firstChars[first] : !nonAsciiFirstChar) {
+					return null;
+				}
+			}
+			return tokens.get(text);
+		}
+		return nonStringKey ? tokens.get(value) : null;
+	}
+
+	private ITable createTable(ITable table) {
+		ITable substituted = null;
+		if (!substrings.isEmpty()) {
+			ReplacementTable replacementTable = new ReplacementTable(table, Collections.emptyMap(), substrings,
+					startDelimiter, endDelimiter);
+			replacementTable.setStrictReplacement(strictReplacement);
+			substituted = replacementTable;
+		}
+		return new CompiledTable(table, substituted);
+	}
+
+	@Override
+	protected ITableIterator createIterator(boolean reversed) throws DataSetException {
+		final ITableIterator iterator = reversed ? dataSet.reverseIterator() : dataSet.iterator();
+		return new ITableIterator() {
+			@Override
+			public boolean next() throws DataSetException {
+				return iterator.next();
+			}
+
+			@Override
+			public ITableMetaData getTableMetaData() throws DataSetException {
+				return iterator.getTableMetaData();
+			}
+
+			@Override
+			public ITable getTable() throws DataSetException {
+				return createTable(iterator.getTable());
+			}
+		};
+	}
+
+	@Override
+	public ITable getTable(String tableName) throws DataSetException {
+		return createTable(dataSet.getTable(tableName));
+	}
+
+	/**
+	 * Registered replacement. Computed values are kept per dataset and shared by all threads.
+	 */
+	private class Token {
+		private final Value generator;
+		private Object value;
+		private boolean computed;
+
+		Token(Object value, Value generator) {
+			this.generator = generator;
+			this.value = value;
+			this.computed = generator == null;
+		}
+
+		boolean isPerCell() {
+			return randomPerCell && generator != null && generator.isRandom();
+		}
+
+		synchronized Object value() {
+			if (!computed) {
+				value = generator.value();
+				computed = true;
+			}
+			return value;
+		}
+	}
+
+	private class CompiledTable implements ITable {
+		private final ITable table;
+		private final ITable substituted;
+		/** Values generated per cell, keyed by "row:column" (same cell must return same value) */
+		private final ConcurrentMap<String, Object> cells = new ConcurrentHashMap<String, Object>();
+
+		CompiledTable(ITable table, ITable substituted) {
+			this.table = table;
+			this.substituted = substituted;
+		}
+
+		@Override
+		public ITableMetaData getTableMetaData() {
+			return table.getTableMetaData();
+		}
+
+		@Override
+		public int getRowCount() {
+			return table.getRowCount();
+		}
+
+		@Override
+		public Object getValue(int row, String column) throws DataSetException {
+			Object value = table.getValue(row, column);
+			Token token = lookup(value);
+			if (token == null) {
+				return substituted != null ? substituted.getValue(row, column) : value;
+			}
+			if (!token.isPerCell()) {
+				return token.value();
+			}
+			String cell = row + ":" + column;
+			Object generated = cells.get(cell);
+			if (generated == null) {
+				generated = token.generator.value();
+				Object previous = cells.putIfAbsent(cell, generated == null ? NULL : generated);
+				if (previous != null) {
+					generated = previous;
+				}
+			}
+			return generated == NULL ? null : generated;
+		}
+
+		@Override
+		public String toString() {
+			return table.toString();
+		}
+	}
+}
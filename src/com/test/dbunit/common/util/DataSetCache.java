@@ -0,0 +1,172 @@
+package com.test.dbunit.common.util;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.dbunit.dataset.CachedDataSet;
+import org.dbunit.dataset.Column;
+import org.dbunit.dataset.DataSetException;
+import org.dbunit.dataset.IDataSet;
+import org.dbunit.dataset.ITable;
+import org.dbunit.dataset.ITableIterator;
+
+import com.test.dbunit.common.db.DbConnection;
+
+/**
+ * <code>DataSetCache</code>
+ * <pre>
+ * Process-wide cache of parsed data files (before replacement).
+ * Entries are keyed by canonical path, last modified time and size, and evicted in LRU order
+ * when the estimated memory exceeds <code>dataset.cache.maxBytes</code> in db.properties (0 disables the cache).
+ * Cached datasets are fully materialized, so they can be shared and wrapped by
+ * a new {@link org.dbunit.dataset.ReplacementDataSet} per call.
+ * Binary fixtures ({@link BinaryDataSet}) are cached as they are, and the size of the mapped file is counted,
+ * so a file is mapped once instead of per call. An evicted mapping may still be read by a running test,
+ * so it is released by the garbage collector rather than closed.
+ * </pre>
+ */
+enum DataSetCache {
+	;
+
+	private static Log log = LogFactory.getLog(DataSetCache.class);
+
+	private static final long MAX_BYTES = Long.parseLong(DbConnection.getProperty("dataset.cache.maxBytes",
+			String.valueOf(64L * 1024 * 1024)));
+
+	/** Rough estimation of memory per object reference and value header. */
+	private static final int OBJECT_OVERHEAD = 16;
+
+	private static final LinkedHashMap<String, Entry> CACHE = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+	private static long totalBytes = 0;
+	private static long hitCount = 0;
+	private static long missCount = 0;
+
+	/**
+	 * Get parsed {@link IDataSet} of specified file. The file is parsed only when it is not cached or modified.
+	 * @param file
+	 * @return {@link IDataSet} (must not be modified)
+	 * @throws FileNotFoundException
+	 */
+	static IDataSet get(File file) throws FileNotFoundException {
+		if (MAX_BYTES <= 0) {
+			return DbUnitUtils.newDataSetFromFile(file);
+		}
+		String key = keyOf(file);
+		synchronized (DataSetCache.class) {
+			Entry entry = CACHE.get(key);
+			if (entry != null) {
+				hitCount++;
+				return entry.dataSet;
+			}
+			missCount++;
+		}
+
+		IDataSet dataSet = DbUnitUtils.newDataSetFromFile(file);
+		long bytes;
+		if (dataSet instanceof BinaryDataSet) {
+			bytes = ((BinaryDataSet)dataSet).getMappedBytes();
+		} else {
+			try {
+				dataSet = new CachedDataSet(dataSet);
+				bytes = estimate(dataSet);
+			} catch (DataSetException e) {
+				log.error(e.getLocalizedMessage(), e);
+				throw new IllegalStateException(e);
+			}
+		}
+		if (bytes > MAX_BYTES) {
+			log.debug("Data file is larger than cache budget: file=" + file + ", bytes=" + bytes);
+			return dataSet;
+		}
+
+		synchronized (DataSetCache.class) {
+			Entry old = CACHE.put(key, new Entry(dataSet, bytes));
+			if (old != null) {
+				totalBytes -= old.bytes;
+			}
+			totalBytes += bytes;
+			for (Iterator<Entry> it = CACHE.values().iterator(); totalBytes > MAX_BYTES && it.hasNext();) {
+				totalBytes -= it.next().bytes;
+				it.remove();
+			}
+		}
+		return dataSet;
+	}
+
+	/**
+	 * Clear all cached datasets.
+	 */
+	static synchronized void clear() {
+		CACHE.clear();
+		totalBytes = 0;
+	}
+
+	static synchronized String statistics() {
+		return "DataSetCache[entries=" + CACHE.size() + ", bytes=" + totalBytes + "/" + MAX_BYTES + ", hit="
+				+ hitCount + ", miss=" + missCount + "]";
+	}
+
+	/**
+	 * Key of the cache. Directory (CSV) is identified by all files in it.
+	 */
+	private static String keyOf(File file) throws FileNotFoundException {
+		if (!file.exists()) {
+			throw new FileNotFoundException("Data file was not found: file=" + file);
+		}
+		StringBuilder key = new StringBuilder();
+		try {
+			key.append(file.getCanonicalPath());
+		} catch (IOException e) {
+			key.append(file.getAbsolutePath());
+		}
+		if (file.isDirectory()) {
+			File[] children = file.listFiles();
+			if (children != null) {
+				for (File child : children) {
+					key.append('|').append(child.getName()).append(':').append(child.lastModified()).append(':')
+							.append(child.length());
+				}
+			}
+		} else {
+			key.append('|').append(file.lastModified()).append(':').append(file.length());
+		}
+		return key.toString();
+	}
+
+	private static long estimate(IDataSet dataSet) throws DataSetException {
+		long bytes = 0;
+		ITableIterator iterator = dataSet.iterator();
+		while (iterator.next()) {
+			ITable table = iterator.getTable();
+			Column[] columns = table.getTableMetaData().getColumns();
+			for (int row = 0; row < table.getRowCount(); row++) {
+				for (Column column : columns) {
+					Object value = table.getValue(row, column.getColumnName());
+					bytes += OBJECT_OVERHEAD;
+					if (value instanceof String) {
+						bytes += ((String)value).length() * 2 + OBJECT_OVERHEAD;
+					} else if (value != null) {
+						bytes += OBJECT_OVERHEAD;
+					}
+				}
+			}
+		}
+		return bytes;
+	}
+
+	private static class Entry {
+		private final IDataSet dataSet;
+		private final long bytes;
+
+		Entry(IDataSet dataSet, long bytes) {
+			this.dataSet = dataSet;
+			this.bytes = bytes;
+		}
+	}
+}
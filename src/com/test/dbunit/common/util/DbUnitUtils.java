@@ -7,6 +7,7 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.math.BigDecimal;
 import java.sql.Connection;
 import java.sql.SQLException;
@@ -37,6 +38,7 @@ import org.apache.poi.hssf.usermodel.HSSFRow;
 import org.apache.poi.hssf.usermodel.HSSFSheet;
 import org.apache.poi.hssf.usermodel.HSSFWorkbook;
 import org.dbunit.DatabaseUnitException;
+import org.dbunit.database.DatabaseConfig;
 import org.dbunit.database.DatabaseConnection;
 import org.dbunit.database.IDatabaseConnection;
 import org.dbunit.dataset.Column;
@@ -44,13 +46,17 @@ import org.dbunit.dataset.DataSetException;
 import org.dbunit.dataset.IDataSet;
 import org.dbunit.dataset.ITable;
 import org.dbunit.dataset.ReplacementDataSet;
-import org.dbunit.dataset.csv.CsvDataSet;
 import org.dbunit.dataset.datatype.DataType;
 import org.dbunit.dataset.excel.XlsDataSet;
+import org.dbunit.dataset.stream.IDataSetConsumer;
+import org.dbunit.dataset.stream.IDataSetProducer;
+import org.dbunit.dataset.stream.StreamingDataSet;
 import org.dbunit.dataset.xml.FlatXmlDataSet;
 import org.dbunit.dataset.xml.FlatXmlProducer;
 import org.xml.sax.InputSource;
 
+import com.test.dbunit.common.db.DbConnection;
+
 /**
  * <code>DbUnitUtils</code>
  * <pre>
@@ -63,6 +69,10 @@ public enum DbUnitUtils {
 
 	private static Log log = LogFactory.getLog(DbUnitUtils.class);
 
+	/** Generate $RANDOM_* values per cell instead of once per dataset (dataset.replacement.randomPerCell). */
+	private static final boolean RANDOM_PER_CELL = Boolean.parseBoolean(DbConnection.getProperty(
+			"dataset.replacement.randomPerCell", "false"));
+
 	/**
 	 * Create new {@link IDataSet} from specified file and replacement {@link Map}.<br>
 	 * If the target file includes key of replacement {@link Map}, those data will be replaced by the corresponding value.
@@ -72,24 +82,21 @@ public enum DbUnitUtils {
 	 */
 	public static IDataSet newDataSet(File file, Map<Object, Object> replacements) {
 		ReplacementDataSet result = (ReplacementDataSet)newDataSet(file);
-		for (Object key : replacements.keySet()) {
-			result.addReplacementObject(key, replacements.get(key));
-		}
+		addReplacements(result, replacements);
 		return result;
 	}
 
 	/**
-	 * Create new {@link IDataSet} from specified file.
+	 * Create new {@link IDataSet} from specified file.<br>
+	 * Parsed data files are shared through {@link DataSetCache}, and only the replacement layer is created per call.
 	 * @param file
 	 * @return {@link IDataSet}
 	 */
 	public static IDataSet newDataSet(File file) {
-		ReplacementDataSet result;
+		CompiledReplacementDataSet result;
 		try {
-			result = new ReplacementDataSet(DbUnitUtils.newDataSetFromFile(file));
-			for (Replacement replacement : Replacement.allOf()) {
-				result.addReplacementObject(replacement.key(), replacement.value());
-			}
+			result = new CompiledReplacementDataSet(DataSetCache.get(file), RANDOM_PER_CELL);
+			addDefaultReplacements(result);
 			return result;
 		} catch (FileNotFoundException e) {
 			log.error(e.getLocalizedMessage(), e);
@@ -97,6 +104,91 @@ public enum DbUnitUtils {
 		}
 	}
 
+	/**
+	 * Create new streaming {@link IDataSet} from specified Flat XML file and replacement {@link Map}.<br>
+	 * Rows are read from the file while the {@link org.dbunit.operation.DatabaseOperation} consumes them, so memory
+	 * usage does not depend on the file size. Replacements are applied to each row on the fly.<br>
+	 * The returned {@link IDataSet} is forward-only and can be iterated only once.
+	 * @param file
+	 * @param replacements
+	 * @return {@link IDataSet}
+	 */
+	public static IDataSet newStreamingDataSet(File file, Map<Object, Object> replacements) {
+		if (!isExtensionXml(file)) {
+			throw new IllegalStateException("Streaming is supported only for Flat XML file: file=" + file);
+		}
+		if (!file.isFile()) {
+			FileNotFoundException e = new FileNotFoundException("Data file was not found: file=" + file);
+			log.error(e.getLocalizedMessage(), e);
+			throw new IllegalStateException(e);
+		}
+		IDataSetProducer producer = new FlatXmlFileProducer(file);
+		CompiledReplacementDataSet result = new CompiledReplacementDataSet(new StreamingDataSet(producer),
+				RANDOM_PER_CELL);
+		addDefaultReplacements(result);
+		addReplacements(result, replacements);
+		return result;
+	}
+
+	/**
+	 * {@link FlatXmlProducer} which opens the file when producing and always closes it afterwards,
+	 * even if the consumer fails in the middle of the file.
+	 */
+	private static final class FlatXmlFileProducer implements IDataSetProducer {
+
+		private final File file;
+		private IDataSetConsumer consumer = null;
+
+		FlatXmlFileProducer(File file) {
+			this.file = file;
+		}
+
+		@Override
+		public void setConsumer(IDataSetConsumer consumer) throws DataSetException {
+			this.consumer = consumer;
+		}
+
+		@Override
+		public void produce() throws DataSetException {
+			InputStream input = null;
+			try {
+				input = new FileInputStream(file);
+				FlatXmlProducer producer = new FlatXmlProducer(new InputSource(input));
+				producer.setConsumer(consumer);
+				producer.produce();
+			} catch (FileNotFoundException e) {
+				throw new DataSetException(e);
+			} finally {
+				IOUtils.closeQuietly(input);
+			}
+		}
+	}
+
+	/**
+	 * Check whether the specified file can be loaded by {@link #newStreamingDataSet(File, Map)}.
+	 * @param file
+	 * @return <code>true</code> if the file is Flat XML
+	 */
+	public static boolean isStreamable(File file) {
+		return file.isFile() && isExtensionXml(file);
+	}
+
+	private static boolean isExtensionXml(File file) {
+		return FilenameUtils.getExtension(file.getName()).equalsIgnoreCase("XML");
+	}
+
+	private static void addDefaultReplacements(CompiledReplacementDataSet dataSet) {
+		for (Replacement replacement : Replacement.allOf()) {
+			dataSet.addReplacementValue(replacement.key(), replacement);
+		}
+	}
+
+	private static void addReplacements(ReplacementDataSet dataSet, Map<Object, Object> replacements) {
+		for (Object key : replacements.keySet()) {
+			dataSet.addReplacementObject(key, replacements.get(key));
+		}
+	}
+
 	/**
 	 * Export {@link IDataSet} to Microsoft EXCEL file.
 	 * @param dataSet
@@ -175,11 +267,15 @@ public enum DbUnitUtils {
 	}
 
 	/**
+	 * Table metadata is shared through {@link TableMetaDataCache} unless <code>dataset.metadata.cache=false</code>.
 	 * @param conn
 	 * @return {@link DatabaseConnection}
 	 */
 	public static IDatabaseConnection getDbUnitConnection(Connection conn, String schema) {
 		try {
+			if (TableMetaDataCache.ENABLED) {
+				return new CachedMetaDataConnection(conn, schema);
+			}
 			return new DatabaseConnection(conn, schema);
 		} catch (DatabaseUnitException e) {
 			log.fatal(e.getLocalizedMessage(), e);
@@ -187,6 +283,24 @@ public enum DbUnitUtils {
 		}
 	}
 
+	/**
+	 * Copy DbUnit configuration (data type factory, primary key filter, statement factory, etc.)
+	 * to another connection.<br>
+	 * Properties which are not set in the source are left as they are.
+	 * @param from
+	 * @param to
+	 */
+	public static void copyConfig(IDatabaseConnection from, IDatabaseConnection to) {
+		DatabaseConfig source = from.getConfig();
+		DatabaseConfig target = to.getConfig();
+		for (DatabaseConfig.ConfigProperty property : DatabaseConfig.ALL_PROPERTIES) {
+			Object value = source.getProperty(property.getProperty());
+			if (value != null) {
+				target.setProperty(property.getProperty(), value);
+			}
+		}
+	}
+
 	/**
 	 * Close {@link DatabaseConnection} quietly.<br>
 	 * Close internal {@link Connection} as well.
@@ -290,7 +404,23 @@ public enum DbUnitUtils {
 		}
 	}
 
-	private static IDataSet newDataSetFromFile(File file) throws FileNotFoundException {
+	static IDataSet newDataSetFromFile(File file) throws FileNotFoundException {
+		if (!file.exists()) {
+			throw new FileNotFoundException("Data file was not found: file=" + file);
+		}
+		File compiled = BinaryFixtureConverter.isUpToDate(file) ? BinaryFixtureConverter.compiledFileOf(file) : file;
+		if (FilenameUtils.getExtension(compiled.getName()).equalsIgnoreCase(BinaryDataSet.EXTENSION)) {
+			try {
+				return new BinaryDataSet(compiled);
+			} catch (DataSetException e) {
+				log.error(e.getLocalizedMessage(), e);
+				throw new IllegalStateException(e);
+			}
+		}
+		return parseDataSetFile(file);
+	}
+
+	static IDataSet parseDataSetFile(File file) throws FileNotFoundException {
 		if (!file.exists()) {
 			throw new FileNotFoundException("Data file was not found: file=" + file);
 		}
@@ -298,13 +428,19 @@ public enum DbUnitUtils {
 			if (file.isFile()) {
 				if (FilenameUtils.getExtension(file.getName()).equalsIgnoreCase("XLS"))
 					return new XlsDataSet(file);
-				if (FilenameUtils.getExtension(file.getName()).equalsIgnoreCase("XML"))
-					return new FlatXmlDataSet(new FlatXmlProducer(new InputSource(new FileInputStream(file))));
+				if (isExtensionXml(file)) {
+					InputStream input = new FileInputStream(file);
+					try {
+						return new FlatXmlDataSet(new FlatXmlProducer(new InputSource(input)));
+					} finally {
+						IOUtils.closeQuietly(input);
+					}
+				}
 			} else if (file.isDirectory()) {
-				return new CsvDataSet(file);
+				return new ParallelCsvDataSet(file);
 			}
 			throw new IllegalStateException(
-					"Correct data file was not found. File extension must be XLS, XML or Directory which includes only CSV: file="
+					"Correct data file was not found. File extension must be XLS, XML, FXB or Directory which includes only CSV: file="
 							+ file);
 		} catch (DataSetException e) {
 			log.error(e.getLocalizedMessage(), e);
@@ -315,142 +451,142 @@ public enum DbUnitUtils {
 		}
 	}
 
-	private enum Replacement {
+	private enum Replacement implements CompiledReplacementDataSet.Value {
 		NULL("$NULL") {
 			@Override
-			Object value() {
+			public Object value() {
 				return null;
 			}
 		},
 		BLANK("$BLANK") {
 			@Override
-			Object value() {
+			public Object value() {
 				return "";
 			}
 		},
 		RANDOM_BYTE("$RANDOM_BYTE") {
 			@Override
-			Object value() {
+			public Object value() {
 				return Byte.valueOf(Integer.valueOf(RandomUtils.nextInt()).byteValue());
 			}
 		},
 		RANDOM_SHORT("$RANDOM_SHORT") {
 			@Override
-			Object value() {
+			public Object value() {
 				return Short.valueOf(Integer.valueOf(RandomUtils.nextInt()).shortValue());
 			}
 		},
 		RANDOM_INT("$RANDOM_INT") {
 			@Override
-			Object value() {
+			public Object value() {
 				return Integer.valueOf(RandomUtils.nextInt() * getRandomSign());
 			}
 		},
 		RANDOM_LONG("$RANDOM_LONG") {
 			@Override
-			Object value() {
+			public Object value() {
 				return Long.valueOf(RandomUtils.nextLong() * getRandomSign());
 			}
 		},
 		RAMDOM_DOUBLE("$RAMDOM_DOUBLE") {
 			@Override
-			Object value() {
+			public Object value() {
 				return Double.valueOf(RandomUtils.nextDouble() * getRandomSign());
 			}
 		},
 		RAMDOM_BOOL("$RAMDOM_BOOL") {
 			@Override
-			Object value() {
+			public Object value() {
 				return Boolean.valueOf(RandomUtils.nextBoolean());
 			}
 		},
 		RAMDOM_ASCII_10("$RAMDOM_ASCII_10") {
 			@Override
-			Object value() {
+			public Object value() {
 				return RandomStringUtils.randomAscii(10);
 			}
 		},
 		RAMDOM_ASCII_50("$RAMDOM_ASCII_50") {
 			@Override
-			Object value() {
+			public Object value() {
 				return RandomStringUtils.randomAscii(50);
 			}
 		},
 		RAMDOM_ASCII_100("$RAMDOM_ASCII_100") {
 			@Override
-			Object value() {
+			public Object value() {
 				return RandomStringUtils.randomAscii(100);
 			}
 		},
 		RAMDOM_ALPHA_10("$RAMDOM_ALPHA_10") {
 			@Override
-			Object value() {
+			public Object value() {
 				return RandomStringUtils.randomAscii(10);
 			}
 		},
 		RAMDOM_ALPHA_50("$RAMDOM_ALPHA_50") {
 			@Override
-			Object value() {
+			public Object value() {
 				return RandomStringUtils.randomAscii(50);
 			}
 		},
 		RAMDOM_ALPHA_100("$RAMDOM_ALPHA_100") {
 			@Override
-			Object value() {
+			public Object value() {
 				return RandomStringUtils.randomAscii(100);
 			}
 		},
 		RAMDOM_NUMERIC_10("$RAMDOM_NUMERIC_10") {
 			@Override
-			Object value() {
+			public Object value() {
 				return RandomStringUtils.randomAscii(10);
 			}
 		},
 		RAMDOM_NUMERIC_50("$RAMDOM_NUMERIC_50") {
 			@Override
-			Object value() {
+			public Object value() {
 				return RandomStringUtils.randomAscii(50);
 			}
 		},
 		RAMDOM_NUMERIC_100("$RAMDOM_NUMERIC_100") {
 			@Override
-			Object value() {
+			public Object value() {
 				return RandomStringUtils.randomAscii(100);
 			}
 		},
 		CURRENT_DATE("$CURRENT_DATE") {
 			@Override
-			Object value() {
+			public Object value() {
 				return new Date(System.currentTimeMillis());
 			}
 		},
 		MIN_DATE("$MIN_DATE") {
 			@Override
-			Object value() {
+			public Object value() {
 				return MINIMUM_DATE;
 			}
 		},
 		MAX_DATE("$MAX_DATE") {
 			@Override
-			Object value() {
+			public Object value() {
 				return MAXIMUM_DATE;
 			}
 		},
 		CURRENT_TIMESTAMP("$CURRENT_TIMESTAMP") {
 			@Override
-			Object value() {
+			public Object value() {
 				return new Timestamp(System.currentTimeMillis());
 			}
 		},
 		MIN_TIMESTAMP("$MIN_TIMESTAMP") {
 			@Override
-			Object value() {
+			public Object value() {
 				return MINIMUM_TIMESTAMP;
 			}
 		},
 		MAX_TIMESTAMP("$MAX_TIMESTAMP") {
 			@Override
-			Object value() {
+			public Object value() {
 				return MAXIMUM_TIMESTAMP;
 			}
 		};
@@ -486,7 +622,14 @@ public enum DbUnitUtils {
 			return key;
 		}
 
-		abstract Object value();
+		@Override
+		public abstract Object value();
+
+		@Override
+		public boolean isRandom() {
+			// keys of some random values are spelled "$RAMDOM_*"
+			return name().startsWith("RANDOM_") || name().startsWith("RAMDOM_");
+		}
 
 		private static int getRandomSign() {
 			if (RandomUtils.nextBoolean()) {
@@ -0,0 +1,108 @@
+package com.test.dbunit.common.util;
+
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.dbutils.DbUtils;
+
+/**
+ * <code>ForeignKeys</code>
+ * <pre>
+ * Dependencies between tables read from {@link DatabaseMetaData#getImportedKeys}.
+ * Referenced tables of each table are cached per schema for the JVM.
+ * </pre>
+ */
+public enum ForeignKeys {
+	;
+
+	/** SCHEMA.TABLE (upper case) -> referenced tables (upper case) */
+	private static final Map<String, Set<String>> importedTables = new ConcurrentHashMap<String, Set<String>>();
+
+	/**
+	 * Get tables referenced by foreign keys of the table.
+	 * @param metaData
+	 * @param schema
+	 * @param tableName
+	 * @return referenced tables (upper case, may contain the table itself)
+	 * @throws SQLException
+	 */
+	public static Set<String> importedTables(DatabaseMetaData metaData, String schema, String tableName)
+			throws SQLException {
+		String owner = schema == null ? null : schema.toUpperCase();
+		String key = owner + "." + tableName.toUpperCase();
+		Set<String> imported = importedTables.get(key);
+		if (imported != null) {
+			return imported;
+		}
+		imported = new LinkedHashSet<String>();
+		ResultSet rs = metaData.getImportedKeys(null, owner, tableName.toUpperCase());
+		try {
+			while (rs.next()) {
+				imported.add(rs.getString("PKTABLE_NAME").toUpperCase());
+			}
+		} finally {
+			DbUtils.closeQuietly(rs);
+		}
+		imported = Collections.unmodifiableSet(imported);
+		importedTables.put(key, imported);
+		return imported;
+	}
+
+	/**
+	 * Get referenced tables of each table, limited to the specified tables.
+	 * @param metaData
+	 * @param schema
+	 * @param tableNames tables (upper case)
+	 * @return table -> referenced tables in <code>tableNames</code> (excluding itself)
+	 * @throws SQLException
+	 */
+	public static Map<String, Set<String>> dependencies(DatabaseMetaData metaData, String schema,
+			Collection<String> tableNames) throws SQLException {
+		Map<String, Set<String>> parents = new LinkedHashMap<String, Set<String>>();
+		for (String tableName : tableNames) {
+			Set<String> imported = new LinkedHashSet<String>(importedTables(metaData, schema, tableName));
+			imported.retainAll(tableNames);
+			imported.remove(tableName);
+			parents.put(tableName, imported);
+		}
+		return parents;
+	}
+
+	/**
+	 * Sort tables so that referenced tables come first.
+	 * @param parents table -> referenced tables (see {@link #dependencies})
+	 * @return sorted tables, or <code>null</code> if the references are cyclic
+	 */
+	public static List<String> sort(Map<String, Set<String>> parents) {
+		Map<String, Set<String>> remaining = new LinkedHashMap<String, Set<String>>();
+		for (Map.Entry<String, Set<String>> entry : parents.entrySet()) {
+			remaining.put(entry.getKey(), new LinkedHashSet<String>(entry.getValue()));
+		}
+		List<String> sorted = new ArrayList<String>();
+		boolean removed = true;
+		while (removed && !remaining.isEmpty()) {
+			removed = false;
+			for (String tableName : new ArrayList<String>(remaining.keySet())) {
+				if (remaining.get(tableName).isEmpty()) {
+					remaining.remove(tableName);
+					for (Set<String> rest : remaining.values()) {
+						rest.remove(tableName);
+					}
+					sorted.add(tableName);
+					removed = true;
+				}
+			}
+		}
+		return remaining.isEmpty() ? sorted : null;
+	}
+}
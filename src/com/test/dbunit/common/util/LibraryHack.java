@@ -5,115 +5,108 @@ import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 
-import mockit.Delegate;
-import mockit.Mocked;
-import mockit.NonStrictExpectations;
+import mockit.Mock;
+import mockit.MockClass;
+import mockit.Mockit;
 
 import org.dbunit.dataset.ITable;
+import org.dbunit.dataset.datatype.DataType;
 import org.dbunit.dataset.datatype.TimestampDataType;
 import org.dbunit.dataset.datatype.TypeCastException;
 import org.dbunit.dataset.excel.XlsTableMock;
 
 /**
  * テストで利用しているライブラリをモック化するユーティリティクラスです。<br/>
- * ライブラリのバージョンによって動きが変わる可能性があります。
+ * ライブラリのバージョンによって動きが変わる可能性があります。<br/>
+ * モックはJVMの終了まで有効なモック（{@link Mockit#setUpStartupMocks(Object...)}）として1度だけ適用するため、
+ * テスト毎の後処理で解除されず、並列に実行されるテストクラスからも利用できます。
  */
 public class LibraryHack {
+
+	/** モック化済みの場合 true */
+	private static boolean mocked = false;
+
 	/**
-	 * 利用しているライブラリをモック化します。
+	 * 利用しているライブラリをモック化します。2回目以降の呼び出しは何もしません。
 	 */
-	public static void mockup() {
-		// モック対象ごとにメソッドを作る際、
-		// staticメソッドだとjmockitがエラーを吐くのでインスタンスを作る
-		new LibraryHack().exec();
+	public static synchronized void mockup() {
+		if (mocked) {
+			return;
+		}
+		XlsTableMock.mockup();
+		Mockit.setUpStartupMocks(new TimestampDataTypeMock());
+		mocked = true;
 
 		System.out.println("LibraryHack: mockup end.");
 	}
 
-	/** メインメソッド */
-	public void exec() {
-		XlsTableMock.mockup();
-		mockDbunitTimestampDataType();
-	}
-
 	/**
 	 * DBUnit{@link TimestampDataType}のモック化。
 	 * typeCast時のパターンにスラッシュ区切りがない為。
 	 */
-	private void mockDbunitTimestampDataType() {
-		try {
-			new NonStrictExpectations() {
-				@Mocked(methods = { "typeCast" })
-				TimestampDataType timestampDataType;
-				{
-					timestampDataType.typeCast(any);
-					result = new Delegate<TimestampDataType>() {
-						@SuppressWarnings("unused")
-						public Object typeCast(Object value) throws TypeCastException {
-							//logger.debug("typeCast(value={}) - start", value);
-
-							if (value == null || value == ITable.NO_VALUE) {
-								return null;
-							}
-
-							if (value instanceof java.sql.Timestamp) {
-								return value;
-							}
-
-							if (value instanceof java.util.Date) {
-								java.util.Date date = (java.util.Date)value;
-								return new java.sql.Timestamp(date.getTime());
-							}
-
-							if (value instanceof Long) {
-								Long date = (Long)value;
-								return new java.sql.Timestamp(date.longValue());
-							}
-
-							if (value instanceof String) {
-								String stringValue = (String)value;
-
-								String[] patterns = {
-										// hack start: add patterns yyyy/mm/dd
-										"yyyy/MM/dd HH:mm:ss.SSS Z",
-										"yyyy/MM/dd HH:mm:ss.SSS",
-										"yyyy/MM/dd HH:mm:ss Z",
-										"yyyy/MM/dd HH:mm:ss",
-										"yyyy/MM/dd HH:mm Z",
-										"yyyy/MM/dd HH:mm",
-										"yyyy/MM/dd Z",
-										"yyyy/MM/dd",
-										// hack end
-										"yyyy-MM-dd HH:mm:ss.SSS Z",
-										"yyyy-MM-dd HH:mm:ss.SSS",
-										"yyyy-MM-dd HH:mm:ss Z",
-										"yyyy-MM-dd HH:mm:ss",
-										"yyyy-MM-dd HH:mm Z",
-										"yyyy-MM-dd HH:mm",
-										"yyyy-MM-dd Z",
-										"yyyy-MM-dd", };
-
-								for (int i = 0; i < patterns.length; ++i) {
-									String p = patterns[i];
-									try {
-										DateFormat df = new SimpleDateFormat(p);
-										Date date = df.parse(stringValue);
-										return new java.sql.Timestamp(date.getTime());
-									} catch (ParseException e) {
-										if (i < patterns.length)
-											continue;
-										throw new TypeCastException(value, timestampDataType, e);
-									}
-								}
-							}
-
-							throw new TypeCastException(value, timestampDataType);
-						}
-					};
+	@MockClass(realClass = TimestampDataType.class)
+	public static class TimestampDataTypeMock {
+
+		@Mock
+		public Object typeCast(Object value) throws TypeCastException {
+			//logger.debug("typeCast(value={}) - start", value);
+
+			if (value == null || value == ITable.NO_VALUE) {
+				return null;
+			}
+
+			if (value instanceof java.sql.Timestamp) {
+				return value;
+			}
+
+			if (value instanceof java.util.Date) {
+				java.util.Date date = (java.util.Date)value;
+				return new java.sql.Timestamp(date.getTime());
+			}
+
+			if (value instanceof Long) {
+				Long date = (Long)value;
+				return new java.sql.Timestamp(date.longValue());
+			}
+
+			if (value instanceof String) {
+				String stringValue = (String)value;
+
+				String[] patterns = {
+						// hack start: add patterns yyyy/mm/dd
+						"yyyy/MM/dd HH:mm:ss.SSS Z",
+						"yyyy/MM/dd HH:mm:ss.SSS",
+						"yyyy/MM/dd HH:mm:ss Z",
+						"yyyy/MM/dd HH:mm:ss",
+						"yyyy/MM/dd HH:mm Z",
+						"yyyy/MM/dd HH:mm",
+						"yyyy/MM/dd Z",
+						"yyyy/MM/dd",
+						// hack end
+						"yyyy-MM-dd HH:mm:ss.SSS Z",
+						"yyyy-MM-dd HH:mm:ss.SSS",
+						"yyyy-MM-dd HH:mm:ss Z",
+						"yyyy-MM-dd HH:mm:ss",
+						"yyyy-MM-dd HH:mm Z",
+						"yyyy-MM-dd HH:mm",
+						"yyyy-MM-dd Z",
+						"yyyy-MM-dd", };
+
+				for (int i = 0; i < patterns.length; ++i) {
+					String p = patterns[i];
+					try {
+						DateFormat df = new SimpleDateFormat(p);
+						Date date = df.parse(stringValue);
+						return new java.sql.Timestamp(date.getTime());
+					} catch (ParseException e) {
+						if (i < patterns.length)
+							continue;
+						throw new TypeCastException(value, DataType.TIMESTAMP, e);
+					}
 				}
-			};
-		} catch (TypeCastException e) {
-			throw new RuntimeException(e);
+			}
+
+			throw new TypeCastException(value, DataType.TIMESTAMP);
 		}
 	}
 }
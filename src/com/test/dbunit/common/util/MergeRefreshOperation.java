@@ -0,0 +1,255 @@
+package com.test.dbunit.common.util;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.dbutils.DbUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.dbunit.DatabaseUnitException;
+import org.dbunit.database.DatabaseConfig;
+import org.dbunit.database.IDatabaseConnection;
+import org.dbunit.dataset.Column;
+import org.dbunit.dataset.IDataSet;
+import org.dbunit.dataset.ITable;
+import org.dbunit.dataset.ITableIterator;
+import org.dbunit.dataset.ITableMetaData;
+import org.dbunit.dataset.NoPrimaryKeyException;
+import org.dbunit.dataset.RowOutOfBoundsException;
+import org.dbunit.operation.AbstractOperation;
+
+import com.test.dbunit.common.db.DbConnection;
+
+/**
+ * ステージングテーブルとMERGE文によるREFRESH操作です。<br/>
+ * DBUnitの{@link org.dbunit.operation.DatabaseOperation#REFRESH}は1行毎にUPDATEとINSERTを実行しますが、
+ * この操作はテーブル毎に、データをステージングテーブルへバッチで投入し、1回のMERGE文で反映します。<br/>
+ * 結合条件はプライマリキー（{@link StaticColumnFilter}を設定した場合はその列）です。<br/>
+ * ステージングテーブルはテーブル毎のグローバル一時表（<code>ST$テーブル名$ハッシュ</code>、ON COMMIT DELETE ROWS）で、
+ * 存在しない場合は別のコネクションで作成します（DDLによりテストのトランザクションがコミットされないようにするため）。<br/>
+ * テストによって反映先テーブルが作り直される場合があるため、実行毎に列定義を比較し、異なる場合は作り直します。
+ */
+public class MergeRefreshOperation extends AbstractOperation {
+
+	private static Log log = LogFactory.getLog(MergeRefreshOperation.class);
+
+	/** ステージングテーブル名の接頭辞 */
+	private static final String STAGING_PREFIX = "ST$";
+	/** Oracleの識別子の最大長 */
+	private static final int MAX_IDENTIFIER_LENGTH = 30;
+
+	/** 列定義（列の順） */
+	private static final String COLUMNS_SQL = "SELECT COLUMN_NAME, DATA_TYPE, DATA_LENGTH, DATA_PRECISION, DATA_SCALE"
+			+ " FROM ALL_TAB_COLUMNS WHERE OWNER = NVL(?, USER) AND TABLE_NAME = ? ORDER BY COLUMN_ID";
+
+	@Override
+	public void execute(IDatabaseConnection connection, IDataSet dataSet) throws DatabaseUnitException,
+			SQLException {
+		IDataSet databaseDataSet = connection.createDataSet();
+		ITableIterator iterator = dataSet.iterator();
+		while (iterator.next()) {
+			ITable table = iterator.getTable();
+			ITableMetaData dbMetaData = databaseDataSet.getTableMetaData(table.getTableMetaData().getTableName());
+			Column[] primaryKeys = dbMetaData.getPrimaryKeys();
+			if (primaryKeys.length == 0) {
+				throw new NoPrimaryKeyException(dbMetaData.getTableName());
+			}
+			// データセットの列に対応するDBの列（データ型をDBに合わせる）
+			Column[] dataSetColumns = table.getTableMetaData().getColumns();
+			Column[] columns = new Column[dataSetColumns.length];
+			for (int i = 0; i < columns.length; i++) {
+				columns[i] = dbMetaData.getColumns()[dbMetaData.getColumnIndex(dataSetColumns[i].getColumnName())];
+			}
+			merge(connection, table, dbMetaData.getTableName(), columns, primaryKeys);
+		}
+	}
+
+	private void merge(IDatabaseConnection connection, ITable table, String tableName, Column[] columns,
+			Column[] primaryKeys) throws DatabaseUnitException, SQLException {
+		String schema = connection.getSchema();
+		String staging = stagingTableName(tableName);
+		String qualifiedTable = getQualifiedName(schema, tableName, connection);
+		String qualifiedStaging = getQualifiedName(schema, staging, connection);
+		Connection conn = connection.getConnection();
+		prepareStagingTable(conn, schema, tableName, staging, qualifiedStaging, qualifiedTable);
+
+		long start = System.currentTimeMillis();
+		int staged = stage(conn, table, qualifiedStaging, columns,
+				((Integer)connection.getConfig().getProperty(DatabaseConfig.PROPERTY_BATCH_SIZE)).intValue());
+		if (staged == 0) {
+			return;
+		}
+
+		Statement stmt = conn.createStatement();
+		try {
+			int merged = stmt.executeUpdate(mergeSql(qualifiedTable, qualifiedStaging, columns, primaryKeys));
+			stmt.executeUpdate("DELETE FROM " + qualifiedStaging);
+			log.debug("MERGE " + tableName + ": rows=" + merged + ", time=" + (System.currentTimeMillis() - start)
+					+ "ms");
+		} finally {
+			DbUtils.closeQuietly(stmt);
+		}
+	}
+
+	/**
+	 * データをステージングテーブルにバッチで投入する。<br/>
+	 * ストリーミングのデータセットにも対応するため、行数は参照せず{@link RowOutOfBoundsException}まで読み込む。
+	 * @return	投入した行数
+	 */
+	private int stage(Connection conn, ITable table, String qualifiedStaging, Column[] columns, int batchSize)
+			throws DatabaseUnitException, SQLException {
+		StringBuilder sql = new StringBuilder("INSERT INTO ").append(qualifiedStaging).append(" (");
+		StringBuilder values = new StringBuilder();
+		for (int i = 0; i < columns.length; i++) {
+			sql.append(i > 0 ? ", " : "").append(columns[i].getColumnName());
+			values.append(i > 0 ? ", ?" : "?");
+		}
+		sql.append(") VALUES (").append(values).append(")");
+
+		PreparedStatement stmt = conn.prepareStatement(sql.toString());
+		int row = 0;
+		try {
+			try {
+				for (;; row++) {
+					for (int i = 0; i < columns.length; i++) {
+						Object value = table.getValue(row, columns[i].getColumnName());
+						if (value == null || value == ITable.NO_VALUE) {
+							stmt.setNull(i + 1, columns[i].getDataType().getSqlType());
+						} else {
+							columns[i].getDataType().setSqlValue(value, i + 1, stmt);
+						}
+					}
+					stmt.addBatch();
+					if ((row + 1) % batchSize == 0) {
+						stmt.executeBatch();
+					}
+				}
+			} catch (RowOutOfBoundsException e) {
+				// end of table
+			}
+			if (row % batchSize != 0) {
+				stmt.executeBatch();
+			}
+			return row;
+		} finally {
+			DbUtils.closeQuietly(stmt);
+		}
+	}
+
+	/**
+	 * MERGE文を作成する
+	 * @param table		反映先テーブル
+	 * @param staging	ステージングテーブル
+	 * @param columns	列
+	 * @param primaryKeys	結合条件の列
+	 * @return	MERGE文
+	 */
+	static String mergeSql(String table, String staging, Column[] columns, Column[] primaryKeys) {
+		Set<String> keys = new HashSet<String>();
+		StringBuilder on = new StringBuilder();
+		for (Column primaryKey : primaryKeys) {
+			keys.add(primaryKey.getColumnName().toUpperCase());
+			on.append(on.length() > 0 ? " AND " : "").append("T.").append(primaryKey.getColumnName()).append(" = S.")
+					.append(primaryKey.getColumnName());
+		}
+		StringBuilder update = new StringBuilder();
+		StringBuilder insertColumns = new StringBuilder();
+		StringBuilder insertValues = new StringBuilder();
+		for (Column column : columns) {
+			String name = column.getColumnName();
+			if (!keys.contains(name.toUpperCase())) {
+				update.append(update.length() > 0 ? ", " : "").append("T.").append(name).append(" = S.").append(name);
+			}
+			insertColumns.append(insertColumns.length() > 0 ? ", " : "").append(name);
+			insertValues.append(insertValues.length() > 0 ? ", " : "").append("S.").append(name);
+		}
+		StringBuilder sql = new StringBuilder("MERGE INTO ").append(table).append(" T USING ").append(staging)
+				.append(" S ON (").append(on).append(")");
+		if (update.length() > 0) {
+			sql.append(" WHEN MATCHED THEN UPDATE SET ").append(update);
+		}
+		sql.append(" WHEN NOT MATCHED THEN INSERT (").append(insertColumns).append(") VALUES (").append(insertValues)
+				.append(")");
+		return sql.toString();
+	}
+
+	/**
+	 * ステージングテーブル名を求める。<br/>
+	 * 長いテーブル名は切り詰めるため、テーブル名全体のハッシュを付けて別のテーブルと重複しないようにする。
+	 * @param tableName	反映先テーブル名
+	 * @return	ステージングテーブル名
+	 */
+	static String stagingTableName(String tableName) {
+		String name = tableName.toUpperCase();
+		String hash = String.format("$%08X", Integer.valueOf(name.hashCode()));
+		int maxLength = MAX_IDENTIFIER_LENGTH - STAGING_PREFIX.length() - hash.length();
+		return STAGING_PREFIX + (name.length() > maxLength ? name.substring(0, maxLength) : name) + hash;
+	}
+
+	/**
+	 * ステージングテーブルが無いか、反映先テーブルと列定義が異なる場合は作成する。<br/>
+	 * 列定義の比較はテストのコネクションで行い、DDLは暗黙にコミットされるため、テストとは別のコネクションで実行する。
+	 */
+	private static void prepareStagingTable(Connection testConn, String schema, String tableName, String staging,
+			String qualifiedStaging, String qualifiedTable) throws DatabaseUnitException, SQLException {
+		String owner = schema == null ? null : schema.toUpperCase();
+		List<String> tableColumns = columnsOf(testConn, owner, tableName.toUpperCase());
+		List<String> stagingColumns = columnsOf(testConn, owner, staging);
+		if (!stagingColumns.isEmpty() && stagingColumns.equals(tableColumns)) {
+			return;
+		}
+		Connection conn = null;
+		Statement ddl = null;
+		try {
+			conn = DbConnection.getConnection();
+			conn.setAutoCommit(true);
+			ddl = conn.createStatement();
+			if (!stagingColumns.isEmpty()) {
+				ddl.executeUpdate("DROP TABLE " + qualifiedStaging);
+				log.info("Dropped staging table " + qualifiedStaging + " (columns of " + qualifiedTable
+						+ " were changed)");
+			}
+			ddl.executeUpdate("CREATE GLOBAL TEMPORARY TABLE " + qualifiedStaging
+					+ " ON COMMIT DELETE ROWS AS SELECT * FROM " + qualifiedTable + " WHERE 1 = 0");
+			log.info("Created staging table " + qualifiedStaging);
+		} catch (SQLException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new DatabaseUnitException(e);
+		} finally {
+			DbUtils.closeQuietly(ddl);
+			DbUtils.closeQuietly(conn);
+		}
+	}
+
+	/**
+	 * テーブルの列定義を取得する。
+	 * @return	列名・データ型・長さ・精度・位取りを列の順に並べたもの。テーブルが無い場合は空
+	 */
+	private static List<String> columnsOf(Connection conn, String owner, String tableName) throws SQLException {
+		List<String> columns = new ArrayList<String>();
+		PreparedStatement query = null;
+		ResultSet rs = null;
+		try {
+			query = conn.prepareStatement(COLUMNS_SQL);
+			query.setString(1, owner);
+			query.setString(2, tableName);
+			rs = query.executeQuery();
+			while (rs.next()) {
+				columns.add(rs.getString(1) + " " + rs.getString(2) + "(" + rs.getString(3) + "," + rs.getString(4)
+						+ "," + rs.getString(5) + ")");
+			}
+			return columns;
+		} finally {
+			DbUtils.closeQuietly(rs);
+			DbUtils.closeQuietly(query);
+		}
+	}
+}
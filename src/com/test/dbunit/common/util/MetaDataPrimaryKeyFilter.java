@@ -0,0 +1,76 @@
+package com.test.dbunit.common.util;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.dbutils.DbUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.dbunit.dataset.Column;
+import org.dbunit.dataset.filter.IColumnFilter;
+
+import com.test.dbunit.common.db.DbConnection;
+
+/**
+ * DBのプライマリキー（{@link java.sql.DatabaseMetaData#getPrimaryKeys}）で判定する{@link IColumnFilter}です。<br/>
+ * {@link StaticColumnFilter}でプライマリキーを定義していないテーブルの判定に利用します。
+ * プライマリキーはスキーマ・テーブル毎にキャッシュし、取得には現在のスレッドのスキーマ（{@link DbConnection#getSchema()}）と
+ * 新しいコネクションを利用します。
+ */
+public class MetaDataPrimaryKeyFilter implements IColumnFilter {
+
+	private static Log log = LogFactory.getLog(MetaDataPrimaryKeyFilter.class);
+
+	/** 共有インスタンス */
+	public static final MetaDataPrimaryKeyFilter INSTANCE = new MetaDataPrimaryKeyFilter();
+
+	/** スキーマ.テーブル名（大文字） → プライマリキーの列名（大文字） */
+	private static final Map<String, Set<String>> primaryKeys = new ConcurrentHashMap<String, Set<String>>();
+
+	private MetaDataPrimaryKeyFilter() {
+	}
+
+	@Override
+	public boolean accept(String tableName, Column column) {
+		return primaryKeysOf(tableName).contains(column.getColumnName().toUpperCase());
+	}
+
+	private static Set<String> primaryKeysOf(String tableName) {
+		Connection conn = null;
+		ResultSet rs = null;
+		try {
+			String schema = DbConnection.getSchema().toUpperCase();
+			String table = tableName.toUpperCase();
+			int dot = table.indexOf('.');
+			if (dot >= 0) {
+				schema = table.substring(0, dot);
+				table = table.substring(dot + 1);
+			}
+			String key = schema + "." + table;
+			Set<String> keys = primaryKeys.get(key);
+			if (keys != null) {
+				return keys;
+			}
+			keys = new HashSet<String>();
+			conn = DbConnection.getConnection();
+			rs = conn.getMetaData().getPrimaryKeys(null, schema, table);
+			while (rs.next()) {
+				keys.add(rs.getString("COLUMN_NAME").toUpperCase());
+			}
+			keys = Collections.unmodifiableSet(keys);
+			primaryKeys.put(key, keys);
+			return keys;
+		} catch (Exception e) {
+			log.fatal(e.getLocalizedMessage(), e);
+			throw new IllegalStateException(e);
+		} finally {
+			DbUtils.closeQuietly(rs);
+			DbUtils.closeQuietly(conn);
+		}
+	}
+}
@@ -0,0 +1,230 @@
+package com.test.dbunit.common.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import org.apache.commons.io.IOUtils;
+import org.dbunit.dataset.AbstractDataSet;
+import org.dbunit.dataset.Column;
+import org.dbunit.dataset.DataSetException;
+import org.dbunit.dataset.DefaultTable;
+import org.dbunit.dataset.DefaultTableMetaData;
+import org.dbunit.dataset.ITable;
+import org.dbunit.dataset.ITableIterator;
+import org.dbunit.dataset.ITableMetaData;
+import org.dbunit.dataset.csv.CsvDataSet;
+import org.dbunit.dataset.csv.CsvDataSetWriter;
+import org.dbunit.dataset.csv.CsvProducer;
+import org.dbunit.dataset.datatype.DataType;
+
+/**
+ * <code>ParallelCsvDataSet</code>
+ * <pre>
+ * {@link org.dbunit.dataset.IDataSet} of a directory which includes CSV files and table-ordering.txt
+ * (same layout as {@link CsvDataSet}).
+ * All CSV files are parsed in parallel on a shared {@link ForkJoinPool}. Tables are returned in table-ordering.txt
+ * order as soon as each one has been parsed, so the first tables can be inserted while the rest are still parsing.
+ * The syntax is the same as {@link CsvDataSet}: comma separator, double quoted value, backslash escape,
+ * and <code>null</code> for NULL.
+ * </pre>
+ */
+public class ParallelCsvDataSet extends AbstractDataSet {
+
+	private static final ForkJoinPool POOL = new ForkJoinPool();
+
+	private static final int BUFFER_SIZE = 8192;
+
+	/** Read buffer reused by each worker thread. */
+	private static final ThreadLocal<char[]> BUFFER = new ThreadLocal<char[]>() {
+		@Override
+		protected char[] initialValue() {
+			return new char[BUFFER_SIZE];
+		}
+	};
+
+	private final List<ForkJoinTask<ITable>> tables = new ArrayList<ForkJoinTask<ITable>>();
+
+	/**
+	 * Start parsing all CSV files listed in table-ordering.txt of the directory.
+	 * @param dir
+	 * @throws DataSetException
+	 */
+	public ParallelCsvDataSet(File dir) throws DataSetException {
+		List<?> tableNames;
+		try {
+			tableNames = CsvProducer.getTables(dir.toURI().toURL(), CsvDataSet.TABLE_ORDERING_FILE);
+		} catch (IOException e) {
+			throw new DataSetException("error getting list of tables: dir=" + dir, e);
+		}
+		for (Object tableName : tableNames) {
+			final File file = new File(dir, tableName + ".csv");
+			tables.add(POOL.submit(new Callable<ITable>() {
+				@Override
+				public ITable call() throws Exception {
+					return parse(file);
+				}
+			}));
+		}
+	}
+
+	@Override
+	protected ITableIterator createIterator(final boolean reversed) throws DataSetException {
+		return new ITableIterator() {
+			private int index = -1;
+
+			@Override
+			public boolean next() throws DataSetException {
+				return ++index < tables.size();
+			}
+
+			@Override
+			public ITableMetaData getTableMetaData() throws DataSetException {
+				return getTable().getTableMetaData();
+			}
+
+			@Override
+			public ITable getTable() throws DataSetException {
+				return await(reversed ? tables.size() - 1 - index : index);
+			}
+		};
+	}
+
+	private ITable await(int index) throws DataSetException {
+		try {
+			return tables.get(index).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new DataSetException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof DataSetException) {
+				throw (DataSetException)e.getCause();
+			}
+			throw new DataSetException(e.getCause());
+		}
+	}
+
+	private static ITable parse(File file) throws IOException, DataSetException {
+		Reader reader = new InputStreamReader(new FileInputStream(file));
+		try {
+			Parser parser = new Parser(reader, BUFFER.get(), file);
+			List<String> header = parser.nextRecord();
+			if (header == null) {
+				throw new DataSetException("The first line of " + file + " is null");
+			}
+			Column[] columns = new Column[header.size()];
+			for (int i = 0; i < columns.length; i++) {
+				columns[i] = new Column(header.get(i), DataType.UNKNOWN);
+			}
+			String tableName = file.getName().substring(0, file.getName().lastIndexOf(".csv"));
+			DefaultTable table = new DefaultTable(new DefaultTableMetaData(tableName, columns));
+
+			List<String> record;
+			while ((record = parser.nextRecord()) != null) {
+				if (record.size() != columns.length) {
+					throw new DataSetException("Expected " + columns.length + " columns on line " + parser.line
+							+ ", got " + record.size() + ": file=" + file);
+				}
+				table.addRow(record.toArray());
+			}
+			return table;
+		} finally {
+			IOUtils.closeQuietly(reader);
+		}
+	}
+
+	/**
+	 * Record parser reading characters through a reusable buffer.
+	 */
+	private static class Parser {
+		private final Reader reader;
+		private final char[] buffer;
+		private final File file;
+		private final StringBuilder value = new StringBuilder();
+		private int position = 0;
+		private int limit = 0;
+		private int line = 0;
+
+		Parser(Reader reader, char[] buffer, File file) {
+			this.reader = reader;
+			this.buffer = buffer;
+			this.file = file;
+		}
+
+		private int read() throws IOException {
+			if (position == limit) {
+				limit = reader.read(buffer, 0, buffer.length);
+				position = 0;
+				if (limit <= 0) {
+					limit = 0;
+					return -1;
+				}
+			}
+			return buffer[position++];
+		}
+
+		/**
+		 * @return values of the next record, or <code>null</code> at end of file (blank lines are skipped)
+		 */
+		List<String> nextRecord() throws IOException, DataSetException {
+			List<String> values = new ArrayList<String>();
+			value.setLength(0);
+			boolean quoted = false;
+			boolean wasQuoted = false;
+			boolean blank = true;
+			int c;
+			while ((c = read()) != -1) {
+				if (c == '\n') {
+					line++;
+					if (!quoted) {
+						if (blank && values.isEmpty() && value.length() == 0) {
+							continue;
+						}
+						break;
+					}
+				}
+				if (c == '\r' && !quoted) {
+					continue;
+				}
+				blank = false;
+				if (c == '\\') {
+					c = read();
+					if (c == -1) {
+						break;
+					}
+					value.append((char)c);
+				} else if (c == '"') {
+					quoted = !quoted;
+					wasQuoted = true;
+				} else if (c == ',' && !quoted) {
+					values.add(finish(wasQuoted));
+					wasQuoted = false;
+				} else {
+					value.append((char)c);
+				}
+			}
+			if (quoted) {
+				throw new DataSetException("Unterminated quoted value on line " + line + ": file=" + file);
+			}
+			if (blank) {
+				return null;
+			}
+			values.add(finish(wasQuoted));
+			return values;
+		}
+
+		private String finish(boolean wasQuoted) {
+			String result = wasQuoted ? value.toString() : value.toString().trim();
+			value.setLength(0);
+			return CsvDataSetWriter.NULL.equals(result) ? null : result;
+		}
+	}
+}
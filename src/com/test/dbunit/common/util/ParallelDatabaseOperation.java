@@ -0,0 +1,211 @@
+package com.test.dbunit.common.util;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.dbutils.DbUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.dbunit.DatabaseUnitException;
+import org.dbunit.database.IDatabaseConnection;
+import org.dbunit.dataset.DefaultDataSet;
+import org.dbunit.dataset.IDataSet;
+import org.dbunit.dataset.ITable;
+import org.dbunit.dataset.ITableIterator;
+import org.dbunit.operation.DatabaseOperation;
+
+import com.test.dbunit.common.db.DbConnection;
+import com.test.dbunit.common.db.DbShard;
+import com.test.dbunit.common.db.DirtyTables;
+
+/**
+ * 外部キーの依存関係に従って、複数のテーブルを並列に投入するDB操作です。<br/>
+ * DBのメタデータから外部キーを読み込んでデータセットのテーブルの依存関係（DAG）を求め、
+ * 参照するテーブルの投入が終わったテーブルから順に、作業スレッド毎の別のコネクションで投入してコミットします。
+ * 投入時間は全テーブルの合計ではなく、最も長い依存関係の経路の時間になります。<br/>
+ * 別のセッションからはコミットしていないデータが見えないため、投入したデータはコミットされ、テスト終了時のロールバックでは戻りません。
+ * このため、ワーカー専用のシャード（{@link DbShard}）で、コミットされたテーブルの後始末（{@link DirtyTables}）が
+ * 有効な場合のみ利用してください。投入するテーブルは投入前に{@link DirtyTables}に記録します。<br/>
+ * 操作はテーブル毎に独立して実行するため、INSERT・REFRESH等の行を反映する操作に利用します
+ * （テーブルを跨いで削除の順序に依存する CLEAN_INSERT 等には利用できません）。<br/>
+ * テーブルが1つの場合、外部キーが循環する場合は並列にせず、指定されたコネクションでそのまま実行します。
+ */
+public class ParallelDatabaseOperation extends DatabaseOperation {
+
+	private static Log log = LogFactory.getLog(ParallelDatabaseOperation.class);
+
+	private final DatabaseOperation operation;
+	private final int threads;
+
+	/**
+	 * @param operation	実行するDB操作
+	 * @param threads	投入の並列数
+	 */
+	public ParallelDatabaseOperation(DatabaseOperation operation, int threads) {
+		this.operation = operation;
+		this.threads = threads;
+	}
+
+	@Override
+	public void execute(IDatabaseConnection connection, IDataSet dataSet) throws DatabaseUnitException,
+			SQLException {
+		Map<String, ITable> tables = new LinkedHashMap<String, ITable>();
+		ITableIterator iterator = dataSet.iterator();
+		boolean duplicated = false;
+		while (iterator.next()) {
+			ITable table = iterator.getTable();
+			duplicated |= tables.put(table.getTableMetaData().getTableName().toUpperCase(), table) != null;
+		}
+		if (threads <= 1 || tables.size() <= 1 || duplicated) {
+			operation.execute(connection, dataSet);
+			return;
+		}
+		Map<String, Set<String>> parents = ForeignKeys.dependencies(connection.getConnection().getMetaData(),
+				connection.getSchema(), tables.keySet());
+		if (ForeignKeys.sort(parents) == null) {
+			log.warn("Foreign keys of " + tables.keySet() + " are cyclic. Tables are loaded in dataset order.");
+			operation.execute(connection, dataSet);
+			return;
+		}
+
+		// 失敗した場合もテスト終了時に削除されるよう、投入前に記録する
+		List<String> dirty = new ArrayList<String>();
+		for (String tableName : tables.keySet()) {
+			dirty.add(DirtyTables.identifier(tableName));
+		}
+		DirtyTables.current().add(dirty);
+
+		long start = System.currentTimeMillis();
+		int poolSize = Math.min(threads, tables.size());
+		ExecutorService executor = Executors.newFixedThreadPool(poolSize);
+		try {
+			load(new ExecutorCompletionService<String>(executor), connection, tables, parents);
+		} finally {
+			executor.shutdownNow();
+		}
+		log.info("Parallel load: tables=" + tables.size() + ", threads=" + poolSize + ", time="
+				+ (System.currentTimeMillis() - start) + "ms");
+	}
+
+	/**
+	 * 参照するテーブルの投入が終わったテーブルから順に投入する。
+	 * @param loader		投入のタスクを実行するサービス
+	 * @param connection	テストのコネクション（設定の複製元）
+	 * @param tables		テーブル名（大文字） → テーブル
+	 * @param parents		テーブル名 → 参照するテーブル名
+	 */
+	private void load(CompletionService<String> loader, IDatabaseConnection connection, Map<String, ITable> tables,
+			Map<String, Set<String>> parents) throws DatabaseUnitException, SQLException {
+		Map<String, Integer> waiting = new HashMap<String, Integer>();
+		Map<String, List<String>> children = new HashMap<String, List<String>>();
+		for (Map.Entry<String, Set<String>> entry : parents.entrySet()) {
+			waiting.put(entry.getKey(), Integer.valueOf(entry.getValue().size()));
+			for (String parent : entry.getValue()) {
+				List<String> list = children.get(parent);
+				if (list == null) {
+					list = new ArrayList<String>();
+					children.put(parent, list);
+				}
+				list.add(entry.getKey());
+			}
+		}
+
+		DbShard shard = DbShard.current();
+		int running = 0;
+		for (Map.Entry<String, ITable> entry : tables.entrySet()) {
+			if (waiting.get(entry.getKey()).intValue() == 0) {
+				loader.submit(new LoadTask(connection, shard, entry.getKey(), entry.getValue()));
+				running++;
+			}
+		}
+		while (running > 0) {
+			String loaded = await(loader);
+			running--;
+			List<String> dependents = children.get(loaded);
+			if (dependents == null) {
+				continue;
+			}
+			for (String child : dependents) {
+				int remaining = waiting.get(child).intValue() - 1;
+				waiting.put(child, Integer.valueOf(remaining));
+				if (remaining == 0) {
+					loader.submit(new LoadTask(connection, shard, child, tables.get(child)));
+					running++;
+				}
+			}
+		}
+	}
+
+	private static String await(CompletionService<String> loader) throws DatabaseUnitException, SQLException {
+		try {
+			return loader.take().get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new DatabaseUnitException(e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof DatabaseUnitException) {
+				throw (DatabaseUnitException)cause;
+			}
+			if (cause instanceof SQLException) {
+				throw (SQLException)cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException)cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error)cause;
+			}
+			throw new DatabaseUnitException(cause);
+		}
+	}
+
+	/**
+	 * 1テーブルを別のコネクションで投入してコミットするタスク
+	 */
+	private class LoadTask implements Callable<String> {
+		private final IDatabaseConnection connection;
+		private final DbShard shard;
+		private final String tableName;
+		private final ITable table;
+
+		LoadTask(IDatabaseConnection connection, DbShard shard, String tableName, ITable table) {
+			this.connection = connection;
+			this.shard = shard;
+			this.tableName = tableName;
+			this.table = table;
+		}
+
+		@Override
+		public String call() throws Exception {
+			DbShard.attach(shard);
+			Connection loadConn = null;
+			try {
+				loadConn = DbConnection.getConnection();
+				loadConn.setAutoCommit(false);
+				IDatabaseConnection loadDbunitConn = DbUnitUtils.getDbUnitConnection(loadConn,
+						connection.getSchema());
+				DbUnitUtils.copyConfig(connection, loadDbunitConn);
+				operation.execute(loadDbunitConn, new DefaultDataSet(table));
+				loadConn.commit();
+				return tableName;
+			} finally {
+				DbUtils.rollbackAndCloseQuietly(loadConn);
+				DbShard.detach();
+			}
+		}
+	}
+}
@@ -2,10 +2,13 @@ package com.test.dbunit.common.util;
 
 import java.lang.reflect.Array;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.dbunit.dataset.Column;
 import org.dbunit.dataset.filter.IColumnFilter;
@@ -13,31 +16,71 @@ import org.dbunit.operation.DatabaseOperation;
 
 /**
  * {@link IColumnFilter}を静的に定義するクラスです。<br/>
- * このクラスを利用することで、DBUnitの{@link DatabaseOperation}を高速化します。
+ * このクラスを利用することで、DBUnitの{@link DatabaseOperation}を高速化します。<br/>
+ * 定義は生成後に変更できません。テーブル名・列名は大文字小文字を区別せず、判定結果はテーブル・列毎にキャッシュします。
+ * プライマリキーを定義していないテーブルは、代替のフィルタ（{@link MetaDataPrimaryKeyFilter}等）で判定します。
  */
 public class StaticColumnFilter implements IColumnFilter {
 
-	private Map<String, List<String>> tablePrimaryKeyMap = new HashMap<String, List<String>>();
+	/** テーブル名（大文字） → プライマリキーの列名（大文字） */
+	private final Map<String, Set<String>> tablePrimaryKeyMap;
+	/** 定義していないテーブルの判定。null の場合はプライマリキー無し */
+	private final IColumnFilter fallback;
+	/** テーブル名 → 列名 → 判定結果 */
+	private final Map<String, Map<String, Boolean>> decisions = new ConcurrentHashMap<String, Map<String, Boolean>>();
 
 	/**
 	 * @param primaryKeys 指定する{@link PrimaryKey}
 	 */
 	public StaticColumnFilter(PrimaryKey... primaryKeys) {
-		if (primaryKeys == null || primaryKeys.length == 0) {
-			return;
-		}
-		for (PrimaryKey pk : primaryKeys) {
-			tablePrimaryKeyMap.put(pk.getTableName(), Arrays.asList(pk.getColumnNames()));
+		this(null, primaryKeys);
+	}
+
+	/**
+	 * @param fallback プライマリキーを定義していないテーブルの判定に利用するフィルタ。null の場合はプライマリキー無し
+	 * @param primaryKeys 指定する{@link PrimaryKey}
+	 */
+	public StaticColumnFilter(IColumnFilter fallback, PrimaryKey... primaryKeys) {
+		this.fallback = fallback;
+		Map<String, Set<String>> map = new HashMap<String, Set<String>>();
+		if (primaryKeys != null) {
+			for (PrimaryKey pk : primaryKeys) {
+				Set<String> columns = new HashSet<String>();
+				for (String columnName : pk.getColumnNames()) {
+					columns.add(columnName.toUpperCase());
+				}
+				map.put(pk.getTableName().toUpperCase(), Collections.unmodifiableSet(columns));
+			}
 		}
+		this.tablePrimaryKeyMap = Collections.unmodifiableMap(map);
+	}
+
+	/**
+	 * @return プライマリキーを定義していない場合 true
+	 */
+	public boolean isEmpty() {
+		return tablePrimaryKeyMap.isEmpty();
 	}
 
 	@Override
 	public boolean accept(String tableName, Column column) {
-		if (tablePrimaryKeyMap.containsKey(tableName)) {
-			return tablePrimaryKeyMap.get(tableName).contains(column.getColumnName());
-		} else {
-			return false;
+		Map<String, Boolean> columns = decisions.get(tableName);
+		if (columns == null) {
+			columns = new ConcurrentHashMap<String, Boolean>();
+			decisions.put(tableName, columns);
+		}
+		String columnName = column.getColumnName();
+		Boolean decision = columns.get(columnName);
+		if (decision == null) {
+			Set<String> keys = tablePrimaryKeyMap.get(tableName.toUpperCase());
+			if (keys != null) {
+				decision = Boolean.valueOf(keys.contains(columnName.toUpperCase()));
+			} else {
+				decision = Boolean.valueOf(fallback != null && fallback.accept(tableName, column));
+			}
+			columns.put(columnName, decision);
 		}
+		return decision.booleanValue();
 	}
 
 	/**
@@ -94,4 +137,4 @@ public class StaticColumnFilter implements IColumnFilter {
 			return list;
 		}
 	}
-}
\ No newline at end of file
+}
\ No newline at end of file
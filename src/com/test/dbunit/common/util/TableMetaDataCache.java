@@ -0,0 +1,371 @@
+package com.test.dbunit.common.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.commons.dbutils.DbUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.dbunit.dataset.Column;
+import org.dbunit.dataset.datatype.DataType;
+import org.dbunit.dataset.datatype.DataTypeException;
+import org.dbunit.dataset.datatype.IDataTypeFactory;
+
+import com.test.dbunit.common.db.DbConnection;
+
+/**
+ * <code>TableMetaDataCache</code>
+ * <pre>
+ * Process-wide cache of table names, columns and primary keys read from {@link DatabaseMetaData},
+ * shared by all {@link CachedMetaDataConnection}s.
+ * The cache is saved to <code>dataset.metadata.file</code> in db.properties at JVM exit and loaded by the next run.
+ * Each schema is validated once per JVM against a fingerprint of the schema
+ * (number of tables and latest LAST_DDL_TIME in ALL_OBJECTS), and discarded when DDL has been executed.
+ * DDL executed by {@link com.test.dbunit.common.db.DbExecuter} during the run clears the cache ({@link #clear()}),
+ * and a table missing from the cache makes the schema validated again ({@link #revalidate(String)}).
+ * The cache is disabled by default (<code>dataset.metadata.cache=true</code> enables it).
+ * Column data types are resolved by the {@link IDataTypeFactory} of each connection, so only the raw JDBC
+ * attributes (SQL type, type name, nullable, ...) are cached.
+ * </pre>
+ */
+public enum TableMetaDataCache {
+	;
+
+	private static Log log = LogFactory.getLog(TableMetaDataCache.class);
+
+	/** <code>false</code> disables the cache (<code>dataset.metadata.cache</code> in db.properties). */
+	static final boolean ENABLED = Boolean.parseBoolean(DbConnection.getProperty("dataset.metadata.cache", "false"));
+
+	private static final File FILE = new File(DbConnection.getProperty("dataset.metadata.file", new File(
+			System.getProperty("java.io.tmpdir"), "dbunit-metadata.ser").getPath()));
+
+	private static final String FINGERPRINT_SQL = "SELECT COUNT(*), TO_CHAR(MAX(LAST_DDL_TIME), 'YYYYMMDDHH24MISS')"
+			+ " FROM ALL_OBJECTS WHERE OWNER = ? AND OBJECT_TYPE = 'TABLE'";
+
+	/** schema (upper case) -> cached schema */
+	private static Map<String, SchemaEntry> schemas = null;
+	/** schemas validated in this JVM */
+	private static final Set<String> validated = new HashSet<String>();
+	private static boolean modified = false;
+	/** incremented by {@link #clear()} */
+	private static int generation = 0;
+
+	/**
+	 * Get table names of the schema. The names are read by the loader only when they are not cached.
+	 * @param conn connection to validate the cached schema
+	 * @param schema
+	 * @param loader reads table names from the database
+	 * @return table names
+	 * @throws SQLException
+	 */
+	static String[] getTableNames(Connection conn, String schema, TableNameLoader loader) throws SQLException {
+		SchemaEntry entry = schemaOf(conn, schema);
+		synchronized (entry) {
+			if (entry.tableNames == null) {
+				entry.tableNames = loader.load();
+				modified();
+			}
+			return entry.tableNames;
+		}
+	}
+
+	/**
+	 * Get columns and primary key names of the table.
+	 * @param conn connection to read the metadata
+	 * @param schema
+	 * @param tableName
+	 * @param dataTypeFactory
+	 * @param datatypeWarning log columns of unknown data type
+	 * @return columns and primary key names
+	 * @throws SQLException
+	 * @throws DataTypeException
+	 */
+	static TableMetaData getTableMetaData(Connection conn, String schema, String tableName,
+			IDataTypeFactory dataTypeFactory, boolean datatypeWarning) throws SQLException, DataTypeException {
+		SchemaEntry schemaEntry = schemaOf(conn, schema);
+		TableEntry entry;
+		synchronized (schemaEntry) {
+			entry = schemaEntry.tables.get(tableName.toUpperCase());
+		}
+		if (entry == null) {
+			entry = readTable(conn.getMetaData(), schema, tableName);
+			synchronized (schemaEntry) {
+				schemaEntry.tables.put(tableName.toUpperCase(), entry);
+			}
+			modified();
+		}
+		return entry.toMetaData(dataTypeFactory, datatypeWarning);
+	}
+
+	/**
+	 * Discard all cached metadata (e.g. after executing DDL in a test).
+	 */
+	public static synchronized void clear() {
+		if (schemas != null) {
+			schemas.clear();
+		}
+		validated.clear();
+		modified = true;
+		generation++;
+	}
+
+	/**
+	 * Validate the cached schema against its fingerprint again on the next access.
+	 * @param schema
+	 */
+	static synchronized void revalidate(String schema) {
+		validated.remove(schema == null ? "" : schema.toUpperCase());
+	}
+
+	/**
+	 * @return number of times the cache has been cleared (metadata read before a change must be read again)
+	 */
+	static synchronized int generation() {
+		return generation;
+	}
+
+	private static synchronized void modified() {
+		modified = true;
+	}
+
+	private static SchemaEntry schemaOf(Connection conn, String schema) throws SQLException {
+		String key = schema == null ? "" : schema.toUpperCase();
+		synchronized (TableMetaDataCache.class) {
+			if (schemas == null) {
+				schemas = load();
+				Runtime.getRuntime().addShutdownHook(new Thread() {
+					@Override
+					public void run() {
+						save();
+					}
+				});
+			}
+			SchemaEntry entry = schemas.get(key);
+			if (validated.contains(key) && entry != null) {
+				return entry;
+			}
+			String fingerprint = fingerprint(conn, key);
+			if (entry == null || !entry.fingerprint.equals(fingerprint)) {
+				if (entry != null) {
+					log.info("Schema " + key + " has been changed. Cached table metadata is discarded.");
+				}
+				entry = new SchemaEntry(fingerprint);
+				schemas.put(key, entry);
+				modified = true;
+			}
+			validated.add(key);
+			return entry;
+		}
+	}
+
+	private static String fingerprint(Connection conn, String schema) throws SQLException {
+		PreparedStatement stmt = conn.prepareStatement(FINGERPRINT_SQL);
+		ResultSet rs = null;
+		try {
+			stmt.setString(1, schema);
+			rs = stmt.executeQuery();
+			rs.next();
+			return rs.getInt(1) + ":" + rs.getString(2);
+		} finally {
+			DbUtils.closeQuietly(rs);
+			DbUtils.closeQuietly(stmt);
+		}
+	}
+
+	private static TableEntry readTable(DatabaseMetaData metaData, String schema, String tableName)
+			throws SQLException {
+		List<ColumnEntry> columns = new ArrayList<ColumnEntry>();
+		ResultSet rs = metaData.getColumns(null, schema, tableName, "%");
+		try {
+			while (rs.next()) {
+				// getColumns() takes patterns ("_" matches any character)
+				if (!tableName.equalsIgnoreCase(rs.getString(3)) || (schema != null
+						&& !schema.equalsIgnoreCase(rs.getString(2)))) {
+					continue;
+				}
+				columns.add(new ColumnEntry(rs));
+			}
+		} finally {
+			DbUtils.closeQuietly(rs);
+		}
+
+		Map<Integer, String> keys = new TreeMap<Integer, String>();
+		rs = metaData.getPrimaryKeys(null, schema, tableName);
+		try {
+			while (rs.next()) {
+				keys.put(Integer.valueOf(rs.getInt(5)), rs.getString(4));
+			}
+		} finally {
+			DbUtils.closeQuietly(rs);
+		}
+		return new TableEntry(columns.toArray(new ColumnEntry[columns.size()]),
+				keys.values().toArray(new String[keys.size()]));
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Map<String, SchemaEntry> load() {
+		if (!FILE.isFile()) {
+			return new HashMap<String, SchemaEntry>();
+		}
+		ObjectInputStream input = null;
+		try {
+			input = new ObjectInputStream(new BufferedInputStream(new FileInputStream(FILE)));
+			Map<String, SchemaEntry> loaded = (Map<String, SchemaEntry>)input.readObject();
+			log.info("Loaded table metadata cache: file=" + FILE + ", schemas=" + loaded.keySet());
+			return loaded;
+		} catch (Exception e) {
+			// incompatible or broken file is simply rebuilt
+			log.warn("Failed to load table metadata cache: file=" + FILE + ", " + e.getLocalizedMessage());
+			return new HashMap<String, SchemaEntry>();
+		} finally {
+			IOUtils.closeQuietly(input);
+		}
+	}
+
+	private static synchronized void save() {
+		if (!modified || schemas == null) {
+			return;
+		}
+		File temporary = new File(FILE.getPath() + ".tmp");
+		ObjectOutputStream output = null;
+		try {
+			output = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)));
+			output.writeObject(schemas);
+			output.close();
+			output = null;
+			if (FILE.exists() && !FILE.delete() || !temporary.renameTo(FILE)) {
+				throw new IOException("Failed to replace " + FILE);
+			}
+			modified = false;
+		} catch (IOException e) {
+			log.warn("Failed to save table metadata cache: file=" + FILE + ", " + e.getLocalizedMessage());
+		} finally {
+			IOUtils.closeQuietly(output);
+		}
+	}
+
+	/**
+	 * Reads table names from the database when they are not cached.
+	 */
+	interface TableNameLoader {
+		String[] load() throws SQLException;
+	}
+
+	/**
+	 * Columns and primary key names of a table.
+	 */
+	static final class TableMetaData {
+		final Column[] columns;
+		final String[] primaryKeys;
+
+		TableMetaData(Column[] columns, String[] primaryKeys) {
+			this.columns = columns;
+			this.primaryKeys = primaryKeys;
+		}
+	}
+
+	private static final class SchemaEntry implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private final String fingerprint;
+		private String[] tableNames = null;
+		/** table name (upper case) -> table */
+		private final Map<String, TableEntry> tables = new HashMap<String, TableEntry>();
+
+		SchemaEntry(String fingerprint) {
+			this.fingerprint = fingerprint;
+		}
+	}
+
+	private static final class TableEntry implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private final ColumnEntry[] columns;
+		private final String[] primaryKeys;
+
+		TableEntry(ColumnEntry[] columns, String[] primaryKeys) {
+			this.columns = columns;
+			this.primaryKeys = primaryKeys;
+		}
+
+		TableMetaData toMetaData(IDataTypeFactory dataTypeFactory, boolean datatypeWarning)
+				throws DataTypeException {
+			List<Column> list = new ArrayList<Column>(columns.length);
+			for (ColumnEntry column : columns) {
+				Column resolved = column.toColumn(dataTypeFactory, datatypeWarning);
+				if (resolved != null) {
+					list.add(resolved);
+				}
+			}
+			return new TableMetaData(list.toArray(new Column[list.size()]), primaryKeys);
+		}
+	}
+
+	/**
+	 * Raw JDBC attributes of a column (same as {@link org.dbunit.util.SQLHelper#createColumn}).
+	 */
+	private static final class ColumnEntry implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private final String tableName;
+		private final String columnName;
+		private final int sqlType;
+		private final String sqlTypeName;
+		private final int nullable;
+		private final String remarks;
+		private final String defaultValue;
+		private final String autoIncrement;
+
+		ColumnEntry(ResultSet rs) throws SQLException {
+			tableName = rs.getString(3);
+			columnName = rs.getString(4);
+			int type = rs.getInt(5);
+			sqlType = type == Types.DISTINCT ? rs.getInt("SOURCE_DATA_TYPE") : type;
+			sqlTypeName = rs.getString(6);
+			nullable = rs.getInt(11);
+			remarks = rs.getString(12);
+			defaultValue = rs.getString(13);
+			String isAutoIncrement = Column.AutoIncrement.NO.getKey();
+			try {
+				isAutoIncrement = rs.getString(23);
+			} catch (SQLException e) {
+				// not supported by the driver
+			}
+			autoIncrement = isAutoIncrement;
+		}
+
+		Column toColumn(IDataTypeFactory dataTypeFactory, boolean datatypeWarning) throws DataTypeException {
+			DataType dataType = dataTypeFactory.createDataType(sqlType, sqlTypeName, tableName, columnName);
+			if (dataType == DataType.UNKNOWN) {
+				if (datatypeWarning) {
+					log.warn(tableName + "." + columnName + " data type (" + sqlType + ", '" + sqlTypeName
+							+ "') not recognized and will be ignored.");
+				}
+				return null;
+			}
+			return new Column(columnName, dataType, sqlTypeName, Column.nullableValue(nullable), defaultValue,
+					remarks, Column.AutoIncrement.autoIncrementValue(autoIncrement));
+		}
+	}
+}
@@ -1,8 +1,8 @@
 package org.dbunit.dataset.excel;
 
-import mockit.Delegate;
-import mockit.Mocked;
-import mockit.NonStrictExpectations;
+import mockit.Mock;
+import mockit.MockClass;
+import mockit.Mockit;
 
 import org.apache.poi.hssf.usermodel.HSSFCell;
 import org.apache.poi.hssf.usermodel.HSSFDateUtil;
@@ -12,34 +12,28 @@ import org.apache.poi.hssf.usermodel.HSSFDateUtil;
  * {@link XlsTable}̓ftHgANZXXR[vȂ̂ŁApbP[W킹Ē`Ă܂B<br/>
  * <br/>
  * {@link XlsTable#getDateValue(HSSFCell)}UTCԂ邽߁A<br/>
- * ExcelɋLڂ鎞ԁ{9ԁiTimezoneItZbgj܂A̎dl𖳌܂B
+ * ExcelɋLڂ鎞ԁ{9ԁiTimezoneItZbgj܂A̎dl𖳌܂B<br/>
+ * Ɏs鑼̃eXgNX̌㏈ŉȂ悤AJVM̏I܂ŗLȃbNƂēKp܂B
  */
+@MockClass(realClass = XlsTable.class)
 public class XlsTableMock {
 
 	public static void mockup(){
-		new NonStrictExpectations() {
-			@Mocked(methods = {"getDateValue"})
-			XlsTable xlsTable;
-			{
-				xlsTable.getDateValue(withInstanceOf(HSSFCell.class));
-				//invoke(xlsTable, "getDateValue", HSSFCell.class);
-				result = new Delegate<XlsTable>() {
-					@SuppressWarnings("unused")
-				    protected Object getDateValue(HSSFCell cell)
-				    {
-						//System.out.println("getDateValue");
-				        //logger.debug("getDateValue(cell={}) - start", cell);
-				        double numericValue = cell.getNumericCellValue();
-				        java.util.Date date = HSSFDateUtil.getJavaDate(numericValue);
-				        // Add the timezone offset again because it was subtracted automatically by Apache-POI (we need UTC)
-				        // HACK start comment out.
-				        //long tzOffset = TimeZone.getDefault().getOffset(date.getTime());
-				        //date = new Date(date.getTime() + tzOffset);
-				        // HACK end
-				        return new Long(date.getTime());
-				    }
-				};
-			}
-		};
+		Mockit.setUpStartupMocks(new XlsTableMock());
+	}
+
+	@Mock
+	public Object getDateValue(HSSFCell cell)
+	{
+		//System.out.println("getDateValue");
+		//logger.debug("getDateValue(cell={}) - start", cell);
+		double numericValue = cell.getNumericCellValue();
+		java.util.Date date = HSSFDateUtil.getJavaDate(numericValue);
+		// Add the timezone offset again because it was subtracted automatically by Apache-POI (we need UTC)
+		// HACK start comment out.
+		//long tzOffset = TimeZone.getDefault().getOffset(date.getTime());
+		//date = new Date(date.getTime() + tzOffset);
+		// HACK end
+		return new Long(date.getTime());
 	}
 }
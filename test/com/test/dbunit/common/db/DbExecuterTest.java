@@ -0,0 +1,32 @@
+package com.test.dbunit.common.db;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * {@link DbExecuter}のバインド変数の解析要否のテスト
+ */
+public class DbExecuterTest {
+
+	@Test
+	public void bindsOnlyWithParameters() {
+		assertTrue(DbExecuter.isBindable("UPDATE TEST_001 SET TEST_CODE = ? WHERE TEST_ID = ?", "A", 1));
+		assertFalse(DbExecuter.isBindable("UPDATE TEST_001 SET TEST_CODE = 'A?'"));
+		assertFalse(DbExecuter.isBindable("UPDATE TEST_001 SET TEST_CODE = 'A?'", (Object[])null));
+	}
+
+	@Test
+	public void ddlIsNotBound() {
+		assertFalse(DbExecuter.isBindable("CREATE OR REPLACE TRIGGER TRG_TEST_001 BEFORE INSERT ON TEST_001 "
+				+ "FOR EACH ROW BEGIN :NEW.TEST_CODE := UPPER(:NEW.TEST_CODE); END;", "X"));
+		assertFalse(DbExecuter.isBindable("  drop table %s cascade constraints", "TEST_001"));
+	}
+
+	@Test
+	public void plsqlBlockIsNotBound() {
+		assertFalse(DbExecuter.isBindable("BEGIN DBMS_STATS.GATHER_TABLE_STATS(USER, '%s'); END;", "TEST_001"));
+		assertFalse(DbExecuter.isBindable("DECLARE n NUMBER; BEGIN n := 1; END;", "X"));
+	}
+}
@@ -0,0 +1,105 @@
+package com.test.dbunit.common.db;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * {@link DirtyTables}のSQL解析のテスト
+ */
+public class DirtyTablesTest {
+
+	@Test
+	public void simpleStatements() {
+		assertEquals(tables("TEST_001"), DirtyTables.parse("insert into test_001 (TEST_ID) values (?)"));
+		assertEquals(tables("TEST_001"), DirtyTables.parse("UPDATE TEST_001 SET TEST_CODE = ? WHERE TEST_ID = ?"));
+		assertEquals(tables("TEST_001"), DirtyTables.parse("DELETE FROM TEST_001 WHERE TEST_ID = ?"));
+		assertEquals(tables("TEST_001"), DirtyTables.parse("DELETE TEST_001 WHERE TEST_ID = ?"));
+		assertEquals(tables("TEST_001"), DirtyTables.parse("UPDATE ONLY (TEST_001) SET TEST_CODE = ?"));
+		assertEquals(tables("TEST$1#"), DirtyTables.parse("DELETE FROM test$1#"));
+	}
+
+	@Test
+	public void quotedIdentifiers() {
+		assertEquals(tables("TEST_001"), DirtyTables.parse("INSERT INTO \"TEST_001\" VALUES (?)"));
+		assertEquals(tables("\"Test 001\""), DirtyTables.parse("UPDATE \"Test 001\" SET TEST_CODE = ?"));
+		assertEquals(tables("\"Schema\".\"Tbl\""), DirtyTables.parse("DELETE FROM \"Schema\".\"Tbl\""));
+		assertEquals(tables("SCOTT.\"emp\""), DirtyTables.parse("DELETE FROM \"SCOTT\".\"emp\""));
+	}
+
+	@Test
+	public void schemaQualifiedNames() {
+		assertEquals(tables("SCOTT.EMP"), DirtyTables.parse("INSERT INTO scott.emp VALUES (?)"));
+		assertEquals(tables("SCOTT.EMP"), DirtyTables.parse("UPDATE scott . emp SET SAL = ?"));
+		assertEquals(tables("SCOTT.EMP"), DirtyTables.parse("MERGE INTO SCOTT.\"EMP\" E USING DUAL ON (1 = 1) "
+				+ "WHEN MATCHED THEN UPDATE SET SAL = 0"));
+	}
+
+	@Test
+	public void comments() {
+		assertEquals(tables("TEST_001"), DirtyTables.parse("/* header */ -- line\n  DELETE FROM TEST_001"));
+		assertEquals(tables("TEST_001"), DirtyTables.parse("INSERT /*+ APPEND */ INTO TEST_001 SELECT * FROM X"));
+		assertEquals(tables("TEST_001"), DirtyTables.parse("UPDATE /*+ INDEX(T) */ TEST_001 T SET TEST_CODE = ?"));
+		assertEquals(tables("TEST_001"), DirtyTables.parse("DELETE /* FROM TEST_002 */ FROM TEST_001"));
+		assertEquals(Collections.emptySet(), DirtyTables.parse("-- DELETE FROM TEST_001\nSELECT * FROM TEST_001"));
+	}
+
+	@Test
+	public void merge() {
+		assertEquals(tables("TEST_001"), DirtyTables.parse("MERGE INTO TEST_001 T USING (SELECT ? ID FROM DUAL) S "
+				+ "ON (T.TEST_ID = S.ID) WHEN NOT MATCHED THEN INSERT (TEST_ID) VALUES (S.ID)"));
+		assertEquals(tables("TEST_001"), DirtyTables.parse("MERGE /*+ HINT */ INTO TEST_001 USING TEST_002 "
+				+ "ON (1 = 1) WHEN MATCHED THEN UPDATE SET TEST_CODE = 'X'"));
+	}
+
+	@Test
+	public void insertAll() {
+		assertEquals(tables("TEST_001", "TEST_002"), DirtyTables.parse("INSERT ALL INTO TEST_001 VALUES (1) "
+				+ "INTO TEST_002 (ID) VALUES (2) INTO test_001 VALUES (3) SELECT * FROM DUAL"));
+		assertEquals(tables("TEST_001", "TEST_002"), DirtyTables.parse("INSERT FIRST WHEN X = 1 THEN INTO TEST_001 "
+				+ "ELSE INTO TEST_002 SELECT 'INTO TEST_003' X FROM DUAL"));
+	}
+
+	@Test
+	public void literalsAreIgnored() {
+		assertEquals(tables("TEST_001"), DirtyTables.parse("INSERT INTO TEST_001 VALUES ('it''s INTO TEST_002')"));
+		assertEquals(tables("TEST_001"), DirtyTables.parse("INSERT INTO TEST_001 VALUES ('-- /*')"));
+	}
+
+	@Test
+	public void unknownTablesAreAll() {
+		Set<String> all = tables(DirtyTables.ALL_TABLES);
+		assertEquals(all, DirtyTables.parse("INSERT INTO (SELECT TEST_ID FROM TEST_001) VALUES (?)"));
+		assertEquals(all, DirtyTables.parse("UPDATE (SELECT * FROM TEST_001) SET TEST_CODE = ?"));
+		assertEquals(all, DirtyTables.parse("BEGIN DELETE FROM TEST_001; END;"));
+		assertEquals(all, DirtyTables.parse("declare x number; begin null; end;"));
+		assertEquals(all, DirtyTables.parse("{call PKG.PROC(?)}"));
+		assertEquals(all, DirtyTables.parse("{ ? = call PKG.FUNC(?) }"));
+		assertEquals(all, DirtyTables.parse("CALL PROC(?)"));
+	}
+
+	@Test
+	public void notUpdates() {
+		assertEquals(Collections.emptySet(), DirtyTables.parse(null));
+		assertEquals(Collections.emptySet(), DirtyTables.parse("SELECT * FROM TEST_001 FOR UPDATE"));
+		assertEquals(Collections.emptySet(), DirtyTables.parse("CREATE TABLE UPDATED (ID NUMBER)"));
+		assertEquals(Collections.emptySet(), DirtyTables.parse("SELECT 'INSERT INTO TEST_001' FROM DUAL"));
+	}
+
+	@Test
+	public void identifiers() {
+		assertEquals("TEST_001", DirtyTables.identifier("TEST_001"));
+		assertEquals("\"Test\"", DirtyTables.identifier("Test"));
+		assertEquals("\"1A\"", DirtyTables.identifier("1A"));
+		assertEquals("\"A\"\"B\"", DirtyTables.identifier("A\"B"));
+	}
+
+	private static Set<String> tables(String... tables) {
+		return new LinkedHashSet<String>(Arrays.asList(tables));
+	}
+}
@@ -0,0 +1,56 @@
+package com.test.dbunit.common.db;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+/**
+ * {@link SqlTemplate}のSQL解析のテスト
+ */
+public class SqlTemplateTest {
+
+	@Test
+	public void namedParameters() {
+		SqlTemplate template = new SqlTemplate("KEY",
+				"UPDATE TEST_001 SET TEST_CODE = :code WHERE TEST_ID = :id OR TEST_ID = :id");
+
+		assertEquals("UPDATE TEST_001 SET TEST_CODE = ? WHERE TEST_ID = ? OR TEST_ID = ?", template.getSql());
+		assertEquals(Arrays.asList("code", "id", "id"), template.getParameterNames());
+		assertEquals(3, template.getParameterCount());
+	}
+
+	@Test
+	public void positionalParameters() {
+		SqlTemplate template = new SqlTemplate("KEY", "DELETE FROM TEST_001 WHERE TEST_ID = ? AND TEST_CODE = ?");
+
+		assertEquals("DELETE FROM TEST_001 WHERE TEST_ID = ? AND TEST_CODE = ?", template.getSql());
+		assertEquals(Collections.emptyList(), template.getParameterNames());
+		assertEquals(2, template.getParameterCount());
+	}
+
+	@Test
+	public void literalsAndCommentsAreNotParameters() {
+		String sql = "SELECT TO_CHAR(START_DATETIME, 'HH24:MI'), \"A:B\" FROM TEST_001 -- :x ?\n"
+				+ "WHERE /* :y */ TEST_ID = :id";
+		SqlTemplate template = new SqlTemplate("KEY", sql);
+
+		assertEquals("SELECT TO_CHAR(START_DATETIME, 'HH24:MI'), \"A:B\" FROM TEST_001 -- :x ?\n"
+				+ "WHERE /* :y */ TEST_ID = ?", template.getSql());
+		assertEquals(Arrays.asList("id"), template.getParameterNames());
+	}
+
+	@Test
+	public void noParameters() {
+		SqlTemplate template = new SqlTemplate("KEY", "DROP TABLE TEST_001 CASCADE CONSTRAINTS");
+
+		assertEquals(0, template.getParameterCount());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void mixedParameters() {
+		new SqlTemplate("KEY", "SELECT * FROM TEST_001 WHERE TEST_ID = ? AND TEST_CODE = :code");
+	}
+}
@@ -0,0 +1,122 @@
+package com.test.dbunit.common.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+
+import org.dbunit.dataset.Column;
+import org.dbunit.dataset.DataSetException;
+import org.dbunit.dataset.datatype.DataType;
+import org.junit.Test;
+
+/**
+ * {@link TableChecksum}の正規化の規則のテスト
+ */
+public class TableChecksumTest {
+
+	private static final Column ID = new Column("TEST_ID", DataType.NUMERIC);
+	private static final Column CODE = new Column("TEST_CODE", DataType.VARCHAR);
+	private static final Column START = new Column("START_DATETIME", DataType.TIMESTAMP, "DATE",
+			Column.NULLABLE);
+
+	@Test
+	public void numberScale() throws DataSetException {
+		assertEquals("1.5", text("1.50", DataType.NUMERIC));
+		assertEquals("1.5", text(new BigDecimal("1.5"), DataType.NUMERIC));
+		assertEquals("100", text("100", DataType.NUMERIC));
+		assertEquals("100", text(new BigDecimal("1E+2"), DataType.NUMERIC));
+		assertEquals("100", text(Integer.valueOf(100), DataType.INTEGER));
+		assertEquals("0", text("0.00", DataType.NUMERIC));
+		assertEquals(".5", text("0.50", DataType.NUMERIC));
+		assertEquals("-.5", text("-0.50", DataType.NUMERIC));
+		assertEquals(".00001", text("0.000010", DataType.NUMERIC));
+	}
+
+	@Test
+	public void dates() throws DataSetException {
+		assertEquals("2013-01-02 03:04:05.000000000", text("2013-01-02 03:04:05", DataType.TIMESTAMP));
+		Timestamp timestamp = Timestamp.valueOf("2013-01-02 03:04:05.123");
+		assertEquals("2013-01-02 03:04:05.123000000", text(timestamp, DataType.TIMESTAMP));
+		timestamp.setNanos(123456789);
+		assertEquals("2013-01-02 03:04:05.123456789", text(timestamp, DataType.TIMESTAMP));
+	}
+
+	@Test
+	public void nullAndBlankAreDistinct() throws DataSetException {
+		TableChecksum checksum = new TableChecksum(new Column[] { ID, CODE });
+
+		assertEquals("1:1-", checksum.rowText(new Object[] { "1", null }));
+		assertEquals("1:10:", checksum.rowText(new Object[] { "1", "" }));
+		assertEquals("1:11:-", checksum.rowText(new Object[] { "1", "-" }));
+		assertEquals("1:12:日本", checksum.rowText(new Object[] { "1", "日本" }));
+	}
+
+	@Test
+	public void valuesAreNotConcatenatedAmbiguously() throws DataSetException {
+		TableChecksum checksum = new TableChecksum(new Column[] { CODE, CODE });
+
+		assertFalse(checksum.rowText(new Object[] { "ab", "c" }).equals(checksum.rowText(new Object[] { "a", "bc" })));
+	}
+
+	@Test
+	public void orderIndependent() throws DataSetException {
+		TableChecksum checksum1 = new TableChecksum(new Column[] { ID, CODE, START });
+		checksum1.add(new Object[] { "1", "A", "2013-01-02 03:04:05" });
+		checksum1.add(new Object[] { "2", "B", null });
+		TableChecksum checksum2 = new TableChecksum(new Column[] { ID, CODE, START });
+		checksum2.add(new Object[] { "2.0", "B", null });
+		checksum2.add(new Object[] { new BigDecimal("1"), "A", Timestamp.valueOf("2013-01-02 03:04:05") });
+
+		assertEquals(2, checksum1.getCount());
+		assertEquals(checksum1.getSum(), checksum2.getSum());
+		assertTrue(checksum2.matches(checksum1.getCount(), new BigDecimal(checksum1.getSum())));
+	}
+
+	@Test
+	public void duplicateRowsAreCounted() throws DataSetException {
+		TableChecksum once = new TableChecksum(new Column[] { ID });
+		once.add(new Object[] { "1" });
+		TableChecksum twice = new TableChecksum(new Column[] { ID });
+		twice.add(new Object[] { "1" });
+		twice.add(new Object[] { "1" });
+
+		assertFalse(twice.matches(once.getCount(), new BigDecimal(once.getSum())));
+	}
+
+	@Test
+	public void noRows() {
+		TableChecksum checksum = new TableChecksum(new Column[] { ID });
+
+		assertTrue(checksum.matches(0, null));
+	}
+
+	@Test
+	public void supportedColumns() {
+		assertTrue(TableChecksum.supports(ID));
+		assertTrue(TableChecksum.supports(CODE));
+		assertTrue(TableChecksum.supports(START));
+		assertFalse(TableChecksum.supports(new Column("TS", DataType.TIMESTAMP, "TIMESTAMP(6) WITH TIME ZONE",
+				Column.NULLABLE)));
+		assertFalse(TableChecksum.supports(new Column("D", DataType.DOUBLE)));
+		assertFalse(TableChecksum.supports(new Column("B", DataType.BLOB)));
+		assertFalse(TableChecksum.supports(new Column("C", DataType.CLOB)));
+	}
+
+	@Test
+	public void rowExpression() {
+		assertEquals("NVL2(TEST_ID, LENGTH(TO_CHAR(TEST_ID, 'TM9', 'NLS_NUMERIC_CHARACTERS=''.,''')) || ':' || "
+				+ "TO_CHAR(TEST_ID, 'TM9', 'NLS_NUMERIC_CHARACTERS=''.,'''), '-') || "
+				+ "NVL2(TEST_CODE, LENGTH(TEST_CODE) || ':' || TEST_CODE, '-') || "
+				+ "NVL2(START_DATETIME, LENGTH(TO_CHAR(CAST(START_DATETIME AS TIMESTAMP(9)), "
+				+ "'YYYY-MM-DD HH24:MI:SS.FF9')) || ':' || TO_CHAR(CAST(START_DATETIME AS TIMESTAMP(9)), "
+				+ "'YYYY-MM-DD HH24:MI:SS.FF9'), '-')",
+				TableChecksum.rowExpression(new Column[] { ID, CODE, START }));
+	}
+
+	private static String text(Object value, DataType dataType) throws DataSetException {
+		return TableChecksum.text(TableComparator.normalize(value, dataType));
+	}
+}
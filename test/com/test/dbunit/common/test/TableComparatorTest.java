@@ -0,0 +1,146 @@
+package com.test.dbunit.common.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.dbunit.dataset.Column;
+import org.dbunit.dataset.DataSetException;
+import org.dbunit.dataset.DefaultTable;
+import org.dbunit.dataset.ITable;
+import org.dbunit.dataset.datatype.DataType;
+import org.junit.Test;
+
+/**
+ * {@link TableComparator}の行の照合と報告のテスト
+ */
+public class TableComparatorTest {
+
+	private static final Column ID = new Column("TEST_ID", DataType.NUMERIC);
+	private static final Column CODE = new Column("TEST_CODE", DataType.VARCHAR);
+	private static final String[] KEY = { "TEST_ID" };
+
+	@Test
+	public void rowOrderIsIgnored() throws DataSetException {
+		ITable expected = table(row(1, "A"), row(2, "B"), row(3, "C"));
+		ITable actual = table(row(3, "C"), row(1, "A"), row(2, "B"));
+
+		TableComparator.Result result = compare(expected, actual, null, KEY, 10);
+		assertTrue(result.isMatched());
+		assertNull(result.getReport());
+		assertEquals(3, result.getExpectedRows());
+		assertEquals(3, result.getActualRows());
+	}
+
+	@Test
+	public void missingExtraAndChangedRows() throws DataSetException {
+		ITable expected = table(row(1, "A"), row(2, "B"), row(3, "C"));
+		ITable actual = table(row(1, "A"), row(2, "X"), row(4, "D"));
+
+		TableComparator.Result result = compare(expected, actual, null, KEY, 10);
+		assertFalse(result.isMatched());
+		assertEquals(1, result.getMissingCount());
+		assertEquals(1, result.getExtraCount());
+		assertEquals(1, result.getChangedCount());
+		assertEquals("TEST_001: expected 3 rows, actual 3 rows"
+				+ "\n  missing 1:\n    row 2: {TEST_ID=3, TEST_CODE=C}"
+				+ "\n  extra 1:\n    row 2: {TEST_ID=4, TEST_CODE=D}"
+				+ "\n  changed 1:\n    row 1 {TEST_ID=2}: TEST_CODE expected <B> but was <X>", result.getReport());
+	}
+
+	@Test
+	public void numbersAreComparedByValue() throws DataSetException {
+		ITable expected = table(row("1.50", "A"));
+		ITable actual = table(row("1.5", "A"));
+
+		assertTrue(compare(expected, actual, null, KEY, 10).isMatched());
+	}
+
+	@Test
+	public void duplicateKeys() throws DataSetException {
+		// 同じキーの行は、値が全て一致する行から照合する
+		ITable expected = table(row(1, "A"), row(1, "B"));
+		ITable actual = table(row(1, "B"), row(1, "C"));
+
+		TableComparator.Result result = compare(expected, actual, null, KEY, 10);
+		assertEquals(0, result.getMissingCount());
+		assertEquals(0, result.getExtraCount());
+		assertEquals(1, result.getChangedCount());
+		assertEquals("TEST_001: expected 2 rows, actual 2 rows"
+				+ "\n  changed 1:\n    row 0 {TEST_ID=1}: TEST_CODE expected <A> but was <C>", result.getReport());
+
+		assertTrue(compare(expected, table(row(1, "B"), row(1, "A")), null, KEY, 10).isMatched());
+	}
+
+	@Test
+	public void ignoredKeyFallsBackToFullRow() throws DataSetException {
+		// キーの列を比較しない場合は、比較する全列で行を識別する
+		ITable expected = table(row(1, "A"), row(2, "B"));
+		String[] ignore = { "test_id" };
+
+		assertTrue(compare(expected, table(row(9, "B"), row(8, "A")), ignore, KEY, 10).isMatched());
+
+		TableComparator.Result result = compare(expected, table(row(9, "A"), row(8, "X")), ignore, KEY, 10);
+		assertEquals(1, result.getMissingCount());
+		assertEquals(1, result.getExtraCount());
+		assertEquals(0, result.getChangedCount());
+		assertEquals("TEST_001: expected 2 rows, actual 2 rows"
+				+ "\n  missing 1:\n    row 1: {TEST_CODE=B}"
+				+ "\n  extra 1:\n    row 1: {TEST_CODE=X}", result.getReport());
+	}
+
+	@Test
+	public void reportIsCapped() throws DataSetException {
+		ITable expected = table(row(1, "A"), row(2, "B"), row(3, "C"), row(4, "D"), row(5, "E"));
+		ITable actual = table();
+
+		TableComparator.Result result = compare(expected, actual, null, KEY, 2);
+		assertEquals(5, result.getMissingCount());
+		assertEquals("TEST_001: expected 5 rows, actual 0 rows"
+				+ "\n  missing 5:"
+				+ "\n    row 0: {TEST_ID=1, TEST_CODE=A}"
+				+ "\n    row 1: {TEST_ID=2, TEST_CODE=B}"
+				+ "\n    ... and 3 more", result.getReport());
+	}
+
+	@Test
+	public void columnMismatch() throws DataSetException {
+		ITable expected = table(row(1, "A"));
+		DefaultTable actual = new DefaultTable("TEST_001", new Column[] { ID,
+				new Column("TEST_NAME", DataType.VARCHAR) });
+		actual.addRow(row(1, "A"));
+
+		TableComparator.Result result = compare(expected, actual, null, KEY, 10);
+		assertEquals("TEST_001: expected 1 rows, actual 1 rows"
+				+ "\n  column TEST_CODE is not in the actual table"
+				+ "\n  column TEST_NAME is not in the expected table", result.getReport());
+	}
+
+	private static TableComparator.Result compare(ITable expected, ITable actual, String[] ignoreColumns,
+			String[] keyNames, int maxDiffs) throws DataSetException {
+		TableComparator comparator = new TableComparator(expected, ignoreColumns, keyNames, maxDiffs);
+		Column[] columns = actual.getTableMetaData().getColumns();
+		comparator.begin(columns);
+		for (int row = 0; row < actual.getRowCount(); row++) {
+			Object[] values = new Object[columns.length];
+			for (int i = 0; i < columns.length; i++) {
+				values[i] = actual.getValue(row, columns[i].getColumnName());
+			}
+			comparator.compareRow(values);
+		}
+		return comparator.finish();
+	}
+
+	private static ITable table(Object[]... rows) throws DataSetException {
+		DefaultTable table = new DefaultTable("TEST_001", new Column[] { ID, CODE });
+		for (Object[] row : rows) {
+			table.addRow(row);
+		}
+		return table;
+	}
+
+	private static Object[] row(Object id, String code) {
+		return new Object[] { id, code };
+	}
+}
@@ -0,0 +1,162 @@
+package com.test.dbunit.common.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.dbunit.database.statement.IPreparedBatchStatement;
+import org.dbunit.dataset.datatype.DataType;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * {@link AdaptiveBatchStatementFactory}のバッチサイズの調整のテスト。<br/>
+ * 実行時間は、スタブの{@link PreparedStatement#executeBatch()}が進める仮の時刻で計測します。
+ */
+public class AdaptiveBatchStatementFactoryTest {
+
+	/** 仮の現在時刻（ナノ秒） */
+	private long clock;
+	private AdaptiveBatchStatementFactory factory;
+
+	@Before
+	public void createFactory() {
+		clock = 0;
+		factory = new AdaptiveBatchStatementFactory(2, 1, 16) {
+			@Override
+			long nanoTime() {
+				return clock;
+			}
+		};
+	}
+
+	@Test
+	public void growWhileFlat() throws Exception {
+		StubStatement stub = new StubStatement(1000);
+		load("INSERT INTO TEST_001 (TEST_ID) VALUES (?)", stub, 100);
+
+		assertEquals(16, factory.getBatchSize("TEST_001"));
+		assertEquals(Arrays.asList(2, 4, 8, 16, 16, 16, 16, 16, 6), stub.batches);
+	}
+
+	@Test
+	public void shrinkAndRecover() throws Exception {
+		StubStatement stub = new StubStatement(1000);
+		load("INSERT INTO TEST_001 (TEST_ID) VALUES (?)", stub, 30);
+		assertEquals(16, factory.getBatchSize("TEST_001"));
+
+		// 1行あたりの実行時間が悪化した場合は半分に減らす
+		stub.nanosPerRow = 5000;
+		load("INSERT INTO TEST_001 (TEST_ID) VALUES (?)", stub, 16);
+		assertEquals(8, factory.getBatchSize("TEST_001"));
+
+		// 回復した場合は再び増やし、基準値も回復後の実行時間に戻す
+		stub.nanosPerRow = 1000;
+		load("INSERT INTO TEST_001 (TEST_ID) VALUES (?)", stub, 8);
+		assertEquals(16, factory.getBatchSize("TEST_001"));
+		stub.nanosPerRow = 5000;
+		load("INSERT INTO TEST_001 (TEST_ID) VALUES (?)", stub, 16);
+		assertEquals(8, factory.getBatchSize("TEST_001"));
+	}
+
+	@Test
+	public void sizedPerTable() throws Exception {
+		StubStatement narrow = new StubStatement(1000);
+		StubStatement wide = new StubStatement(10000);
+		// 1行あたりの実行時間が異なるテーブルを交互に投入しても、互いのバッチサイズを減らさない
+		for (int i = 0; i < 5; i++) {
+			load("INSERT INTO TEST_001 (TEST_ID) VALUES (?)", narrow, 16);
+			load("insert into test_002 (TEST_ID) values (?)", wide, 16);
+		}
+
+		assertEquals(16, factory.getBatchSize("TEST_001"));
+		assertEquals(16, factory.getBatchSize("test_002"));
+	}
+
+	@Test
+	public void shrinkOnFailure() throws Exception {
+		StubStatement stub = new StubStatement(1000);
+		load("INSERT INTO TEST_001 (TEST_ID) VALUES (?)", stub, 6);
+		assertEquals(8, factory.getBatchSize("TEST_001"));
+
+		stub.failing = true;
+		IPreparedBatchStatement statement = factory.createStatement(stub.proxy(),
+				"INSERT INTO TEST_001 (TEST_ID) VALUES (?)");
+		try {
+			addRows(statement, 8);
+			fail("batch did not fail");
+		} catch (SQLException e) {
+			// expected
+		} finally {
+			statement.close();
+		}
+		assertEquals(4, factory.getBatchSize("TEST_001"));
+		assertEquals(0, stub.pending);
+	}
+
+	private void load(String sql, StubStatement stub, int rows) throws Exception {
+		IPreparedBatchStatement statement = factory.createStatement(stub.proxy(), sql);
+		try {
+			addRows(statement, rows);
+			statement.executeBatch();
+		} finally {
+			statement.close();
+		}
+	}
+
+	private static void addRows(IPreparedBatchStatement statement, int rows) throws Exception {
+		for (int i = 0; i < rows; i++) {
+			statement.addValue(Integer.valueOf(i), DataType.INTEGER);
+			statement.addBatch();
+		}
+	}
+
+	/**
+	 * 実行した行数に比例して仮の時刻を進める{@link PreparedStatement}のスタブ
+	 */
+	private class StubStatement implements InvocationHandler {
+		private long nanosPerRow;
+		private boolean failing = false;
+		private int pending = 0;
+		private final List<Integer> batches = new ArrayList<Integer>();
+
+		StubStatement(long nanosPerRow) {
+			this.nanosPerRow = nanosPerRow;
+		}
+
+		PreparedStatement proxy() {
+			return (PreparedStatement)Proxy.newProxyInstance(getClass().getClassLoader(),
+					new Class<?>[] { PreparedStatement.class }, this);
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			if ("addBatch".equals(name)) {
+				pending++;
+			} else if ("clearBatch".equals(name)) {
+				pending = 0;
+			} else if ("executeBatch".equals(name)) {
+				if (failing) {
+					throw new SQLException("ORA-01000: maximum open cursors exceeded");
+				}
+				clock += pending * nanosPerRow;
+				batches.add(Integer.valueOf(pending));
+				int[] counts = new int[pending];
+				Arrays.fill(counts, Statement.SUCCESS_NO_INFO);
+				pending = 0;
+				return counts;
+			}
+			return null;
+		}
+	}
+}
@@ -0,0 +1,160 @@
+package com.test.dbunit.common.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.Date;
+
+import org.apache.commons.io.FileUtils;
+import org.dbunit.dataset.Column;
+import org.dbunit.dataset.DataSetException;
+import org.dbunit.dataset.DefaultDataSet;
+import org.dbunit.dataset.DefaultTable;
+import org.dbunit.dataset.IDataSet;
+import org.dbunit.dataset.ITable;
+import org.dbunit.dataset.datatype.DataType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests of writing binary fixtures with {@link BinaryFixtureConverter} and reading them with {@link BinaryDataSet}.
+ */
+public class BinaryDataSetTest {
+
+	private File dir;
+
+	@Before
+	public void createDir() throws IOException {
+		dir = File.createTempFile("BinaryDataSetTest", "");
+		dir.delete();
+		dir.mkdir();
+	}
+
+	@After
+	public void deleteDir() throws IOException {
+		FileUtils.deleteDirectory(dir);
+	}
+
+	@Test
+	public void typedValues() throws Exception {
+		Timestamp timestamp = Timestamp.valueOf("2013-01-02 03:04:05.123456789");
+		Object[] values = new Object[] { Long.valueOf(-1234567890123L), Integer.valueOf(42), Double.valueOf(1.5),
+				new BigDecimal("12345678901234567890.123"), Boolean.TRUE, new Date(1000L),
+				new java.sql.Date(86400000L), timestamp, "日本語, \"quoted\"", "", null };
+		Column[] columns = new Column[values.length];
+		for (int i = 0; i < columns.length; i++) {
+			columns[i] = new Column("C" + i, DataType.UNKNOWN);
+		}
+		DefaultTable table = new DefaultTable("TEST_001", columns);
+		table.addRow(values);
+		table.addRow(new Object[values.length]);
+		File file = new File(dir, "typed.fxb");
+		BinaryDataSet.write(new DefaultDataSet(table), file);
+
+		BinaryDataSet dataSet = new BinaryDataSet(file);
+		try {
+			ITable actual = dataSet.getTable("TEST_001");
+			assertEquals(2, actual.getRowCount());
+			for (int i = 0; i < values.length; i++) {
+				assertEquals(values[i], actual.getValue(0, "C" + i));
+				assertNull(actual.getValue(1, "C" + i));
+			}
+			assertEquals(123456789, ((Timestamp)actual.getValue(0, "C7")).getNanos());
+		} finally {
+			dataSet.close();
+		}
+	}
+
+	@Test
+	public void bytes() throws Exception {
+		DefaultTable table = new DefaultTable("TEST_001", new Column[] { new Column("DATA", DataType.BINARY) });
+		table.addRow(new Object[] { new byte[] { 0, 1, -1 } });
+		File file = new File(dir, "bytes.fxb");
+		BinaryDataSet.write(new DefaultDataSet(table), file);
+
+		BinaryDataSet dataSet = new BinaryDataSet(file);
+		try {
+			assertArrayEquals(new byte[] { 0, 1, -1 }, (byte[])dataSet.getTable("TEST_001").getValue(0, "DATA"));
+		} finally {
+			dataSet.close();
+		}
+	}
+
+	@Test
+	public void convertFlatXml() throws Exception {
+		File source = writeFlatXml();
+
+		assertTrue(BinaryFixtureConverter.convert(source));
+		assertTrue(BinaryFixtureConverter.isUpToDate(source));
+		assertFalse(BinaryFixtureConverter.convert(source));
+
+		IDataSet expected = DbUnitUtils.parseDataSetFile(source);
+		BinaryDataSet actual = new BinaryDataSet(BinaryFixtureConverter.compiledFileOf(source));
+		try {
+			assertEquals(2, actual.getTableNames().length);
+			for (String tableName : expected.getTableNames()) {
+				ITable expectedTable = expected.getTable(tableName);
+				ITable actualTable = actual.getTable(tableName);
+				assertEquals(expectedTable.getRowCount(), actualTable.getRowCount());
+				for (int row = 0; row < expectedTable.getRowCount(); row++) {
+					for (Column column : expectedTable.getTableMetaData().getColumns()) {
+						assertEquals(expectedTable.getValue(row, column.getColumnName()),
+								actualTable.getValue(row, column.getColumnName()));
+					}
+				}
+			}
+		} finally {
+			actual.close();
+		}
+	}
+
+	@Test
+	public void cachedOnce() throws Exception {
+		File source = writeFlatXml();
+		BinaryFixtureConverter.convert(source);
+
+		IDataSet first = DataSetCache.get(source);
+		assertTrue(first instanceof BinaryDataSet);
+		assertSame(first, DataSetCache.get(source));
+		DataSetCache.clear();
+	}
+
+	@Test
+	public void closed() throws Exception {
+		File source = writeFlatXml();
+		BinaryFixtureConverter.convert(source);
+		File compiled = BinaryFixtureConverter.compiledFileOf(source);
+		BinaryDataSet dataSet = new BinaryDataSet(compiled);
+		ITable table = dataSet.getTable("TEST_001");
+		assertEquals("a", table.getValue(0, "NAME"));
+
+		dataSet.close();
+		dataSet.close();
+		try {
+			table.getValue(0, "NAME");
+			fail("closed dataset was read");
+		} catch (DataSetException e) {
+			// expected
+		}
+		assertTrue(compiled.delete());
+	}
+
+	private File writeFlatXml() throws IOException {
+		File source = new File(dir, "input.xml");
+		FileUtils.writeStringToFile(source, "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<dataset>\n"
+				+ "<TEST_001 ID=\"1\" NAME=\"a\"/>\n<TEST_001 ID=\"2\" NAME=\"日本\"/>\n<TEST_001 ID=\"3\"/>\n"
+				+ "<TEST_002 CODE=\"X\"/>\n</dataset>\n", "UTF-8");
+		source.setLastModified(System.currentTimeMillis() - 10000L);
+		return source;
+	}
+}
@@ -0,0 +1,166 @@
+package com.test.dbunit.common.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.dbunit.dataset.Column;
+import org.dbunit.dataset.DataSetException;
+import org.dbunit.dataset.DefaultDataSet;
+import org.dbunit.dataset.DefaultTable;
+import org.dbunit.dataset.IDataSet;
+import org.dbunit.dataset.ITable;
+import org.dbunit.dataset.ReplacementDataSet;
+import org.dbunit.dataset.datatype.DataType;
+import org.junit.Test;
+
+/**
+ * Tests that {@link CompiledReplacementDataSet} returns the same values as {@link ReplacementDataSet}.
+ */
+public class CompiledReplacementDataSetTest {
+
+	private static final Column[] COLUMNS = new Column[] { new Column("ID", DataType.UNKNOWN),
+			new Column("NAME", DataType.UNKNOWN), new Column("NOTE", DataType.UNKNOWN) };
+
+	private static final Object[][] ROWS = new Object[][] {
+			{ "1", "$NULL", "plain" },
+			{ "2", "$BLANK", null },
+			{ "3", "$NULL ", "${USER} and ${HOST}" },
+			{ "4", "${USER}", "$" },
+			{ Integer.valueOf(99), "", "x${UNKNOWN}y" },
+			{ "5", "日本", "$NULL$NULL" },
+	};
+
+	@Test
+	public void sameAsReplacementDataSet() throws Exception {
+		ReplacementDataSet expected = new ReplacementDataSet(dataSet());
+		CompiledReplacementDataSet actual = new CompiledReplacementDataSet(dataSet(), false);
+		for (ReplacementDataSet target : new ReplacementDataSet[] { expected, actual }) {
+			target.addReplacementObject("$NULL", null);
+			target.addReplacementObject("$BLANK", "");
+			target.addReplacementObject(Integer.valueOf(99), new BigDecimal("99.5"));
+			target.addReplacementObject("日本", "Japan");
+			target.setSubstringDelimiters("${", "}");
+			target.addReplacementSubstring("USER", "scott");
+			target.addReplacementSubstring("HOST", "localhost");
+		}
+
+		assertSameValues(expected.getTable("TEST_001"), actual.getTable("TEST_001"));
+		assertSameValues(expected.getTable("TEST_002"), actual.getTable("TEST_002"));
+		assertEquals(expected.getTableNames().length, actual.getTableNames().length);
+	}
+
+	@Test
+	public void valueIsComputedOncePerDataSet() throws Exception {
+		CountingValue value = new CountingValue(false);
+		CompiledReplacementDataSet dataSet = new CompiledReplacementDataSet(dataSet(), true);
+		dataSet.addReplacementValue("$NULL", value);
+
+		ITable table1 = dataSet.getTable("TEST_001");
+		ITable table2 = dataSet.getTable("TEST_002");
+		assertEquals("value1", table1.getValue(0, "NAME"));
+		assertEquals("value1", table2.getValue(0, "NAME"));
+		assertEquals("$NULL ", table1.getValue(2, "NAME"));
+		assertEquals(1, value.count.get());
+	}
+
+	@Test
+	public void randomValueIsComputedPerCell() throws Exception {
+		CountingValue value = new CountingValue(true);
+		CompiledReplacementDataSet dataSet = new CompiledReplacementDataSet(dataSet(), true);
+		dataSet.addReplacementValue("$NULL", value);
+		dataSet.addReplacementValue("$BLANK", value);
+
+		ITable table = dataSet.getTable("TEST_001");
+		Object name0 = table.getValue(0, "NAME");
+		Object name1 = table.getValue(1, "NAME");
+		assertFalse(name0.equals(name1));
+		assertSame(name0, table.getValue(0, "NAME"));
+		assertSame(name1, table.getValue(1, "NAME"));
+		assertEquals(2, value.count.get());
+	}
+
+	/**
+	 * A table read by several threads returns one value per dataset, and one value per cell in
+	 * <code>randomPerCell</code> mode.
+	 */
+	@Test
+	public void concurrentReads() throws Exception {
+		final CountingValue once = new CountingValue(false);
+		final CountingValue perCell = new CountingValue(true);
+		CompiledReplacementDataSet dataSet = new CompiledReplacementDataSet(dataSet(), true);
+		dataSet.addReplacementValue("$NULL", once);
+		dataSet.addReplacementValue("$BLANK", perCell);
+		final ITable table = dataSet.getTable("TEST_001");
+
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<Object[]>> results = new ArrayList<Future<Object[]>>();
+			for (int i = 0; i < 64; i++) {
+				results.add(executor.submit(new Callable<Object[]>() {
+					@Override
+					public Object[] call() throws Exception {
+						return new Object[] { table.getValue(0, "NAME"), table.getValue(1, "NAME") };
+					}
+				}));
+			}
+			Object[] first = results.get(0).get();
+			for (Future<Object[]> result : results) {
+				Object[] values = result.get();
+				assertSame(first[0], values[0]);
+				assertSame(first[1], values[1]);
+			}
+		} finally {
+			executor.shutdown();
+		}
+		assertEquals(1, once.count.get());
+	}
+
+	private static IDataSet dataSet() throws DataSetException {
+		DefaultTable table1 = new DefaultTable("TEST_001", COLUMNS);
+		DefaultTable table2 = new DefaultTable("TEST_002", COLUMNS);
+		for (Object[] row : ROWS) {
+			table1.addRow(row);
+			table2.addRow(row);
+		}
+		return new DefaultDataSet(new ITable[] { table1, table2 });
+	}
+
+	private static void assertSameValues(ITable expected, ITable actual) throws DataSetException {
+		assertEquals(expected.getRowCount(), actual.getRowCount());
+		for (int row = 0; row < expected.getRowCount(); row++) {
+			for (Column column : COLUMNS) {
+				assertEquals(expected.getValue(row, column.getColumnName()),
+						actual.getValue(row, column.getColumnName()));
+			}
+		}
+	}
+
+	private static class CountingValue implements CompiledReplacementDataSet.Value {
+		private final boolean random;
+		private final AtomicInteger count = new AtomicInteger();
+
+		CountingValue(boolean random) {
+			this.random = random;
+		}
+
+		@Override
+		public Object value() {
+			return "value" + count.incrementAndGet();
+		}
+
+		@Override
+		public boolean isRandom() {
+			return random;
+		}
+	}
+}
@@ -0,0 +1,143 @@
+package com.test.dbunit.common.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.dbunit.dataset.DataSetException;
+import org.dbunit.dataset.IDataSet;
+import org.dbunit.dataset.ITable;
+import org.dbunit.dataset.ITableIterator;
+import org.dbunit.dataset.csv.CsvDataSet;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests of the CSV syntax and the table ordering of {@link ParallelCsvDataSet}.
+ */
+public class ParallelCsvDataSetTest {
+
+	private File dir;
+
+	@Before
+	public void createDir() throws IOException {
+		dir = File.createTempFile("ParallelCsvDataSetTest", "");
+		dir.delete();
+		dir.mkdir();
+	}
+
+	@After
+	public void deleteDir() throws IOException {
+		FileUtils.deleteDirectory(dir);
+	}
+
+	@Test
+	public void quotedValues() throws Exception {
+		ITable table = parse("ID,NAME\n1,\"a, b\"\n2,  c  \n3,\" d \"\n");
+
+		assertEquals(3, table.getRowCount());
+		assertEquals("a, b", table.getValue(0, "NAME"));
+		assertEquals("c", table.getValue(1, "NAME"));
+		assertEquals(" d ", table.getValue(2, "NAME"));
+	}
+
+	@Test
+	public void escapedQuotes() throws Exception {
+		ITable table = parse("ID,NAME\n1,\"say \\\"hi\\\"\"\n2,back\\\\slash\n3,\\,\n");
+
+		assertEquals("say \"hi\"", table.getValue(0, "NAME"));
+		assertEquals("back\\slash", table.getValue(1, "NAME"));
+		assertEquals(",", table.getValue(2, "NAME"));
+	}
+
+	@Test
+	public void embeddedNewlines() throws Exception {
+		ITable table = parse("ID,NAME\r\n1,\"line1\nline2\"\r\n2,\"line1\r\nline2\"\r\n3,x\r\n");
+
+		assertEquals(3, table.getRowCount());
+		assertEquals("line1\nline2", table.getValue(0, "NAME"));
+		assertEquals("line1\r\nline2", table.getValue(1, "NAME"));
+		assertEquals("x", table.getValue(2, "NAME"));
+	}
+
+	@Test
+	public void nullAndBlankLines() throws Exception {
+		ITable table = parse("ID,NAME\n\n1,null\n\n2,\"\"\n\n");
+
+		assertEquals(2, table.getRowCount());
+		assertNull(table.getValue(0, "NAME"));
+		assertEquals("", table.getValue(1, "NAME"));
+	}
+
+	@Test(expected = DataSetException.class)
+	public void unterminatedQuote() throws Exception {
+		parse("ID,NAME\n1,\"abc\n");
+	}
+
+	@Test(expected = DataSetException.class)
+	public void wrongColumnCount() throws Exception {
+		parse("ID,NAME\n1,a,b\n");
+	}
+
+	/**
+	 * Many tables larger than the read buffer are parsed on the pool, returned in table-ordering.txt order,
+	 * and give the same values as {@link CsvDataSet}.
+	 */
+	@Test
+	public void manyTablesInOrder() throws Exception {
+		List<String> tableNames = new ArrayList<String>();
+		for (int i = 0; i < 40; i++) {
+			String tableName = "T" + (40 - i);
+			StringBuilder csv = new StringBuilder("ID,NAME,NOTE\n");
+			for (int row = 0; row < 500; row++) {
+				csv.append(row).append(",\"").append(tableName).append(", row ").append(row)
+						.append("\",note ").append(row).append('\n');
+			}
+			write(tableName, csv.toString());
+			tableNames.add(tableName);
+		}
+		FileUtils.writeLines(new File(dir, CsvDataSet.TABLE_ORDERING_FILE), tableNames);
+
+		IDataSet expected = new CsvDataSet(dir);
+		IDataSet actual = new ParallelCsvDataSet(dir);
+
+		assertEquals(tableNames.size(), actual.getTableNames().length);
+		ITableIterator iterator = actual.iterator();
+		for (String tableName : tableNames) {
+			iterator.next();
+			ITable table = iterator.getTable();
+			assertEquals(tableName, table.getTableMetaData().getTableName());
+			assertSameValues(expected.getTable(tableName), table);
+		}
+		ITableIterator reversed = actual.reverseIterator();
+		for (int i = tableNames.size() - 1; i >= 0; i--) {
+			reversed.next();
+			assertEquals(tableNames.get(i), reversed.getTableMetaData().getTableName());
+		}
+	}
+
+	private ITable parse(String csv) throws Exception {
+		write("TEST_001", csv);
+		FileUtils.writeStringToFile(new File(dir, CsvDataSet.TABLE_ORDERING_FILE), "TEST_001\n");
+		return new ParallelCsvDataSet(dir).getTable("TEST_001");
+	}
+
+	private void write(String tableName, String csv) throws IOException {
+		FileUtils.writeStringToFile(new File(dir, tableName + ".csv"), csv);
+	}
+
+	private static void assertSameValues(ITable expected, ITable actual) throws DataSetException {
+		assertEquals(expected.getRowCount(), actual.getRowCount());
+		for (int row = 0; row < expected.getRowCount(); row++) {
+			for (String column : new String[] { "ID", "NAME", "NOTE" }) {
+				assertEquals(expected.getValue(row, column), actual.getValue(row, column));
+			}
+		}
+	}
+}
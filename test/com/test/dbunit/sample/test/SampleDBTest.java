@@ -7,10 +7,11 @@ import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import com.test.dbunit.common.annotation.PrimaryKey;
 import com.test.dbunit.common.db.DbExecuter;
 import com.test.dbunit.common.db.SQLs;
 import com.test.dbunit.common.test.DBTestBase;
-import com.test.dbunit.common.util.StaticColumnFilter.PrimaryKey;
+import com.test.dbunit.common.util.StaticColumnFilter;
 
 /**
  *
@@ -24,8 +25,10 @@ public class SampleDBTest extends DBTestBase {
 	/** テーブル名 */
 	private static final String T_TEST_001 = "TEST_001";
 
-	/** テーブル名 */
-	private static PrimaryKey PKEYS[] = { new PrimaryKey(T_TEST_001, new String[] { "TEST_ID" }) };
+	/** プライマリキー */
+	@PrimaryKey
+	private static StaticColumnFilter.PrimaryKey PKEYS[] = { new StaticColumnFilter.PrimaryKey(T_TEST_001,
+			new String[] { "TEST_ID" }) };
 
 	/**
 	 *
@@ -55,7 +58,7 @@ public class SampleDBTest extends DBTestBase {
 		String testMethod = name.getMethodName();
 
 		// 準備データinsert
-		this.prepare(testMethod, PKEYS);
+		this.prepare(testMethod);
 
 		// Business Logic 実行
 